@@ -71,9 +71,32 @@ public class BlackjackClient {
         String[] serverMessageComponents = serverMessage.split("--");   // array containing the components of the server message
         switch (serverMessageComponents[1]) {
             case "WELCOME":
+                if (serverMessageComponents.length > 2) {
+                    model.setSessionToken(serverMessageComponents[2]);
+                }
                 view.showWelcomePanel();
                 getServerMessage();
                 break;
+            case "RESUMED":
+                resync(serverMessageComponents);
+                getServerMessage();
+                break;
+            case "SESSION":
+                model.setSessionToken(serverMessageComponents[2]);
+                getServerMessage();
+                break;
+            case "QUEUED":
+                view.setWelcomeQueued(serverMessageComponents[2], serverMessageComponents[3]);
+                getServerMessage();
+                break;
+            case "SERVERFULL":
+                view.serverFull();
+                break;
+            case "RESUMEFAILED":
+                view.reset();
+                model.reset();
+                getServerMessage();
+                break;
             case "GETBET":
                 view.setWelcomeWaiting(false);
                 view.setContinuePlayingWaiting(false);
@@ -364,7 +387,6 @@ public class BlackjackClient {
                 view.showContinuePlayingPanel();
                 view.setContinuePlayingMoneyLabel(serverMessageComponents[2]);
                 view.gameOver();
-                getServerMessage();
                 break;
             case "WAITING":
                 switch (serverMessageComponents[2]) {
@@ -393,6 +415,48 @@ public class BlackjackClient {
         }
     }
 
+    /**
+     * Rebuilds the view from a snapshot sent by the server after the
+     * session was resumed. The snapshot holds the player's money and,
+     * once the round has been dealt, the dealer's hand followed by each
+     * of the player's hands. Any choice the player still has to make is
+     * sent by the server right after the snapshot.
+     *
+     * @param snapshot Components of the snapshot message
+     */
+
+    private void resync(String[] snapshot) {
+        view.reset();
+        model.reset();
+        if (snapshot.length == 3) {
+            view.showWelcomePanel();
+            view.setWelcomeWaiting(true);
+            return;
+        }
+        view.showTurnPanel();
+        view.setTurnMoneyLabel(snapshot[2]);
+        String[] dealerHand = snapshot[3].split(":");   // value and cards of the dealer's hand
+        for (String card : dealerHand[1].split(",")) {
+            view.addDealerCard(model.getCardImageLabel(card));
+        }
+        if (!dealerHand[0].equals("0")) {
+            view.setDealerHandValueLabel(dealerHand[0]);
+        }
+        for (int i = 4; i < snapshot.length; i++) {
+            String[] hand = snapshot[i].split(":");     // bet, value and cards of the player's hand
+            int index = i - 4;                          // index of the player's hand
+            model.addPlayerHandPanel(index, new BlackjackHandPanel(this));
+            view.addPlayerHandPanel(model.getPlayerHandPanel(index), index);
+            model.getPlayerHandPanel(index).setHandBet(hand[0]);
+            for (String card : hand[2].split(",")) {
+                model.getPlayerHandPanel(index).addCard(model.getCardImageLabel(card));
+            }
+            if (!hand[1].equals("0")) {
+                model.getPlayerHandPanel(index).setHandValueLabel(hand[1]);
+            }
+        }
+    }
+
     /**
      * Calls the model sendClientMessage method with the given clientMessage.
      *
@@ -1,7 +1,7 @@
 import javax.swing.*;
 import java.io.*;
-import java.net.Socket;
 import java.util.ArrayList;
+import java.util.concurrent.ThreadLocalRandom;
 import javax.imageio.ImageIO;
 
 /**
@@ -12,9 +12,13 @@ import javax.imageio.ImageIO;
 
 public class BlackjackClientModel {
     private static final int MESSAGE_WAIT_TIME = 500;                           // time to wait between server messages
-    private Socket socket;                                                      // socket on server address and port
-    private BufferedReader in;                                                  // in to server
-    private PrintWriter out;                                                    // out from server
+    private static final int INITIAL_RECONNECT_DELAY = 250;                     // longest milliseconds to wait before the first reconnect attempt
+    private static final int MAXIMUM_RECONNECT_DELAY = 30000;                   // longest milliseconds to wait before any reconnect attempt
+    private static final int MAXIMUM_CONNECT_ATTEMPTS = 10;                     // attempts to connect to the server before giving up
+    private ServerConnection.Connector connector;                               // opens connections to the server
+    private String serverName;                                                  // description of the server used in messages
+    private String sessionToken;                                                // token to resume the session with after reconnecting, null if there is no session
+    private ServerConnection connection;                                        // connection to the server
     private ArrayList<BlackjackHandPanel> playerHandPanels = new ArrayList<>(); // holds player hand panels
 
     /**
@@ -25,23 +29,61 @@ public class BlackjackClientModel {
      */
 
     public BlackjackClientModel(String serverAddress, int serverPort) {
-        try {
-            socket = new Socket(serverAddress, serverPort);
-        } catch (IOException e) {
-            System.err.println("No Blackjack server running on port " + serverPort + " at address " + serverAddress);
-            System.exit(1);
-        }
-        try {
-            InputStreamReader isr = new InputStreamReader(socket.getInputStream());    // input stream reader from socket
-            in = new BufferedReader(isr);
-            out = new PrintWriter(socket.getOutputStream(), true);
-        } catch (IOException e) {
-            e.printStackTrace();
+        this(() -> new TcpServerConnection(serverAddress, serverPort), "Blackjack server on port " + serverPort + " at address " + serverAddress);
+    }
+
+    /**
+     * Constructor for BlackjackClientModel object that reaches the server
+     * through any kind of connection, such as an in-memory one when the
+     * server runs in the same JVM.
+     *
+     * @param connector Opens connections to the server
+     * @param serverName Description of the server used in messages
+     */
+
+    public BlackjackClientModel(ServerConnection.Connector connector, String serverName) {
+        this.connector = connector;
+        this.serverName = serverName;
+        connect();
+    }
+
+    /**
+     * Connects to the server, retrying with exponential backoff. Each
+     * wait is drawn at random up to the backoff limit, so that clients
+     * dropped together by a server restart do not all reconnect at the
+     * same moment. As soon as the connection opens, the server is asked
+     * to resume the session if there is one, or for a seat if not.
+     */
+
+    private void connect() {
+        int maximumDelay = INITIAL_RECONNECT_DELAY; // longest milliseconds to wait before the next attempt
+        for (int attempt = 1; attempt <= MAXIMUM_CONNECT_ATTEMPTS; attempt++) {
+            try {
+                connection = connector.connect();
+                connection.send(sessionToken != null ? "RESUME--" + sessionToken : "PLAY");
+                return;
+            } catch (IOException e) {
+                if (attempt == MAXIMUM_CONNECT_ATTEMPTS) {
+                    break;
+                }
+                int delay = ThreadLocalRandom.current().nextInt(maximumDelay + 1);  // milliseconds to wait before the next attempt
+                System.err.println("Could not connect to " + serverName + ", retrying in " + delay + " ms");
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException interruptedException) {
+                    interruptedException.printStackTrace();
+                }
+                maximumDelay = Math.min(maximumDelay * 2, MAXIMUM_RECONNECT_DELAY);
+            }
         }
+        System.err.println("No " + serverName + " running");
+        System.exit(1);
     }
 
     /**
-     * Gets a message sent by the server.
+     * Gets a message sent by the server. If the connection has dropped,
+     * reconnects and returns the first message on the new connection,
+     * which is a snapshot of the round if the session was resumed.
      *
      * @return message sent by the server
      */
@@ -55,14 +97,32 @@ public class BlackjackClientModel {
         }
         while (serverMessage == null) {
             try {
-                serverMessage = in.readLine();
+                serverMessage = connection.readLine();
             } catch (IOException e) {
-                e.printStackTrace();
+                System.err.println("Lost connection to Blackjack server: " + e.getMessage());
+            }
+            if (serverMessage == null) {
+                try {
+                    connection.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                connect();
             }
         }
         return serverMessage;
     }
 
+    /**
+     * Sets the token used to resume the session after reconnecting.
+     *
+     * @param sessionToken Token of the session
+     */
+
+    public void setSessionToken(String sessionToken) {
+        this.sessionToken = sessionToken;
+    }
+
     /**
      * Sends a message to the server.
      *
@@ -70,7 +130,7 @@ public class BlackjackClientModel {
      */
 
     public void sendClientMessage(String clientMessage) {
-        out.println(clientMessage);
+        connection.send(clientMessage);
     }
 
     /**
@@ -131,13 +191,13 @@ public class BlackjackClientModel {
     }
 
     /**
-     * Sends a message to the server to quit the game and closes the socket.
+     * Sends a message to the server to quit the game and closes the connection.
      */
 
     public void quitGame() {
         sendClientMessage("CLIENTMESSAGE--QUITGAME");
         try {
-            socket.close();
+            connection.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -167,10 +167,35 @@ public class BlackjackClientView extends JFrame implements ActionListener {
      */
 
     public void setWelcomeWaiting(Boolean b) {
+        welcomeWaitingLabel.setText("Waiting for other players to join.");
         welcomeWaitingLabel.setVisible(b);
         showChanges();
     }
 
+    /**
+     * Shows the player's place in the queue for a seat on the welcome waiting label.
+     *
+     * @param position Position of the player in the queue
+     * @param estimatedWait Estimated seconds until the player is seated, -1 if not known
+     */
+
+    public void setWelcomeQueued(String position, String estimatedWait) {
+        String waitMessage = estimatedWait.equals("-1") ? "" : " Estimated wait: " + estimatedWait + " seconds.";  // estimated wait shown to the player, empty if not known
+        welcomeWaitingLabel.setText("All tables are full. You are number " + position + " in line." + waitMessage);
+        welcomeWaitingLabel.setVisible(true);
+        showChanges();
+    }
+
+    /**
+     * Tells the player that the server is full.
+     */
+
+    public void serverFull() {
+        welcomeWaitingLabel.setText("The server is full. Please try again later.");
+        welcomeWaitingLabel.setVisible(true);
+        showPanel(PanelNames.WELCOMEPANEL);
+    }
+
     /**
      * Creates the bet panel.
      */
@@ -0,0 +1,54 @@
+import java.io.IOException;
+
+/**
+ * ServerConnection objects carry the lines of the text protocol between
+ * the client and the server. The client only ever reads and sends whole
+ * lines, so a connection can be a socket or an in-memory queue.
+ *
+ * @author Jordan Segalman
+ */
+
+public interface ServerConnection {
+
+    /**
+     * Connector objects open new connections to the server, both the
+     * first time and every time the client reconnects.
+     */
+
+    interface Connector {
+
+        /**
+         * Opens a connection to the server.
+         *
+         * @return the new connection
+         * @throws IOException if the server cannot be reached
+         */
+
+        ServerConnection connect() throws IOException;
+    }
+
+    /**
+     * Reads the next line sent by the server, blocking until one arrives.
+     *
+     * @return the line without its terminator, null if the server closed the connection
+     * @throws IOException if the connection cannot be read
+     */
+
+    String readLine() throws IOException;
+
+    /**
+     * Sends a line to the server.
+     *
+     * @param message Line to send, without its terminator
+     */
+
+    void send(String message);
+
+    /**
+     * Closes the connection.
+     *
+     * @throws IOException if the connection cannot be closed
+     */
+
+    void close() throws IOException;
+}
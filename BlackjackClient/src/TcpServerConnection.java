@@ -0,0 +1,66 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+
+/**
+ * TcpServerConnection objects carry protocol lines to and from the server over a socket.
+ *
+ * @author Jordan Segalman
+ */
+
+public class TcpServerConnection implements ServerConnection {
+    private Socket socket;                                                      // socket on server address and port
+    private BufferedReader in;                                                  // in to server
+    private PrintWriter out;                                                    // out from server
+
+    /**
+     * Constructor for TcpServerConnection object.
+     *
+     * @param serverAddress Server address
+     * @param serverPort Server port
+     * @throws IOException if the server cannot be reached
+     */
+
+    public TcpServerConnection(String serverAddress, int serverPort) throws IOException {
+        socket = new Socket(serverAddress, serverPort);
+        InputStreamReader isr = new InputStreamReader(socket.getInputStream());    // input stream reader from socket
+        in = new BufferedReader(isr);
+        out = new PrintWriter(socket.getOutputStream(), true);
+    }
+
+    /**
+     * Reads the next line from the socket.
+     *
+     * @return the line without its terminator, null if the server closed the connection
+     * @throws IOException if the socket cannot be read
+     */
+
+    @Override
+    public String readLine() throws IOException {
+        return in.readLine();
+    }
+
+    /**
+     * Writes a line to the socket and flushes it.
+     *
+     * @param message Line to send, without its terminator
+     */
+
+    @Override
+    public void send(String message) {
+        out.println(message);
+    }
+
+    /**
+     * Closes the socket.
+     *
+     * @throws IOException if the socket cannot be closed
+     */
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,191 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * AcceptorPool objects accept players on the server port with several
+ * acceptor threads. Where the platform supports SO_REUSEPORT every
+ * acceptor binds its own listening socket to the port, so the kernel
+ * spreads new connections over separate accept queues and the acceptors
+ * never wait on each other. Elsewhere the acceptors share one socket.
+ *
+ * @author Jordan Segalman
+ */
+
+public class AcceptorPool {
+    private static final String LISTEN_STATE = "0A";                        // state of a listening socket in the kernel socket tables
+    private static final Path[] SOCKET_TABLES = {Path.of("/proc/net/tcp"), Path.of("/proc/net/tcp6")};  // kernel tables of TCP sockets
+    private int port;                                                       // port players connect to
+    private int acceptors;                                                  // number of acceptor threads
+    private int backlog;                                                    // most connections each listening socket queues before they are accepted
+    private Consumer<Socket> handler;                                       // handler given every accepted connection on the acceptor's thread
+    private ServerSocket[] serverSockets;                                   // sockets accepting players, null until bound
+    private boolean reusePort;                                              // true if every acceptor has its own socket bound with SO_REUSEPORT, false if they share one
+    private AtomicLongArray accepts;                                        // number of connections accepted by each acceptor
+    private volatile boolean closed;                                        // true once the acceptors have been stopped, false if not
+
+    /**
+     * Constructor for AcceptorPool object.
+     *
+     * @param port Port players connect to
+     * @param acceptors Number of acceptor threads
+     * @param backlog Most connections each listening socket queues before they are accepted
+     * @param handler Handler given every accepted connection on the acceptor's thread
+     */
+
+    public AcceptorPool(int port, int acceptors, int backlog, Consumer<Socket> handler) {
+        this.port = port;
+        this.acceptors = acceptors;
+        this.backlog = backlog;
+        this.handler = handler;
+        accepts = new AtomicLongArray(acceptors);
+    }
+
+    /**
+     * Binds the listening sockets. A single acceptor binds an ordinary
+     * socket, so a second server started on the same port still fails to
+     * bind instead of silently sharing its connections.
+     *
+     * @throws IOException if the port cannot be bound
+     */
+
+    public void bind() throws IOException {
+        ServerSocket firstSocket = new ServerSocket();  // socket of the first acceptor
+        reusePort = acceptors > 1 && firstSocket.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        serverSockets = new ServerSocket[reusePort ? acceptors : 1];
+        for (int i = 0; i < serverSockets.length; i++) {
+            serverSockets[i] = i == 0 ? firstSocket : new ServerSocket();
+            if (reusePort) {
+                serverSockets[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            serverSockets[i].bind(new InetSocketAddress(port), backlog);
+        }
+    }
+
+    /**
+     * Starts the acceptor threads.
+     */
+
+    public void start() {
+        Log.info("Listening on port {} with {} acceptors", port, acceptors);
+        if (acceptors > 1 && !reusePort) {
+            Log.info("SO_REUSEPORT is not supported, so the acceptors share one socket");
+        }
+        for (int i = 0; i < acceptors; i++) {
+            int acceptor = i;   // index of the acceptor
+            new Thread(() -> accept(acceptor), "acceptor-" + acceptor).start();
+        }
+    }
+
+    /**
+     * Accepts connections until the acceptor's socket fails.
+     *
+     * @param acceptor Index of the acceptor
+     */
+
+    private void accept(int acceptor) {
+        ServerSocket serverSocket = serverSockets[reusePort ? acceptor : 0];    // socket the acceptor accepts on
+        try {
+            while (true) {
+                Socket socket = serverSocket.accept();
+                accepts.incrementAndGet(acceptor);
+                handler.accept(socket);
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                Log.error("Acceptor " + acceptor + " stopped accepting players", e);
+            }
+        }
+    }
+
+    /**
+     * Stops accepting players by closing the listening sockets. New
+     * connections are refused by the kernel from then on.
+     */
+
+    public void close() {
+        closed = true;
+        if (serverSockets == null) {
+            return;
+        }
+        for (ServerSocket serverSocket : serverSockets) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                Log.error("Could not close server socket", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of acceptor threads.
+     *
+     * @return the number of acceptor threads
+     */
+
+    public int acceptors() {
+        return acceptors;
+    }
+
+    /**
+     * Returns the most connections each listening socket queues before they are accepted.
+     *
+     * @return the backlog of each listening socket
+     */
+
+    public int backlog() {
+        return backlog;
+    }
+
+    /**
+     * Returns the number of connections an acceptor has accepted.
+     *
+     * @param acceptor Index of the acceptor
+     * @return the number of connections accepted by the acceptor
+     */
+
+    public long accepts(int acceptor) {
+        return accepts.get(acceptor);
+    }
+
+    /**
+     * Returns the number of connections the kernel has finished
+     * handshaking but no acceptor has taken yet, summed over every
+     * listening socket on the port. The count is read from the kernel
+     * socket tables, so it is only known on Linux.
+     *
+     * @return the number of queued connections, -1 if it is not known
+     */
+
+    public long queuedConnections() {
+        if (serverSockets == null) {
+            return -1;
+        }
+        String localPort = String.format(":%04X", port);   // port as it is written in the socket tables
+        long queued = 0;                                    // connections waiting to be accepted
+        boolean found = false;                              // true if a socket table was read, false if not
+        for (Path table : SOCKET_TABLES) {
+            List<String> lines;     // lines of the socket table
+            try {
+                lines = Files.readAllLines(table);
+            } catch (IOException e) {
+                continue;
+            }
+            found = true;
+            for (int i = 1; i < lines.size(); i++) {
+                String[] fields = lines.get(i).trim().split("\\s+");  // fields of the socket's line
+                if (fields.length > 4 && fields[3].equals(LISTEN_STATE) && fields[1].endsWith(localPort)) {
+                    queued += Long.parseLong(fields[4].substring(fields[4].indexOf(':') + 1), 16);
+                }
+            }
+        }
+        return found ? queued : -1;
+    }
+}
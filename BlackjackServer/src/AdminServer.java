@@ -0,0 +1,408 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
+
+/**
+ * AdminServer objects serve live server metrics over HTTP on the loopback
+ * interface in the Prometheus text format. Scrapes only read counters,
+ * histograms, table snapshots and the table directory, so they never
+ * take a lock a table or player needs, and /tables describes every live
+ * table from its latest snapshot. A POST to /drain drains the server and
+ * exits, and /health tells a router whether the server is taking new
+ * players. A POST to /migrate drains the server by moving its tables to
+ * another server, which takes them with a POST to its own /import.
+ *
+ * @author Jordan Segalman
+ */
+
+public class AdminServer {
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};           // quantiles reported for each round stage
+    private static final int MAXIMUM_TABLE_BYTES = 128 * 1024;              // most bytes accepted in an encoded table, more than the largest table encodes to
+    private HttpServer server;                                              // server handling admin requests
+    private Lobby lobby;                                                    // lobby that places players at tables
+    private TableScheduler scheduler;                                       // scheduler that runs the tables
+    private WalletStore wallet;                                             // store that keeps player balances, null if balances are not kept
+    private SessionRegistry sessions;                                       // registry of sessions players can resume
+    private AcceptorPool acceptorPool;                                      // acceptors that take players from the server port
+    private BiConsumer<String, Long> drainer;                               // drains the server and exits, given the admin address to move the tables to or null and the deadline in seconds
+    private Predicate<byte[]> importer;                                     // seats a table moved from another server, given the encoded table
+    private LongConsumer importAborter;                                     // drops a table moved from another server, given the id of its move
+    private int playerPort;                                                 // port players connect to on this server
+    private long lastScrapeTime = System.nanoTime();                        // time of the last scrape in nanoseconds, only used by the admin thread
+    private long lastScrapeRounds;                                          // number of finished rounds at the last scrape, only used by the admin thread
+    private long lastScrapeAccepts;                                         // number of accepted connections at the last scrape, only used by the admin thread
+
+    /**
+     * Constructor for AdminServer object.
+     *
+     * @param port Port to serve admin requests on
+     * @param lobby Lobby that places players at tables
+     * @param scheduler Scheduler that runs the tables
+     * @param wallet Store that keeps player balances, null if balances are not kept
+     * @param sessions Registry of sessions players can resume
+     * @param acceptorPool Acceptors that take players from the server port
+     * @param drainer Drains the server and exits, given the admin address to move the tables to or null and the deadline in seconds
+     * @param importer Seats a table moved from another server, given the encoded table, and returns false if it cannot
+     * @param importAborter Drops a table moved from another server and refuses it from then on, given the id of its move
+     * @param playerPort Port players connect to on this server
+     * @throws IOException if the port cannot be bound
+     */
+
+    public AdminServer(int port, Lobby lobby, TableScheduler scheduler, WalletStore wallet, SessionRegistry sessions, AcceptorPool acceptorPool, BiConsumer<String, Long> drainer, Predicate<byte[]> importer, LongConsumer importAborter, int playerPort) throws IOException {
+        this.lobby = lobby;
+        this.scheduler = scheduler;
+        this.wallet = wallet;
+        this.sessions = sessions;
+        this.acceptorPool = acceptorPool;
+        this.drainer = drainer;
+        this.importer = importer;
+        this.importAborter = importAborter;
+        this.playerPort = playerPort;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", this::handleMetrics);
+        server.createContext("/drain", this::handleDrain);
+        server.createContext("/health", this::handleHealth);
+        server.createContext("/tables", this::handleTables);
+        server.createContext("/migrate", this::handleMigrate);
+        server.createContext("/import", this::handleImport);
+        server.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "admin-server");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * Starts serving admin requests.
+     */
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Answers a request for the metrics.
+     *
+     * @param exchange Request and response
+     * @throws IOException if the response cannot be sent
+     */
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        byte[] body = metrics().getBytes(StandardCharsets.UTF_8);  // metrics in the Prometheus text format
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Answers a health check. The server is healthy until it starts
+     * draining, after which it answers 503 so that routers stop sending
+     * it new players while its tables finish their rounds.
+     *
+     * @param exchange Request and response
+     * @throws IOException if the response cannot be sent
+     */
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        boolean draining = lobby.draining();    // true if the server is draining, false if it is taking new players
+        byte[] body = (draining ? "DRAINING\n" : "OK\n").getBytes(StandardCharsets.UTF_8);  // text of the response
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(draining ? 503 : 200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Answers a request for the live tables with one line per table
+     * describing its phase, the dealer cards showing and who sits in
+     * each seat. The tables are read from their latest snapshots, so the
+     * request never waits on a table or stalls one.
+     *
+     * @param exchange Request and response
+     * @throws IOException if the response cannot be sent
+     */
+
+    private void handleTables(HttpExchange exchange) throws IOException {
+        StringBuilder tables = new StringBuilder();     // description of the live tables
+        long now = System.nanoTime();                   // time of the request in nanoseconds
+        for (TableSnapshot snapshot : lobby.tableSnapshots()) {
+            tables.append(snapshot).append(" (").append((now - snapshot.time()) / 1000000).append(" ms ago)\n");
+        }
+        byte[] body = tables.toString().getBytes(StandardCharsets.UTF_8);  // text of the response
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Answers a request to drain the server. The drain runs on its own
+     * thread so the request is answered at once. The deadline in seconds
+     * can be given as ?deadline=seconds.
+     *
+     * @param exchange Request and response
+     * @throws IOException if the response cannot be sent
+     */
+
+    private void handleDrain(HttpExchange exchange) throws IOException {
+        long deadline = BlackjackServer.DRAIN_DEADLINE;  // most seconds to wait for the tables to close
+        String query = exchange.getRequestURI().getQuery();    // query of the request, null if it has none
+        int status = 202;   // status of the response
+        if (!exchange.getRequestMethod().equals("POST")) {
+            status = 405;
+        } else if (query != null) {
+            try {
+                deadline = query.startsWith("deadline=") ? Long.parseLong(query.substring("deadline=".length())) : -1;
+            } catch (NumberFormatException e) {
+                deadline = -1;
+            }
+            if (deadline < 0) {
+                status = 400;
+            }
+        }
+        byte[] body = (status == 202 ? "Draining with a deadline of " + deadline + " seconds\n" : status == 405 ? "Use POST to drain\n" : "Deadline must be a whole number of seconds\n").getBytes(StandardCharsets.UTF_8);  // text of the response
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+        if (status == 202) {
+            long drainDeadline = deadline;  // deadline passed to the drain
+            new Thread(() -> drainer.accept(null, drainDeadline), "drain").start();
+        }
+    }
+
+    /**
+     * Answers a request to drain the server by moving its tables to
+     * another server, given as ?to=host:adminPort with its admin address.
+     * The deadline in seconds can be given as &deadline=seconds. The
+     * drain runs on its own thread so the request is answered at once.
+     *
+     * @param exchange Request and response
+     * @throws IOException if the response cannot be sent
+     */
+
+    private void handleMigrate(HttpExchange exchange) throws IOException {
+        long deadline = BlackjackServer.DRAIN_DEADLINE;  // most seconds to wait for the tables to move
+        String target = null;   // admin address of the server to move the tables to, null if none was given
+        String query = exchange.getRequestURI().getQuery();    // query of the request, null if it has none
+        int status = 202;   // status of the response
+        if (!exchange.getRequestMethod().equals("POST")) {
+            status = 405;
+        } else if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith("to=")) {
+                    target = parameter.substring("to=".length());
+                } else {
+                    try {
+                        deadline = parameter.startsWith("deadline=") ? Long.parseLong(parameter.substring("deadline=".length())) : -1;
+                    } catch (NumberFormatException e) {
+                        deadline = -1;
+                    }
+                }
+            }
+        }
+        if (status == 202 && (target == null || !target.matches("[^:/]+:\\d+") || deadline < 0)) {
+            status = 400;
+        }
+        byte[] body = (status == 202 ? "Moving tables to " + target + " with a deadline of " + deadline + " seconds\n" : status == 405 ? "Use POST to migrate\n" : "Give the server to move to as ?to=host:adminPort and the deadline as a whole number of seconds\n").getBytes(StandardCharsets.UTF_8);  // text of the response
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+        if (status == 202) {
+            String migrationTarget = target;    // admin address passed to the drain
+            long drainDeadline = deadline;      // deadline passed to the drain
+            new Thread(() -> drainer.accept(migrationTarget, drainDeadline), "drain").start();
+        }
+    }
+
+    /**
+     * Answers a request to take a table moved from another server. The
+     * response holds the port players connect to here, which the other
+     * server passes on to the players' routers. A table sent again under
+     * the same id is answered the same way without being seated twice.
+     * A request with ?abort=id, sent when the other server lost every
+     * answer, drops the table with that id if it was seated and refuses
+     * it from then on.
+     *
+     * @param exchange Request and response
+     * @throws IOException if the response cannot be sent
+     */
+
+    private void handleImport(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();    // query of the request, null if it has none
+        int status = 200;   // status of the response
+        if (!exchange.getRequestMethod().equals("POST")) {
+            status = 405;
+        } else if (query != null) {
+            try {
+                importAborter.accept(Long.parseUnsignedLong(query.substring(query.startsWith("abort=") ? "abort=".length() : query.length()), 16));
+            } catch (NumberFormatException e) {
+                status = 400;
+            }
+        } else {
+            byte[] encodedTable = exchange.getRequestBody().readNBytes(MAXIMUM_TABLE_BYTES);   // table encoded by the other server
+            if (!importer.test(encodedTable)) {
+                status = 503;
+            }
+        }
+        byte[] body = (status == 200 ? (query != null ? "Dropped the table\n" : playerPort + "\n") : status == 405 ? "Use POST to move a table here\n" : status == 400 ? "Give the move to drop as ?abort=id\n" : "Cannot take the table\n").getBytes(StandardCharsets.UTF_8);  // text of the response
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Returns the metrics in the Prometheus text format.
+     *
+     * @return the metrics as text
+     */
+
+    private String metrics() {
+        StringBuilder metrics = new StringBuilder();    // metrics being written
+        ServerMetrics counters = lobby.metrics();       // counters of server activity
+        int tables = 0;                                 // number of live tables
+        int seats = 0;                                  // number of seats taken at live tables
+        for (SchedulerShard shard : scheduler.shards()) {
+            tables += shard.numTables();
+            seats += shard.load();
+        }
+        int seatedPlayers = 0;                          // number of players seated at live tables as of their last phase change
+        int seatedBots = 0;                             // number of house bots seated at live tables as of their last phase change
+        for (TableSnapshot snapshot : lobby.tableSnapshots()) {
+            seatedPlayers += snapshot.numHumans();
+            seatedBots += snapshot.numPlayers() - snapshot.numHumans();
+        }
+        long now = System.nanoTime();                   // time of the scrape in nanoseconds
+        long rounds = counters.rounds();                // number of finished rounds
+        long accepts = 0;                               // number of connections accepted on the server port
+        for (int i = 0; i < acceptorPool.acceptors(); i++) {
+            accepts += acceptorPool.accepts(i);
+        }
+        double roundsPerSecond = (rounds - lastScrapeRounds) / ((now - lastScrapeTime) / 1e9);   // rounds finished per second since the last scrape
+        double acceptsPerSecond = (accepts - lastScrapeAccepts) / ((now - lastScrapeTime) / 1e9);   // connections accepted per second since the last scrape
+        long queuedConnections = acceptorPool.queuedConnections();  // connections waiting in the accept queues, -1 if not known
+        lastScrapeTime = now;
+        lastScrapeRounds = rounds;
+        lastScrapeAccepts = accepts;
+        writeMetric(metrics, "blackjack_tables", "gauge", "Live tables", tables);
+        writeMetric(metrics, "blackjack_seats", "gauge", "Seats taken at live tables", seats);
+        writeMetric(metrics, "blackjack_seated_players", "gauge", "Players seated at live tables", seatedPlayers);
+        writeMetric(metrics, "blackjack_seated_bots", "gauge", "House bots seated at live tables", seatedBots);
+        writeMetric(metrics, "blackjack_directory_requests_total", "counter", "Table listings asked for by browsing clients", lobby.directory().requests());
+        writeMetric(metrics, "blackjack_directory_encodings_total", "counter", "Times the table listing was encoded", lobby.directory().encodings());
+        writeMetric(metrics, "blackjack_waiting_players", "gauge", "Players waiting to be dealt into a round", lobby.queueLength());
+        writeMetric(metrics, "blackjack_queued_players", "gauge", "Players waiting in the queue for a seat", lobby.numQueued());
+        writeMetric(metrics, "blackjack_queued_players_total", "counter", "Players that waited in the queue for a seat", counters.queuedPlayers());
+        writeMetric(metrics, "blackjack_refused_admissions_total", "counter", "Connections refused because the server was full", counters.refusedAdmissions());
+        writeMetric(metrics, "blackjack_connections", "gauge", "Players connected", counters.connections());
+        writeMetric(metrics, "blackjack_connections_total", "counter", "Players that connected", counters.connectionsOpened());
+        writeMetric(metrics, "blackjack_disconnects_total", "counter", "Players that disconnected without finishing", counters.disconnects());
+        writeMetric(metrics, "blackjack_sessions", "gauge", "Sessions players can resume", sessions.size());
+        writeMetric(metrics, "blackjack_session_resumes_total", "counter", "Sessions resumed after reconnecting", counters.resumes());
+        writeMetric(metrics, "blackjack_refused_resumes_total", "counter", "Reconnects whose session could not be resumed", counters.refusedResumes());
+        writeMetric(metrics, "blackjack_rounds_total", "counter", "Rounds finished", rounds);
+        writeMetric(metrics, "blackjack_rounds_per_second", "gauge", "Rounds finished per second since the last scrape", roundsPerSecond);
+        writeMetric(metrics, "blackjack_reshuffles_total", "counter", "Shoes shuffled", counters.reshuffles());
+        metrics.append("# HELP blackjack_rejected_frames_total Client lines rejected and disconnected\n");
+        metrics.append("# TYPE blackjack_rejected_frames_total counter\n");
+        metrics.append("blackjack_rejected_frames_total{reason=\"oversize\"} ").append(counters.oversizeFrames()).append("\n");
+        metrics.append("blackjack_rejected_frames_total{reason=\"malformed\"} ").append(counters.malformedFrames()).append("\n");
+        writeMetric(metrics, "blackjack_throttled_messages_total", "counter", "Client messages over the rate limit", counters.throttledMessages());
+        writeMetric(metrics, "blackjack_flood_disconnects_total", "counter", "Players disconnected for flooding", counters.floodDisconnects());
+        writeMetric(metrics, "blackjack_refused_connections_total", "counter", "Connections refused because their address opened connections too fast", counters.refusedConnections());
+        metrics.append("# HELP blackjack_accepts_total Connections accepted by each acceptor\n");
+        metrics.append("# TYPE blackjack_accepts_total counter\n");
+        for (int i = 0; i < acceptorPool.acceptors(); i++) {
+            metrics.append("blackjack_accepts_total{acceptor=\"").append(i).append("\"} ").append(acceptorPool.accepts(i)).append("\n");
+        }
+        writeMetric(metrics, "blackjack_accepts_per_second", "gauge", "Connections accepted per second since the last scrape", acceptsPerSecond);
+        writeMetric(metrics, "blackjack_accept_backlog", "gauge", "Most connections each listening socket queues before they are accepted", acceptorPool.backlog());
+        if (queuedConnections >= 0) {
+            writeMetric(metrics, "blackjack_accept_queue", "gauge", "Connections waiting in the accept queues", queuedConnections);
+        }
+        metrics.append("# HELP blackjack_round_stage_seconds Time spent in each stage of a round\n");
+        metrics.append("# TYPE blackjack_round_stage_seconds summary\n");
+        for (RoundTimings.Stage stage : RoundTimings.Stage.values()) {
+            LatencyHistogram histogram = lobby.timings().histogram(stage);  // histogram of the stage
+            String label = "stage=\"" + stage.name().toLowerCase(Locale.ROOT) + "\"";  // label of the stage
+            for (double quantile : QUANTILES) {
+                metrics.append("blackjack_round_stage_seconds{").append(label).append(",quantile=\"").append(quantile).append("\"} ").append(String.format(Locale.ROOT, "%.6f", histogram.percentile(quantile) / 1000)).append("\n");
+            }
+            metrics.append("blackjack_round_stage_seconds_sum{").append(label).append("} ").append(String.format(Locale.ROOT, "%.6f", histogram.sum() / 1000)).append("\n");
+            metrics.append("blackjack_round_stage_seconds_count{").append(label).append("} ").append(histogram.count()).append("\n");
+        }
+        metrics.append("# HELP blackjack_shard_events_total Events run by each scheduler shard\n");
+        metrics.append("# TYPE blackjack_shard_events_total counter\n");
+        for (int i = 0; i < scheduler.shards().length; i++) {
+            metrics.append("blackjack_shard_events_total{shard=\"").append(i).append("\"} ").append(scheduler.shards()[i].processedEvents()).append("\n");
+        }
+        if (wallet != null) {
+            writeMetric(metrics, "blackjack_wallet_group_commits_total", "counter", "Wallet journal group commits", wallet.groupCommits());
+            writeMetric(metrics, "blackjack_wallet_snapshots_total", "counter", "Wallet snapshots taken", wallet.snapshots());
+        }
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();                 // thread statistics of the JVM
+        writeMetric(metrics, "jvm_threads_live", "gauge", "Live threads", threads.getThreadCount());
+        writeMetric(metrics, "jvm_threads_daemon", "gauge", "Live daemon threads", threads.getDaemonThreadCount());
+        writeMetric(metrics, "jvm_threads_peak", "gauge", "Most live threads since the server started", threads.getPeakThreadCount());
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();   // heap usage of the JVM
+        writeMetric(metrics, "jvm_memory_heap_used_bytes", "gauge", "Heap in use", heap.getUsed());
+        writeMetric(metrics, "jvm_memory_heap_committed_bytes", "gauge", "Heap committed", heap.getCommitted());
+        writeMetric(metrics, "jvm_memory_heap_max_bytes", "gauge", "Largest heap allowed", heap.getMax());
+        metrics.append("# HELP jvm_gc_collections_total Garbage collections by collector\n");
+        metrics.append("# TYPE jvm_gc_collections_total counter\n");
+        StringBuilder gcTime = new StringBuilder();     // garbage collection time of each collector
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            String label = "{gc=\"" + collector.getName() + "\"} ";    // label of the collector
+            metrics.append("jvm_gc_collections_total").append(label).append(collector.getCollectionCount()).append("\n");
+            gcTime.append("jvm_gc_collection_seconds_total").append(label).append(collector.getCollectionTime() / 1000.0).append("\n");
+        }
+        metrics.append("# HELP jvm_gc_collection_seconds_total Time spent in garbage collection by collector\n");
+        metrics.append("# TYPE jvm_gc_collection_seconds_total counter\n");
+        metrics.append(gcTime);
+        return metrics.toString();
+    }
+
+    /**
+     * Writes a metric with a single value.
+     *
+     * @param metrics Metrics being written
+     * @param name Name of the metric
+     * @param type Prometheus type of the metric
+     * @param help Description of the metric
+     * @param value Value of the metric
+     */
+
+    private static void writeMetric(StringBuilder metrics, String name, String type, String help, double value) {
+        metrics.append("# HELP ").append(name).append(" ").append(help).append("\n");
+        metrics.append("# TYPE ").append(name).append(" ").append(type).append("\n");
+        metrics.append(name).append(" ");
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            metrics.append((long) value);
+        } else {
+            metrics.append(value);
+        }
+        metrics.append("\n");
+    }
+}
@@ -5,6 +5,12 @@
  */
 
 public class BlackjackHand extends Hand {
+    private static final int MAXIMUM_SCORE = 21;                        // maximum score before bust
+    private static final double BLACKJACK_PAYOUT_MULTIPLIER = 3.0 / 2.0;    // payout multiplier when player has Blackjack
+    private static final int MINIMUM_DOUBLE_DOWN_SCORE = 9;             // minimum score player can double down on
+    private static final int MAXIMUM_DOUBLE_DOWN_SCORE = 11;            // maximum score player can double down on
+    private static final int MINIMUM_DOUBLE_DOWN_SOFT_SCORE = 19;       // minimum soft score player can double down on
+    private static final int MAXIMUM_DOUBLE_DOWN_SOFT_SCORE = 21;       // maximum soft score player can double down on
     private double bet;                 // amount of money bet on hand
     private boolean splitPairs = false; // true if player decides to split pairs, false if does not
     private boolean doubleDown = false; // true if player decides to double down, false if does not
@@ -54,6 +60,27 @@ public class BlackjackHand extends Hand {
         return hasAce() && value() < 12;
     }
 
+    /**
+     * Returns whether or not the hand is a pair that can be split.
+     *
+     * @return true if the first two cards have the same rank, false if not
+     */
+
+    public boolean isPair() {
+        return getCard(0).rank() == getCard(1).rank();
+    }
+
+    /**
+     * Returns whether or not the hand's score can be doubled down on.
+     *
+     * @return true if the score allows doubling down, false if not
+     */
+
+    public boolean doubleDownScore() {
+        int value = blackjackValue();   // value of the hand
+        return (value >= MINIMUM_DOUBLE_DOWN_SCORE && value <= MAXIMUM_DOUBLE_DOWN_SCORE) || (isSoft() && value >= MINIMUM_DOUBLE_DOWN_SOFT_SCORE && value <= MAXIMUM_DOUBLE_DOWN_SOFT_SCORE);
+    }
+
     /**
      * Places a bet on the hand.
      *
@@ -130,4 +157,35 @@ public class BlackjackHand extends Hand {
     public Card doubleDownCard() {
         return doubleDownCard;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the amount paid to the player when the hand is settled
+     * against the dealer, including the returned bet.
+     *
+     * @param dealerHand Final dealer hand
+     * @param hasBlackjack True if the player has Blackjack, false if does not
+     * @param dealerHasBlackjack True if the dealer has Blackjack, false if does not
+     * @return the amount paid to the player
+     */
+
+    public double payout(BlackjackHand dealerHand, boolean hasBlackjack, boolean dealerHasBlackjack) {
+        if (hasBlackjack && dealerHasBlackjack) {
+            return bet;
+        } else if (dealerHasBlackjack) {
+            return 0;
+        } else if (hasBlackjack) {
+            return bet + (bet * BLACKJACK_PAYOUT_MULTIPLIER);
+        } else if (blackjackValue() > MAXIMUM_SCORE && dealerHand.blackjackValue() > MAXIMUM_SCORE) {
+            return bet;
+        } else if (blackjackValue() > MAXIMUM_SCORE) {
+            return 0;
+        } else if (dealerHand.blackjackValue() > MAXIMUM_SCORE) {
+            return bet * 2;
+        } else if (blackjackValue() == dealerHand.blackjackValue()) {
+            return bet;
+        } else if (blackjackValue() < dealerHand.blackjackValue()) {
+            return 0;
+        }
+        return bet * 2;
+    }
+}
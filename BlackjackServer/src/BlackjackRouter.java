@@ -0,0 +1,595 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BlackjackRouter objects accept client connections and forward each one
+ * to one of several Blackjack servers. Every connection belongs to a
+ * lobby, named by the client with LOBBY--name as its first line or made
+ * up by the router, and lobbies are placed on servers by consistent
+ * hashing, so players who name the same lobby share a server. The lobby
+ * is prefixed to the session token the client is welcomed with, which
+ * lets a resuming client be sent back to the server holding its seat.
+ * Servers are health checked through their admin endpoint and leave the
+ * ring while they fail or drain, and the list of servers is read again
+ * before every check so servers can be added and removed while the
+ * router runs. Either change only moves the lobbies hashed next to that
+ * server. Connections already forwarded stay on their server until they
+ * close.
+ *
+ * @author Jordan Segalman
+ */
+
+public class BlackjackRouter {
+    private static final int DEFAULT_PORT = 44444;                          // default router port
+    private static final int DEFAULT_HEALTH_INTERVAL = 1000;                // default milliseconds between health checks
+    private static final int DEFAULT_VIRTUAL_NODES = 160;                   // default number of ring points for each server
+    private static final int HEALTH_TIMEOUT = 500;                          // milliseconds a health check waits for a server to answer
+    private static final int FAILURES_BEFORE_DOWN = 2;                      // failed health checks in a row before a server leaves the ring
+    private static final int CONNECT_TIMEOUT = 1000;                        // milliseconds to wait for a server to accept a forwarded connection
+    private static final int MAXIMUM_LINE_LENGTH = 128;                     // most bytes allowed in a line from a client
+    private static final int HANDSHAKE_TIMEOUT = 1000;                      // milliseconds a new connection is given to send its first line before it is forwarded as a new player
+    private static final int MAXIMUM_LOBBY_LENGTH = 32;                     // most characters in a lobby name
+    private static final int REPORT_INTERVAL = 60;                          // seconds between reports of connections per server
+    private static final int MAXIMUM_LOBBY_DRAWS = 1000;                    // most lobbies drawn when looking for one placed on a given server
+    private static final String WELCOME = "SERVERMESSAGE--WELCOME--";       // start of the line welcoming a new player with their session token
+    private static final String MIGRATE = "SERVERMESSAGE--MIGRATE--";       // start of the line telling the router the client's table moved to another server
+    private int routerPort;                                                 // port clients connect to
+    private Path backendsFile;                                              // file listing the servers, read again before every health check
+    private int healthInterval;                                             // milliseconds between health checks
+    private int virtualNodes;                                               // number of ring points for each server
+    private Map<String, Backend> backends = new LinkedHashMap<>();          // servers listed in the file keyed by address, only used by the health thread
+    private volatile HashRing<Backend> ring = new HashRing<>(Map.of(), 0);  // ring of healthy servers, replaced whole when they change
+    private AtomicLong routedConnections = new AtomicLong();                // number of connections forwarded to a server
+
+    /**
+     * Backend objects hold a Blackjack server connections are forwarded to.
+     */
+
+    private static class Backend {
+        private String name;                                                // address of the server as host:port
+        private String host;                                                // host of the server
+        private int port;                                                   // port players connect to on the server
+        private String adminHost;                                           // host of the server's admin endpoint
+        private int adminPort;                                              // admin port of the server answering health checks
+        private boolean healthy;                                            // true if the server is on the ring, false if not, only used by the health thread
+        private int failures;                                               // failed health checks in a row, only used by the health thread
+        private AtomicInteger connections = new AtomicInteger();            // number of open connections forwarded to the server
+        private AtomicLong routed = new AtomicLong();                       // number of connections forwarded to the server
+
+        /**
+         * Constructor for Backend object.
+         *
+         * @param host Host of the server
+         * @param port Port players connect to on the server
+         * @param adminHost Host of the server's admin endpoint
+         * @param adminPort Admin port of the server answering health checks
+         */
+
+        Backend(String host, int port, String adminHost, int adminPort) {
+            this.name = host + ":" + port;
+            this.host = host;
+            this.port = port;
+            this.adminHost = adminHost;
+            this.adminPort = adminPort;
+        }
+    }
+
+    /**
+     * Constructor for BlackjackRouter object.
+     *
+     * @param routerPort Port clients connect to
+     * @param backendsFile File listing the servers
+     * @param healthInterval Milliseconds between health checks
+     * @param virtualNodes Number of ring points for each server
+     */
+
+    public BlackjackRouter(int routerPort, Path backendsFile, int healthInterval, int virtualNodes) {
+        this.routerPort = routerPort;
+        this.backendsFile = backendsFile;
+        this.healthInterval = healthInterval;
+        this.virtualNodes = virtualNodes;
+        Log.info("Starting Blackjack router\nRouter port: " + routerPort + "\nBackends file: " + backendsFile + "\nHealth interval: " + healthInterval + "\nVirtual nodes: " + virtualNodes);
+    }
+
+    /**
+     * Checks the servers once so that healthy ones are on the ring before
+     * the first client arrives, then forwards clients until the router
+     * port fails.
+     */
+
+    public void start() {
+        checkBackends();
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "health-check");
+            thread.setDaemon(true);
+            return thread;
+        });     // timer running health checks and reports
+        timer.scheduleWithFixedDelay(this::checkBackends, healthInterval, healthInterval, TimeUnit.MILLISECONDS);
+        timer.scheduleAtFixedRate(() -> Log.info(report()), REPORT_INTERVAL, REPORT_INTERVAL, TimeUnit.SECONDS);
+        try (ServerSocket serverSocket = new ServerSocket(routerPort)) {
+            Log.info("Listening on port {}", routerPort);
+            while (true) {
+                Socket client = serverSocket.accept();
+                new Thread(() -> route(client), "route-" + client.getPort()).start();
+            }
+        } catch (IOException e) {
+            Log.error("Router stopped accepting clients", e);
+        }
+    }
+
+    /**
+     * Reads the list of servers again and health checks every server on
+     * it. A server joins the ring after one good check and leaves it
+     * after several failed checks in a row, so one slow answer does not
+     * move its lobbies. The ring is only rebuilt when the set of healthy
+     * servers changes.
+     */
+
+    private void checkBackends() {
+        Map<String, Backend> listed = new LinkedHashMap<>();   // servers now listed in the file keyed by address
+        try {
+            List<String> lines = Files.readAllLines(backendsFile);  // lines of the file
+            for (String line : lines) {
+                line = line.strip();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                Backend backend = parseBackend(line);   // server on the line, null if the line is malformed
+                if (backend == null) {
+                    Log.warn("Ignoring malformed backend line: {}", line);
+                    continue;
+                }
+                Backend known = backends.get(backend.name);     // same server from the last read, null if it is new
+                if (known != null && known.adminHost.equals(backend.adminHost) && known.adminPort == backend.adminPort) {
+                    backend = known;
+                } else {
+                    Log.info("Added backend {}", backend.name);
+                }
+                listed.put(backend.name, backend);
+            }
+        } catch (IOException e) {
+            Log.error("Could not read backends file " + backendsFile, e);
+            listed = backends;
+        }
+        for (String name : backends.keySet()) {
+            if (!listed.containsKey(name)) {
+                Log.info("Removed backend {}", name);
+            }
+        }
+        backends = listed;
+        Map<String, Backend> healthy = new HashMap<>();    // servers that belong on the ring keyed by address
+        for (Backend backend : backends.values()) {
+            if (healthy(backend)) {
+                backend.failures = 0;
+                if (!backend.healthy) {
+                    backend.healthy = true;
+                    Log.info("Backend {} is healthy", backend.name);
+                }
+            } else if (++backend.failures >= FAILURES_BEFORE_DOWN && backend.healthy) {
+                backend.healthy = false;
+                Log.warn("Backend {} failed its health checks", backend.name);
+            }
+            if (backend.healthy) {
+                healthy.put(backend.name, backend);
+            }
+        }
+        if (!healthy.keySet().equals(ring.nodes().keySet())) {
+            ring = new HashRing<>(healthy, virtualNodes);
+            Log.info("Routing to {} backends: {}", healthy.size(), ring.nodes().keySet());
+        }
+    }
+
+    /**
+     * Parses a line of the backends file, written as host:port adminPort.
+     * The admin endpoint is on the server's host unless the line gives
+     * it as adminHost:adminPort.
+     *
+     * @param line Line of the file
+     * @return the server on the line, null if the line is malformed
+     */
+
+    private static Backend parseBackend(String line) {
+        String[] fields = line.split("\\s+");   // address and admin address of the server
+        int colon = fields[0].lastIndexOf(':');   // index of the colon before the port
+        if (fields.length != 2 || colon < 1) {
+            return null;
+        }
+        String host = fields[0].substring(0, colon);   // host of the server
+        int adminColon = fields[1].lastIndexOf(':');   // index of the colon before the admin port, -1 if the admin endpoint is on the server's host
+        try {
+            return new Backend(host, Integer.parseInt(fields[0].substring(colon + 1)), adminColon < 0 ? host : fields[1].substring(0, adminColon), Integer.parseInt(fields[1].substring(adminColon + 1)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Health checks a server by asking its admin endpoint. A draining
+     * server answers 503 and so counts as unhealthy.
+     *
+     * @param backend Server to check
+     * @return true if the server answered that it is taking new players, false if not
+     */
+
+    private static boolean healthy(Backend backend) {
+        try {
+            HttpURLConnection check = (HttpURLConnection) new URL("http", backend.adminHost, backend.adminPort, "/health").openConnection();   // request to the admin endpoint
+            check.setConnectTimeout(HEALTH_TIMEOUT);
+            check.setReadTimeout(HEALTH_TIMEOUT);
+            try {
+                return check.getResponseCode() == 200;
+            } finally {
+                check.disconnect();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Forwards a client to the server its lobby is placed on as soon as
+     * it sends its first line. RESUME--lobby.token is sent to the lobby's
+     * server as RESUME--token, and LOBBY--name names the lobby and is
+     * sent to its server as PLAY, so the server seats the client at once.
+     * Any other first line is forwarded as it is, with the client put in
+     * a lobby of its own, as is a client that sends no first line within
+     * the handshake timeout, which is forwarded as PLAY. A client whose
+     * lobby has no server is disconnected.
+     *
+     * @param client Socket of the client
+     */
+
+    private void route(Socket client) {
+        try (client) {
+            client.setTcpNoDelay(true);
+            LineDecoder in = new LineDecoder(client.getInputStream(), MAXIMUM_LINE_LENGTH);   // in from the client
+            String firstLine = "PLAY";  // first line sent by the client, PLAY if it sent none in time
+            client.setSoTimeout(HANDSHAKE_TIMEOUT);
+            try {
+                firstLine = in.readLine();
+            } catch (SocketTimeoutException e) {
+                // the client is waiting to be welcomed as a new player
+            }
+            if (firstLine == null) {
+                return;
+            }
+            client.setSoTimeout(0);
+            String lobby = null;        // lobby the client belongs to
+            String forwarded = firstLine;   // first line forwarded to the server
+            if (firstLine.startsWith("RESUME--")) {
+                String token = firstLine.substring("RESUME--".length());   // session token prefixed with its lobby
+                int dot = token.indexOf('.');   // index of the dot after the lobby, -1 if the token has no lobby
+                if (dot > 0) {
+                    lobby = token.substring(0, dot);
+                    forwarded = "RESUME--" + token.substring(dot + 1);
+                }
+            } else if (firstLine.startsWith("LOBBY--")) {
+                String name = firstLine.substring("LOBBY--".length());  // lobby named by the client
+                if (name.length() <= MAXIMUM_LOBBY_LENGTH && name.matches("[A-Za-z0-9_]+")) {
+                    lobby = name;
+                }
+                forwarded = "PLAY";
+            }
+            if (lobby == null) {
+                lobby = Long.toHexString(ThreadLocalRandom.current().nextLong());
+            }
+            Backend backend = ring.lookup(lobby);  // server the lobby is placed on, null if no server is healthy
+            if (backend == null) {
+                Log.warn("No healthy backend for client on port {}", client.getPort());
+                return;
+            }
+            forward(client, in, forwarded, lobby, backend);
+        } catch (IOException e) {
+            // the client left before it was forwarded
+        }
+    }
+
+    /**
+     * Forwards lines between a client and a server until either closes.
+     * Lines from the client are forwarded on their own thread, and lines
+     * from the server on this one, where the welcome is rewritten to
+     * prefix the session token with the lobby. Lines from the server are
+     * flushed once no more are waiting, so a burst of round events
+     * reaches the client in one write. When the server moves the
+     * client's table to another server, the client is moved with it.
+     *
+     * @param client Socket of the client
+     * @param in In from the client
+     * @param firstLine First line to forward to the server
+     * @param lobby Lobby the client belongs to
+     * @param backend Server to forward to
+     * @throws IOException if the server cannot be reached
+     */
+
+    private void forward(Socket client, LineDecoder in, String firstLine, String lobby, Backend backend) throws IOException {
+        Upstream upstream = new Upstream(connect(backend, firstLine));    // connection to the server the client's lines are forwarded to
+        Writer toClient = new BufferedWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8));   // out to the client
+        new Thread(() -> {
+            try {
+                String line;    // line sent by the client
+                while ((line = in.readLine()) != null) {
+                    upstream.send(line);
+                }
+            } catch (IOException e) {
+                // the client or server closed
+            }
+            upstream.shutdownOutput();
+        }, "route-up-" + client.getPort()).start();
+        try {
+            while (backend != null) {
+                Backend movedTo = null; // server the client's table moved to, null if the server closed
+                BufferedReader fromServer = new BufferedReader(new InputStreamReader(upstream.server().getInputStream(), StandardCharsets.UTF_8));  // in from the server
+                String line;    // line sent by the server
+                while (movedTo == null && (line = fromServer.readLine()) != null) {
+                    if (line.startsWith(MIGRATE)) {
+                        String[] migration = line.substring(MIGRATE.length()).split("--");  // address of the server the table moved to and the session token
+                        long moveStart = System.nanoTime();     // time the move started in nanoseconds
+                        movedTo = migration.length == 2 ? ring.nodes().get(migration[0]) : null;
+                        if (movedTo == null) {
+                            Log.warn("Client's table moved to {}, which is not a healthy backend", migration[0]);
+                            break;
+                        }
+                        upstream.switchTo(connect(movedTo, "RESUME--" + migration[1]));
+                        String movedLobby = lobbyOn(movedTo, lobby);    // lobby placed on the server the table moved to
+                        if (!movedLobby.equals(lobby)) {
+                            lobby = movedLobby;
+                            toClient.write("SERVERMESSAGE--SESSION--" + lobby + "." + migration[1] + "\n");
+                        }
+                        Log.info("Moved client on port " + client.getPort() + " from " + backend.name + " to " + movedTo.name + " in " + String.format("%.2f", (System.nanoTime() - moveStart) / 1e6) + " ms");
+                    } else {
+                        if (line.startsWith(WELCOME)) {
+                            line = WELCOME + lobby + "." + line.substring(WELCOME.length());
+                        }
+                        toClient.write(line + "\n");
+                    }
+                    if (!fromServer.ready()) {
+                        toClient.flush();
+                    }
+                }
+                toClient.flush();
+                backend.connections.decrementAndGet();
+                backend = movedTo;
+            }
+        } catch (IOException e) {
+            backend.connections.decrementAndGet();
+        } finally {
+            upstream.close();
+        }
+    }
+
+    /**
+     * Opens a forwarded connection to a server.
+     *
+     * @param backend Server to connect to
+     * @param firstLine First line to send to the server
+     * @return the socket connected to the server
+     * @throws IOException if the server cannot be reached
+     */
+
+    private Socket connect(Backend backend, String firstLine) throws IOException {
+        Socket server = new Socket();   // socket connected to the server
+        try {
+            server.connect(new InetSocketAddress(backend.host, backend.port), CONNECT_TIMEOUT);
+            server.setTcpNoDelay(true);
+            server.getOutputStream().write((firstLine + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.warn("Could not connect to backend {}", backend.name);
+            server.close();
+            throw e;
+        }
+        backend.connections.incrementAndGet();
+        backend.routed.incrementAndGet();
+        routedConnections.incrementAndGet();
+        return server;
+    }
+
+    /**
+     * Returns a lobby placed on the given server, so that a client whose
+     * table moved there resumes there after a reconnect. The client's own
+     * lobby is kept if it already is, and otherwise a new lobby is drawn
+     * until one lands on the server, which takes about as many draws as
+     * there are servers.
+     *
+     * @param backend Server the lobby must be placed on
+     * @param lobby Lobby the client belongs to
+     * @return the lobby placed on the server, the client's own lobby if none was found
+     */
+
+    private String lobbyOn(Backend backend, String lobby) {
+        HashRing<Backend> currentRing = ring;   // ring the lobby is placed with
+        for (int i = 0; i < MAXIMUM_LOBBY_DRAWS && currentRing.lookup(lobby) != backend; i++) {
+            lobby = Long.toHexString(ThreadLocalRandom.current().nextLong());
+        }
+        return lobby;
+    }
+
+    /**
+     * Upstream objects hold the connection a client's lines are forwarded
+     * to. The router switches it to a new server when the client's table
+     * moves, so sending and switching are done under the object's lock.
+     */
+
+    private static class Upstream {
+        private Socket server;                                              // socket connected to the server
+        private Writer toServer;                                            // out to the server
+
+        /**
+         * Constructor for Upstream object.
+         *
+         * @param server Socket connected to the server
+         * @throws IOException if the socket cannot be written to
+         */
+
+        Upstream(Socket server) throws IOException {
+            switchTo(server);
+        }
+
+        /**
+         * Forwards a line to the server.
+         *
+         * @param line Line to forward
+         * @throws IOException if the server cannot be written to
+         */
+
+        synchronized void send(String line) throws IOException {
+            toServer.write(line + "\n");
+            toServer.flush();
+        }
+
+        /**
+         * Starts forwarding to a new server and closes the old connection.
+         *
+         * @param newServer Socket connected to the new server
+         * @throws IOException if the new socket cannot be written to
+         */
+
+        synchronized void switchTo(Socket newServer) throws IOException {
+            Socket oldServer = server;  // socket connected to the old server, null if there is none
+            server = newServer;
+            toServer = new BufferedWriter(new OutputStreamWriter(newServer.getOutputStream(), StandardCharsets.UTF_8));
+            if (oldServer != null) {
+                oldServer.close();
+            }
+        }
+
+        /**
+         * Returns the socket connected to the server.
+         *
+         * @return the socket connected to the server
+         */
+
+        synchronized Socket server() {
+            return server;
+        }
+
+        /**
+         * Tells the server the client has no more lines.
+         */
+
+        synchronized void shutdownOutput() {
+            try {
+                server.shutdownOutput();
+            } catch (IOException e) {
+                // the server already closed
+            }
+        }
+
+        /**
+         * Closes the connection to the server.
+         */
+
+        synchronized void close() {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // the server already closed
+            }
+        }
+    }
+
+    /**
+     * Returns a summary of the servers on the ring and the connections forwarded to each.
+     *
+     * @return the summary of the servers
+     */
+
+    private String report() {
+        HashRing<Backend> currentRing = ring;   // ring at the time of the report
+        StringBuilder report = new StringBuilder("Routed " + routedConnections.get() + " connections to " + currentRing.nodes().size() + " healthy backends");   // summary of the servers
+        for (Backend backend : currentRing.nodes().values()) {
+            report.append("\nBackend ").append(backend.name).append(": ").append(backend.connections.get()).append(" open, ").append(backend.routed.get()).append(" routed");
+        }
+        return report.toString();
+    }
+
+    /**
+     * Main method of the router that reads its options and starts it.
+     *
+     * @param args String array of arguments passed to the router
+     */
+
+    public static void main(String[] args) {
+        int routerPort = DEFAULT_PORT;
+        String backendsFile = null;
+        int healthInterval = DEFAULT_HEALTH_INTERVAL;
+        int virtualNodes = DEFAULT_VIRTUAL_NODES;
+        for (int i = 0; i < args.length; i += 2) {
+            String option = args[i];
+            String argument = null;
+            try {
+                argument = args[i + 1];
+            } catch (ArrayIndexOutOfBoundsException e) {
+                System.err.println("Options: -b backendsFile [-p routerPort] [-i healthInterval] [-v virtualNodes]");
+                System.exit(1);
+            }
+            switch (option) {
+                case "-p":
+                    try {
+                        routerPort = Integer.parseInt(argument);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Router port must be an integer");
+                        System.exit(1);
+                    }
+                    break;
+                case "-b":
+                    backendsFile = argument;
+                    break;
+                case "-i":
+                    try {
+                        healthInterval = Integer.parseInt(argument);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Health interval must be an integer");
+                        System.exit(1);
+                    }
+                    break;
+                case "-v":
+                    try {
+                        virtualNodes = Integer.parseInt(argument);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Number of virtual nodes must be an integer");
+                        System.exit(1);
+                    }
+                    break;
+                default:
+                    System.err.println("Options: -b backendsFile [-p routerPort] [-i healthInterval] [-v virtualNodes]");
+                    System.exit(1);
+                    break;
+            }
+        }
+        if (backendsFile == null) {
+            System.err.println("Options: -b backendsFile [-p routerPort] [-i healthInterval] [-v virtualNodes]");
+            System.exit(1);
+        } else if (healthInterval < 1) {
+            System.err.println("Health interval must be at least 1");
+            System.exit(1);
+        } else if (virtualNodes < 1) {
+            System.err.println("Number of virtual nodes must be at least 1");
+            System.exit(1);
+        }
+        BlackjackRouter router = new BlackjackRouter(routerPort, Path.of(backendsFile), healthInterval, virtualNodes);
+        router.start();
+    }
+}
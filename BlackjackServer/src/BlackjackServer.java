@@ -1,6 +1,25 @@
+import java.io.File;
 import java.io.IOException;
-import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * BlackjackServer objects allow clients to connect to play Blackjack as a new player.
@@ -9,18 +28,72 @@ import java.net.Socket;
  */
 
 public class BlackjackServer {
+    public static final int DRAIN_DEADLINE = 120;                       // seconds a drain waits for tables to finish their rounds unless told otherwise
     private static final int DEFAULT_PORT = 44444;                      // default server port
     private static final int DEFAULT_PLAYERS_PER_TABLE = 1;             // default number of players per table
     private static final int DEFAULT_STARTING_MONEY = 2500;             // default amount of money players start with
     private static final int DEFAULT_MINIMUM_BET = 500;                 // default minimum player bet
     private static final int DEFAULT_NUMBER_OF_DECKS = 6;               // default number of decks in shoe
     private static final int DEFAULT_MINIMUM_CARDS_BEFORE_SHUFFLE = 78; // default minimum number of cards remaining before shuffling the shoe
+    private static final int DEFAULT_TABLE_START_WAIT = 10;             // default seconds to wait for a new table to fill
+    private static final int DEFAULT_SCHEDULER_SHARDS = Runtime.getRuntime().availableProcessors();    // default number of scheduler shards
+    private static final int DEFAULT_SPECTATOR_PORT = 0;                // default spectator port, 0 if spectators are disabled
+    private static final int DEFAULT_ADMIN_PORT = 0;                    // default admin port, 0 if the admin endpoint is disabled
+    private static final int DEFAULT_MESSAGE_RATE = 20;                 // default messages a connection can send per second, 0 if messages are not limited
+    private static final int DEFAULT_GRACE_PERIOD = 15;                 // default seconds a due choice waits for a disconnected player to reconnect
+    private static final int DEFAULT_HOUSE_BOTS = 0;                    // default number of seats filled with house bots at each new table
+    private static final int DEFAULT_BOT_TABLES = 0;                    // default number of tables of house bots opened at startup
+    private static final int DEFAULT_BOT_BET_UNITS = 1;                 // default minimum bets house bots bet each round
+    private static final int DEFAULT_MAX_TABLES = 0;                    // default most live tables, 0 if tables are not limited
+    private static final int DEFAULT_MAX_CONNECTIONS = 0;               // default most players seated or queued at once, 0 if players are not limited
+    private static final int DEFAULT_MAX_QUEUED_PLAYERS = 100;          // default most players waiting in the queue for a seat
+    private static final int DEFAULT_ACCEPTORS = 1;                     // default number of threads accepting players on the server port
+    private static final int DEFAULT_ACCEPT_BACKLOG = 50;               // default most connections each listening socket queues before they are accepted
+    private static final int MAXIMUM_LINE_LENGTH = 128;                 // most bytes allowed in a line from a client
+    private static final int REMEMBERED_MIGRATIONS = 1024;              // most moves of tables to this server remembered by their ids
+    private static final int HANDSHAKE_TIMEOUT = 1000;                  // milliseconds a new connection is given to send its first line before it is seated as a new player
+    private static final String TABLES = "TABLES";                      // first word of a client's request for the table directory
+    private static final String JOIN = "JOIN";                          // first word of a client's choice of table from the directory
+    private static final String PLAY = "PLAY";                          // request of a browsing client for any open seat
+    private static final MappedRingTransport.WaitStrategy DEFAULT_RING_WAIT_STRATEGY = MappedRingTransport.WaitStrategy.PARK;  // default way the server waits on agent rings
+    private static final Lobby.SeatingPolicy DEFAULT_SEATING_POLICY = Lobby.SeatingPolicy.FILL_FIRST;   // default policy used to seat new players
     private int serverPort;                                             // server port
     private int playersPerTable;                                        // number of players per table
     private int startingMoney;                                          // amount of money players start with
     private int minimumBet;                                             // minimum player bet
     private int numberOfDecks;                                          // number of decks in shoe
     private int minimumCardsBeforeShuffle;                              // minimum number of cards remaining before shuffling the shoe
+    private int tableStartWait;                                         // seconds to wait for a new table to fill before starting it
+    private Lobby.SeatingPolicy seatingPolicy;                          // policy used to seat new players
+    private int schedulerShards;                                        // number of scheduler shards that run the tables
+    private int spectatorPort;                                          // spectator port, 0 if spectators are disabled
+    private String walletDirectory;                                     // directory holding the wallet journal, null if balances are not kept
+    private String handHistoryFile;                                     // hand history log, null if rounds are not recorded
+    private int adminPort;                                              // admin port, 0 if the admin endpoint is disabled
+    private int messageRate;                                            // messages a connection can send per second, 0 if messages are not limited
+    private int gracePeriod;                                            // seconds a due choice waits for a disconnected player to reconnect
+    private int houseBots;                                              // number of seats filled with house bots at each new table
+    private int botTables;                                              // number of tables of house bots opened at startup
+    private int botBetUnits;                                            // minimum bets house bots bet each round
+    private String unixSocketPath;                                      // path of the Unix domain socket listener, null if it is disabled
+    private String ringDirectory;                                       // directory watched for agent ring files, null if rings are disabled
+    private MappedRingTransport.WaitStrategy ringWaitStrategy;          // way the server waits on agent rings
+    private int acceptors;                                              // number of threads accepting players on the server port
+    private int acceptBacklog;                                          // most connections each listening socket queues before they are accepted
+    private int maxTables;                                              // most live tables, 0 if tables are not limited
+    private int maxConnections;                                         // most players seated or queued at once, 0 if players are not limited
+    private int maxQueuedPlayers;                                       // most players waiting in the queue for a seat
+    private WalletStore wallet;                                         // store that keeps player balances, null if balances are not kept
+    private TableCheckpointStore checkpointStore;                       // store that keeps round checkpoints, null if rounds are not checkpointed
+    private HandHistoryRecorder handHistoryRecorder;                    // recorder that writes finished rounds, null if rounds are not recorded
+    private Lobby lobby;                                                // lobby that places players at tables
+    private RateLimiter rateLimiter;                                    // limiter that stops clients from flooding the server, null if messages are not limited
+    private SessionRegistry sessions;                                   // registry of sessions players can resume
+    private AcceptorPool acceptorPool;                                  // acceptors that take players from the server port
+    private ServerSocketChannel unixServerChannel;                      // channel accepting clients on the Unix domain socket, null if it is disabled
+    private LinkedHashMap<Long, Table> importedTables = new LinkedHashMap<>();  // tables moved to this server by the ids of their moves, null for moves that were aborted, oldest first
+    private WatchService ringWatcher;                                   // watcher that reports new ring files, null if rings are disabled
+    private volatile boolean drained;                                   // true once the server has started draining, false if not
 
     /**
      * Constructor for BlackjackServer object.
@@ -31,49 +104,639 @@ public class BlackjackServer {
      * @param minimumBet Minimum player bet
      * @param numberOfDecks Number of decks in shoe
      * @param minimumCardsBeforeShuffle Minimum number of cards remaining before shuffling the shoe
+     * @param tableStartWait Seconds to wait for a new table to fill before starting it
+     * @param seatingPolicy Policy used to seat new players
+     * @param schedulerShards Number of scheduler shards that run the tables
+     * @param spectatorPort Spectator port, 0 if spectators are disabled
+     * @param walletDirectory Directory holding the wallet journal, null if balances are not kept
+     * @param handHistoryFile Hand history log, null if rounds are not recorded
+     * @param adminPort Admin port, 0 if the admin endpoint is disabled
+     * @param messageRate Messages a connection can send per second, 0 if messages are not limited
+     * @param gracePeriod Seconds a due choice waits for a disconnected player to reconnect
+     * @param houseBots Number of seats filled with house bots at each new table
+     * @param botTables Number of tables of house bots opened at startup
+     * @param botBetUnits Minimum bets house bots bet each round
+     * @param unixSocketPath Path of the Unix domain socket listener, null if it is disabled
+     * @param ringDirectory Directory watched for agent ring files, null if rings are disabled
+     * @param ringWaitStrategy Way the server waits on agent rings
+     * @param acceptors Number of threads accepting players on the server port
+     * @param acceptBacklog Most connections each listening socket queues before they are accepted
+     * @param maxTables Most live tables, 0 if tables are not limited
+     * @param maxConnections Most players seated or queued at once, 0 if players are not limited
+     * @param maxQueuedPlayers Most players waiting in the queue for a seat
      */
 
-    public BlackjackServer(int serverPort, int playersPerTable, int startingMoney, int minimumBet, int numberOfDecks, int minimumCardsBeforeShuffle) {
+    public BlackjackServer(int serverPort, int playersPerTable, int startingMoney, int minimumBet, int numberOfDecks, int minimumCardsBeforeShuffle, int tableStartWait, Lobby.SeatingPolicy seatingPolicy, int schedulerShards, int spectatorPort, String walletDirectory, String handHistoryFile, int adminPort, int messageRate, int gracePeriod, int houseBots, int botTables, int botBetUnits, String unixSocketPath, String ringDirectory, MappedRingTransport.WaitStrategy ringWaitStrategy, int acceptors, int acceptBacklog, int maxTables, int maxConnections, int maxQueuedPlayers) {
         this.serverPort = serverPort;
         this.playersPerTable = playersPerTable;
         this.startingMoney = startingMoney;
         this.minimumBet = minimumBet;
         this.numberOfDecks = numberOfDecks;
         this.minimumCardsBeforeShuffle = minimumCardsBeforeShuffle;
+        this.tableStartWait = tableStartWait;
+        this.seatingPolicy = seatingPolicy;
+        this.schedulerShards = schedulerShards;
+        this.spectatorPort = spectatorPort;
+        this.walletDirectory = walletDirectory;
+        this.handHistoryFile = handHistoryFile;
+        this.adminPort = adminPort;
+        this.messageRate = messageRate;
+        this.gracePeriod = gracePeriod;
+        this.houseBots = houseBots;
+        this.botTables = botTables;
+        this.botBetUnits = botBetUnits;
+        this.unixSocketPath = unixSocketPath;
+        this.ringDirectory = ringDirectory;
+        this.ringWaitStrategy = ringWaitStrategy;
+        this.acceptors = acceptors;
+        this.acceptBacklog = acceptBacklog;
+        this.maxTables = maxTables;
+        this.maxConnections = maxConnections;
+        this.maxQueuedPlayers = maxQueuedPlayers;
     }
 
     /**
-     * Starts the server and adds connected clients to new tables as new players.
+     * Starts the server and passes connected clients to the lobby as new players.
      */
 
     public void start() {
-        System.out.println("Starting Blackjack server\nServer port: " + serverPort + "\nPlayers per table: " + playersPerTable + "\nStarting money: " + startingMoney + "\nMinimum bet: " + minimumBet + "\nNumber of decks: " + numberOfDecks + "\nMinimum cards before shuffle: " + minimumCardsBeforeShuffle);
-        ServerSocket serverSocket = null;
+        Log.info("Starting Blackjack server\nServer port: " + serverPort + "\nPlayers per table: " + playersPerTable + "\nStarting money: " + startingMoney + "\nMinimum bet: " + minimumBet + "\nNumber of decks: " + numberOfDecks + "\nMinimum cards before shuffle: " + minimumCardsBeforeShuffle + "\nTable start wait: " + tableStartWait + "\nSeating policy: " + seatingPolicy + "\nScheduler shards: " + schedulerShards + "\nSpectator port: " + (spectatorPort == 0 ? "disabled" : spectatorPort) + "\nWallet directory: " + (walletDirectory == null ? "disabled" : walletDirectory) + "\nHand history file: " + (handHistoryFile == null ? "disabled" : handHistoryFile) + "\nAdmin port: " + (adminPort == 0 ? "disabled" : adminPort) + "\nMessage rate: " + (messageRate == 0 ? "unlimited" : messageRate) + "\nGrace period: " + gracePeriod + "\nHouse bots: " + houseBots + "\nBot tables: " + botTables + "\nBot bet units: " + botBetUnits + "\nUnix socket: " + (unixSocketPath == null ? "disabled" : unixSocketPath) + "\nRing directory: " + (ringDirectory == null ? "disabled" : ringDirectory) + "\nRing wait strategy: " + ringWaitStrategy + "\nAcceptors: " + acceptors + "\nAccept backlog: " + acceptBacklog + "\nMaximum tables: " + (maxTables == 0 ? "unlimited" : maxTables) + "\nMaximum connections: " + (maxConnections == 0 ? "unlimited" : maxConnections) + "\nMaximum queued players: " + maxQueuedPlayers);
+        open();
+        if (unixSocketPath != null) {
+            try {
+                Path path = Path.of(unixSocketPath);    // path of the socket file
+                Files.deleteIfExists(path);
+                unixServerChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+                unixServerChannel.bind(UnixDomainSocketAddress.of(path));
+                new Thread(() -> listenUnixDomain(unixServerChannel), "unix-socket-listener").start();
+            } catch (IOException | UnsupportedOperationException e) {
+                Log.error("Could not listen on Unix domain socket {}", unixSocketPath);
+                Log.flush();
+                System.exit(1);
+            }
+        }
+        if (ringDirectory != null) {
+            try {
+                Path directory = Path.of(ringDirectory);    // directory agents create ring files in
+                Files.createDirectories(directory);
+                try (DirectoryStream<Path> staleFiles = Files.newDirectoryStream(directory, "*" + MappedRingTransport.EXTENSION)) {
+                    for (Path staleFile : staleFiles) {
+                        Files.delete(staleFile);
+                    }
+                }
+                ringWatcher = directory.getFileSystem().newWatchService();
+                directory.register(ringWatcher, StandardWatchEventKinds.ENTRY_CREATE);
+                new Thread(() -> listenRings(directory, ringWatcher), "ring-listener").start();
+            } catch (IOException e) {
+                Log.error("Could not watch ring directory {}", ringDirectory);
+                Log.flush();
+                System.exit(1);
+            }
+        }
         try {
-            System.out.println("Creating server socket");
-            serverSocket = new ServerSocket(serverPort);
+            Log.info("Creating server socket");
+            acceptorPool.bind();
         } catch (IOException e) {
-            System.err.println("Could not start Blackjack server on port " + serverPort);
+            Log.error("Could not start Blackjack server on port {}", serverPort);
+            Log.flush();
             System.exit(1);
         }
+        acceptorPool.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> drain(DRAIN_DEADLINE), "drain"));
+    }
+
+    /**
+     * Drains the server before it exits. The listeners stop accepting,
+     * new and queued players are sent away, every table finishes the
+     * round in progress and its players leave with GAMEOVER and their
+     * balance. Once every table has closed or the deadline has passed,
+     * the wallet journal is forced to disk and the time each table took
+     * to close is logged. Rounds still open at the deadline are settled
+     * from their checkpoints on the next start. Runs when the server is
+     * sent SIGTERM or SIGINT, or when the admin endpoint is asked to
+     * drain, and only drains once.
+     *
+     * @param deadline Most seconds to wait for the tables to close
+     */
+
+    public void drain(long deadline) {
+        drain(deadline, null);
+    }
+
+    /**
+     * Drains the server before it exits, moving every table to another
+     * server instead of closing it if one is given. Each table is moved
+     * once its round is over, and its players carry on at the other
+     * server through their router without their sessions ending. A table
+     * the other server cannot take is closed as in an ordinary drain.
+     *
+     * @param deadline Most seconds to wait for the tables to close or move
+     * @param migrationTarget Admin address of the server to move the tables to as host:adminPort, null if they close
+     */
+
+    public synchronized void drain(long deadline, String migrationTarget) {
+        if (drained) {
+            return;
+        }
+        drained = true;
+        Log.info("Draining with a deadline of {} seconds", deadline);
+        acceptorPool.close();
+        try {
+            if (unixServerChannel != null) {
+                unixServerChannel.close();
+                Files.deleteIfExists(Path.of(unixSocketPath));
+            }
+            if (ringWatcher != null) {
+                ringWatcher.close();
+            }
+        } catch (IOException e) {
+            Log.error("Could not close listener", e);
+        }
+        lobby.drain(migrationTarget);
+        if (!lobby.awaitDrained(TimeUnit.SECONDS.toMillis(deadline))) {
+            Log.warn("Drain deadline passed with {} tables still open", lobby.numTables());
+        }
+        if (wallet != null) {
+            wallet.flush();
+        }
+        if (handHistoryRecorder != null) {
+            handHistoryRecorder.close();
+        }
+        Log.info(lobby.drainReport());
+        Log.flush();
+    }
+
+    /**
+     * Admits a connection taken from the server port and starts a thread
+     * that seats it as a new player. Runs on the acceptor's thread, so it
+     * only does what must happen before the acceptor takes the next
+     * connection.
+     *
+     * @param socket Socket of the new connection
+     */
+
+    private void admit(Socket socket) {
+        RateLimiter.Client limits = null;   // rate limits of the new connection
+        if (rateLimiter != null) {
+            limits = rateLimiter.admitConnection(socket.getInetAddress());
+            if (limits == null) {
+                Log.warn("Refused request from {} for opening connections too fast", socket.getInetAddress());
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    Log.error("Could not close connection", e);
+                }
+                return;
+            }
+        }
+        Log.info("Received request from port {}", socket.getPort());
+        RateLimiter.Client connectionLimits = limits;   // rate limits of the new connection
+        Thread newPlayerThread = new Thread(() -> admit(socket, connectionLimits));
+        newPlayerThread.start();
+    }
+
+    /**
+     * Accepts clients on the Unix domain socket and passes them to the
+     * lobby as new players. Only processes that can open the socket file
+     * can connect, so these connections are not rate limited.
+     *
+     * @param serverChannel Channel accepting clients on the Unix domain socket
+     */
+
+    private void listenUnixDomain(ServerSocketChannel serverChannel) {
+        try {
+            Log.info("Listening on Unix domain socket {}", unixSocketPath);
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                Log.info("Received request on Unix domain socket");
+                Thread newPlayerThread = new Thread(() -> admit(channel));
+                newPlayerThread.start();
+            }
+        } catch (IOException e) {
+            if (!drained) {
+                Log.error("Stopped accepting players on Unix domain socket", e);
+            }
+        }
+    }
+
+    /**
+     * Accepts agents that create ring files in the ring directory and
+     * passes them to the lobby as new players. Agents on rings play
+     * through the same Player as any other client, but their lines are
+     * handed over in shared memory. Ring connections do not wait for a
+     * resume request, since agents open a new ring for every session,
+     * and are not rate limited, since only local processes allowed to
+     * write the directory can connect.
+     *
+     * @param directory Ring directory
+     * @param watcher Watcher that reports new files in the ring directory
+     */
+
+    private void listenRings(Path directory, WatchService watcher) {
         try {
-            System.out.println("Listening on port " + serverPort);
+            Log.info("Watching ring directory {}", ringDirectory);
             while (true) {
-                Table newTable = new Table(minimumBet, numberOfDecks, minimumCardsBeforeShuffle);
-                Thread newTableThread = new Thread(newTable);
-                for (int i = 0; i < playersPerTable; i++) {
-                    Socket socket = serverSocket.accept();
-                    System.out.println("Received request from port " + socket.getPort());
-                    Player newPlayer = new Player(socket, newTable, startingMoney);
-                    newTable.addPlayer(newPlayer);
-                    Thread newPlayerThread = new Thread(newPlayer);
+                WatchKey key = watcher.take();  // key holding the new files
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() != StandardWatchEventKinds.ENTRY_CREATE || !event.context().toString().endsWith(MappedRingTransport.EXTENSION)) {
+                        continue;
+                    }
+                    Path file = directory.resolve((Path) event.context());  // ring file an agent created
+                    Log.info("Received request on ring {}", file.getFileName());
+                    Thread newPlayerThread = new Thread(() -> {
+                        Transport connection = null;    // connection to the new player
+                        try {
+                            connection = MappedRingTransport.accept(file, ringWaitStrategy, MAXIMUM_LINE_LENGTH);
+                            play(connection, null, null);
+                        } catch (IOException e) {
+                            Log.error("Could not accept ring {}", file.getFileName(), e);
+                        } finally {
+                            try {
+                                if (connection != null) {
+                                    connection.close();
+                                } else {
+                                    Files.deleteIfExists(file);
+                                }
+                            } catch (IOException e) {
+                                Log.error("Could not remove ring {}", file.getFileName(), e);
+                            }
+                        }
+                    });
                     newPlayerThread.start();
                 }
-                newTableThread.start();
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            if (!drained) {
+                Log.error("Stopped watching ring directory", e);
+            }
+        }
+    }
+
+    /**
+     * Opens the stores, lobby and endpoints the server needs to seat
+     * players, without accepting connections. Harnesses that run the
+     * server inside their own JVM call this and connect players through
+     * connectLoopback instead of calling start.
+     */
+
+    public void open() {
+        if (walletDirectory != null) {
+            try {
+                wallet = new WalletStore(new File(walletDirectory));
+                checkpointStore = new TableCheckpointStore(new File(walletDirectory));
+            } catch (IOException e) {
+                Log.error("Could not open wallet journal in {}", walletDirectory);
+                Log.flush();
+                System.exit(1);
+            }
+            checkpointStore.recover(wallet);
+        }
+        if (handHistoryFile != null) {
+            try {
+                handHistoryRecorder = new HandHistoryRecorder(new File(handHistoryFile));
+            } catch (IOException e) {
+                Log.error("Could not open hand history file {}", handHistoryFile);
+                Log.flush();
+                System.exit(1);
+            }
+        }
+        TableScheduler scheduler = new TableScheduler(schedulerShards);
+        lobby = new Lobby(playersPerTable, minimumBet, numberOfDecks, minimumCardsBeforeShuffle, tableStartWait * 1000L, seatingPolicy, houseBots, startingMoney, botBetUnits, maxTables, maxConnections, maxQueuedPlayers, scheduler, handHistoryRecorder, wallet, checkpointStore);
+        rateLimiter = messageRate == 0 ? null : new RateLimiter(messageRate, lobby.metrics());
+        sessions = new SessionRegistry(lobby.metrics());
+        acceptorPool = new AcceptorPool(serverPort, acceptors, acceptBacklog, this::admit);
+        if (spectatorPort != 0) {
+            new Thread(new SpectatorServer(spectatorPort, lobby), "spectator-server").start();
+        }
+        if (adminPort != 0) {
+            try {
+                new AdminServer(adminPort, lobby, scheduler, wallet, sessions, acceptorPool, (migrationTarget, deadline) -> {
+                    drain(deadline, migrationTarget);
+                    System.exit(0);
+                }, this::importTable, this::abortImport, serverPort).start();
+            } catch (IOException e) {
+                Log.error("Could not start admin endpoint on port {}", adminPort);
+                Log.flush();
+                System.exit(1);
+            }
+        }
+        if (botTables > 0) {
+            Log.info("Opening {} tables of house bots", botTables);
+            lobby.openBotTables(botTables);
+        }
+    }
+
+    /**
+     * Seats a table that moved here from another server. Players are
+     * seated in their old order, each on their own thread, and hold their
+     * seats until the router resumes their sessions with the tokens they
+     * already have. House bots carry on with the money they had. A table
+     * sent again because the other server lost the answer is only seated
+     * once.
+     *
+     * @param encodedTable Table encoded by the server it moved from
+     * @return true if the table was seated now or before, false if it could not be decoded, its move was aborted or the server is draining
+     */
+
+    private boolean importTable(byte[] encodedTable) {
+        TableMigration migration;   // state of the moving table
+        try {
+            migration = TableMigration.decode(encodedTable);
+        } catch (IOException e) {
+            Log.error("Could not decode moving table", e);
+            return false;
+        }
+        Table table;    // table carrying on the moving table, null if the lobby is draining
+        synchronized (importedTables) {
+            if (importedTables.containsKey(migration.migrationId())) {
+                table = importedTables.get(migration.migrationId());
+                if (table == null) {
+                    Log.warn("Refusing moving table {} whose move was aborted", Long.toHexString(migration.migrationId()));
+                    return false;
+                }
+                Log.info("Table {} was sent again after its answer was lost", table.id());
+                return true;
+            }
+            table = lobby.adoptTable(migration);
+            if (table == null) {
+                return false;
+            }
+            rememberImport(migration.migrationId(), table);
+        }
+        for (TableMigration.MigratedSeat migratedSeat : migration.migratedSeats()) {
+            if (migratedSeat.isBot()) {
+                BotSeat bot = new BotSeat(migratedSeat.startingMoney(), migratedSeat.betUnits(), migratedSeat.stayWithoutPlayers(), migratedSeat.money());  // house bot moving with the table
+                bot.joinTable(table);
+                table.addPlayer(bot);
+                continue;
+            }
+            Player player = new Player(migratedSeat.sessionToken(), wallet, migratedSeat.money(), sessions, TimeUnit.SECONDS.toNanos(gracePeriod));   // player moving with the table
+            lobby.metrics().connectionOpened();
+            lobby.seat(player, table);
+            new Thread(() -> {
+                try {
+                    player.run();
+                } finally {
+                    lobby.playerLeft();
+                }
+            }).start();
+        }
+        table.start();
+        Log.info("Seated table {} with {} seats moved from another server", table.id(), migration.migratedSeats().size());
+        return true;
+    }
+
+    /**
+     * Drops a table whose move the other server gave up on after losing
+     * every answer, so its players are not seated on both servers. The
+     * table drains if it was seated, and a late send of it is refused.
+     *
+     * @param migrationId Id of the move
+     */
+
+    private void abortImport(long migrationId) {
+        Table table;    // table seated by the move, null if it was not seated
+        synchronized (importedTables) {
+            table = importedTables.get(migrationId);
+            rememberImport(migrationId, null);
+        }
+        if (table != null) {
+            Log.warn("Dropping table {} whose move was aborted", table.id());
+            table.drain();
+        }
+    }
+
+    /**
+     * Remembers the outcome of a move of a table to this server,
+     * forgetting the oldest move once too many are remembered. Only
+     * called while holding the lock on the imported tables.
+     *
+     * @param migrationId Id of the move
+     * @param table Table seated by the move, null if the move was aborted
+     */
+
+    private void rememberImport(long migrationId, Table table) {
+        importedTables.put(migrationId, table);
+        if (importedTables.size() > REMEMBERED_MIGRATIONS) {
+            Iterator<Long> oldest = importedTables.keySet().iterator();   // ids of the remembered moves, oldest first
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    /**
+     * Connects a new player over an in-memory loopback connection. The
+     * player is seated and played on a new thread exactly as if they had
+     * connected over TCP, but lines are handed over through queues.
+     *
+     * @return the client end of the connection
+     */
+
+    public Transport connectLoopback() {
+        LoopbackTransport[] ends = LoopbackTransport.pair();    // server and client ends of the connection
+        new Thread(() -> play(ends[0], null, null)).start();
+        return ends[1];
+    }
+
+    /**
+     * Seats a new player and plays Blackjack with them until they leave.
+     * Runs on the player's own thread, which waits in the lobby's queue
+     * if there is no seat for the player yet. Admission is decided after
+     * the first line, so a reconnecting player whose seat is held is
+     * never refused, and the player is only created once they have a
+     * seat, so refused and queued connections cost no wallet account.
+     * A client that starts with TABLES or JOIN--tableId browses the
+     * tables first, and any other first line takes the next open seat.
+     *
+     * @param connection Connection to the player's client
+     * @param limits Rate limits of the connection, null if messages are not limited
+     * @param firstLine First line sent on the connection, null if the connection has no handshake
+     */
+
+    private void play(Transport connection, RateLimiter.Client limits, String firstLine) {
+        boolean browsing = firstLine != null && (firstLine.startsWith(TABLES) || firstLine.startsWith(JOIN + "--"));    // true if the client chooses its table, false if it takes the next open seat
+        Table table = browsing ? browseTables(connection, firstLine, limits) : lobby.reserveSeat(connection);   // table with a seat reserved for the player, null if the connection was refused or left
+        if (table == null) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                Log.error("Could not close connection", e);
+            }
+            return;
+        }
+        try {
+            lobby.metrics().connectionOpened();
+            Player newPlayer = new Player(connection, wallet, startingMoney, limits, sessions, TimeUnit.SECONDS.toNanos(gracePeriod));
+            lobby.seat(newPlayer, table);
+            newPlayer.run();
+        } finally {
+            lobby.playerLeft();
+        }
+    }
+
+    /**
+     * Reads the first line of a new connection, which says what the
+     * client wants: PLAY for the next open seat, RESUME--token to resume
+     * a session or TABLES to browse the tables. The client is welcomed as
+     * soon as the line arrives. Older clients wait silently to be
+     * welcomed, so a connection that sends no first line within the
+     * handshake timeout is seated as if it had sent PLAY. Only an explicit
+     * RESUME--token line resumes a session.
+     *
+     * @param socket Socket of the new connection
+     * @param limits Rate limits of the connection, null if messages are not limited
+     */
+
+    private void admit(Socket socket, RateLimiter.Client limits) {
+        try {
+            LineDecoder in = new LineDecoder(socket.getInputStream(), MAXIMUM_LINE_LENGTH);  // in from the connection
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+            String firstLine = PLAY;    // first line sent by the client, PLAY if it sent none in time
+            try {
+                firstLine = in.readLine();
+            } catch (SocketTimeoutException e) {
+                // the client is waiting to be welcomed as a new player
+            }
+            if (firstLine == null) {
+                socket.close();
+                return;
+            }
+            socket.setSoTimeout(0);
+            Transport connection = new TcpTransport(socket, in);   // connection carrying the client's lines
+            if (resumed(connection, firstLine, limits)) {
+                Log.info("Resumed session from port {}", socket.getPort());
+                return;
+            }
+            play(connection, limits, firstLine);
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException closeException) {
+                Log.error("Could not close connection", closeException);
+            }
+        }
+    }
+
+    /**
+     * Reads the first line of a new Unix domain socket connection the
+     * same way as for a TCP connection, seating a connection that sends
+     * none in time as a new player. Blocking channels have no read
+     * timeout, so the wait for the first line is done with a selector
+     * before the channel is put back in blocking mode.
+     *
+     * @param channel Channel of the new connection
+     */
+
+    private void admit(SocketChannel channel) {
+        try {
+            boolean readable;   // true if the client sent something within the handshake timeout, false if not
+            channel.configureBlocking(false);
+            try (Selector selector = Selector.open()) {
+                channel.register(selector, SelectionKey.OP_READ);
+                readable = selector.select(HANDSHAKE_TIMEOUT) > 0;
+            }
+            channel.configureBlocking(true);
+            Transport connection = new UnixDomainTransport(channel, MAXIMUM_LINE_LENGTH);  // connection carrying the client's lines
+            String firstLine = readable ? connection.readLine() : PLAY;    // first line sent by the client, PLAY if it sent none in time, null if it closed the connection
+            if (firstLine == null) {
+                channel.close();
+                return;
+            }
+            if (resumed(connection, firstLine, null)) {
+                Log.info("Resumed session on Unix domain socket");
+                return;
+            }
+            play(connection, null, firstLine);
+        } catch (IOException e) {
+            try {
+                channel.close();
+            } catch (IOException closeException) {
+                Log.error("Could not close connection", closeException);
+            }
+        }
+    }
+
+    /**
+     * Lets a client browse the table directory until it chooses a table
+     * with JOIN--tableId or asks for any seat with PLAY. Every TABLES
+     * line is answered with the cached listing, or with TABLESUNCHANGED
+     * if the line names the version the client already has as
+     * TABLES--version, so polling clients never touch a table. Clients
+     * that choose a full table are told so and can keep browsing.
+     *
+     * @param connection Connection to the client
+     * @param request First line sent by the client, asking for the listing
+     * @param limits Rate limits of the connection, null if messages are not limited
+     * @return the table with a seat reserved for the player, null if the client left or was refused
+     */
+
+    private Table browseTables(Transport connection, String request, RateLimiter.Client limits) {
+        String line = request;  // latest line sent by the client, null once it disconnects
+        int lines = 1;          // number of lines the client has sent
+        try {
+            while (line != null) {
+                String[] components = line.split("--");    // components of the client's line
+                if (line.equals(PLAY)) {
+                    return lobby.reserveSeat(connection);
+                } else if (components[0].equals(JOIN) && components.length == 2) {
+                    try {
+                        Table table = lobby.reserveSeatAt(connection, Integer.parseInt(components[1]));   // chosen table, null if it has no seat for the client
+                        if (table != null) {
+                            return table;
+                        }
+                        if (lobby.draining()) {
+                            break;
+                        }
+                    } catch (NumberFormatException e) {
+                        connection.send("SERVERMESSAGE--TABLEFULL--" + components[1]);
+                    }
+                } else if (components[0].equals(TABLES)) {
+                    long knownVersion = -1;     // version of the listing the client already has, -1 if none
+                    try {
+                        knownVersion = components.length == 2 ? Long.parseLong(components[1]) : -1;
+                    } catch (NumberFormatException e) {
+                        knownVersion = -1;
+                    }
+                    connection.send(lobby.directory().listing(knownVersion));
+                }
+                line = connection.readLine();
+                lines++;
+                if (line != null && limits != null) {
+                    long penalty = limits.admitMessage();   // nanoseconds to delay the client, -1 if it is flooding
+                    if (penalty < 0) {
+                        Log.warn("Disconnecting client browsing the tables for flooding after {} lines", lines);
+                        break;
+                    } else if (penalty > 0) {
+                        LockSupport.parkNanos(penalty);
+                    }
+                }
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            // the client disconnected while browsing
         }
+        return null;
+    }
+
+    /**
+     * Resumes a session if a new connection's first line asks for one.
+     * A client whose session cannot be resumed is told so and joins as a
+     * new player instead.
+     *
+     * @param connection New connection
+     * @param firstLine First line sent on the connection
+     * @param limits Rate limits of the connection, null if messages are not limited
+     * @return true if a session was resumed on the connection, false if it should join as a new player
+     */
+
+    private boolean resumed(Transport connection, String firstLine, RateLimiter.Client limits) {
+        if (firstLine != null && firstLine.startsWith("RESUME--")) {
+            if (sessions.resume(firstLine.substring("RESUME--".length()), connection, limits)) {
+                return true;
+            }
+            connection.send("SERVERMESSAGE--RESUMEFAILED");
+        }
+        return false;
     }
 
     /**
@@ -89,13 +752,33 @@ public class BlackjackServer {
         int minimumBet = DEFAULT_MINIMUM_BET;
         int numberOfDecks = DEFAULT_NUMBER_OF_DECKS;
         int minimumCardsBeforeShuffle = DEFAULT_MINIMUM_CARDS_BEFORE_SHUFFLE;
+        int tableStartWait = DEFAULT_TABLE_START_WAIT;
+        Lobby.SeatingPolicy seatingPolicy = DEFAULT_SEATING_POLICY;
+        int schedulerShards = DEFAULT_SCHEDULER_SHARDS;
+        int spectatorPort = DEFAULT_SPECTATOR_PORT;
+        String walletDirectory = null;
+        String handHistoryFile = null;
+        int adminPort = DEFAULT_ADMIN_PORT;
+        int messageRate = DEFAULT_MESSAGE_RATE;
+        int gracePeriod = DEFAULT_GRACE_PERIOD;
+        int houseBots = DEFAULT_HOUSE_BOTS;
+        int botTables = DEFAULT_BOT_TABLES;
+        int botBetUnits = DEFAULT_BOT_BET_UNITS;
+        String unixSocketPath = null;
+        String ringDirectory = null;
+        MappedRingTransport.WaitStrategy ringWaitStrategy = DEFAULT_RING_WAIT_STRATEGY;
+        int acceptors = DEFAULT_ACCEPTORS;
+        int acceptBacklog = DEFAULT_ACCEPT_BACKLOG;
+        int maxTables = DEFAULT_MAX_TABLES;
+        int maxConnections = DEFAULT_MAX_CONNECTIONS;
+        int maxQueuedPlayers = DEFAULT_MAX_QUEUED_PLAYERS;
         for (int i = 0; i < args.length; i += 2) {
             String option = args[i];
             String argument = null;
             try {
                 argument = args[i + 1];
             } catch (ArrayIndexOutOfBoundsException e) {
-                System.err.println("Options: [-p serverPort] [-t playersPerTable] [-m startingMoney] [-b minimumBet] [-d numberOfDecks] [-c minimumCardsBeforeShuffle]");
+                System.err.println("Options: [-p serverPort] [-t playersPerTable] [-m startingMoney] [-b minimumBet] [-d numberOfDecks] [-c minimumCardsBeforeShuffle] [-w tableStartWait] [-s seatingPolicy] [-e schedulerShards] [-o spectatorPort] [-j walletDirectory] [-r handHistoryFile] [-a adminPort] [-l messageRate] [-g gracePeriod] [-k houseBots] [-n botTables] [-u botBetUnits] [-x unixSocketPath] [-y ringDirectory] [-z ringWaitStrategy] [-i acceptors] [-q acceptBacklog] [-f maxTables] [-C maxConnections] [-v maxQueuedPlayers]");
                 System.exit(1);
             }
             switch (option) {
@@ -147,8 +830,160 @@ public class BlackjackServer {
                         System.exit(1);
                     }
                     break;
+                case "-w":
+                    try {
+                        tableStartWait = Integer.parseInt(argument);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Table start wait must be an integer");
+                        System.exit(1);
+                    }
+                    break;
+                case "-s":
+                    switch (argument) {
+                        case "fill":
+                            seatingPolicy = Lobby.SeatingPolicy.FILL_FIRST;
+                            break;
+                        case "spread":
+                            seatingPolicy = Lobby.SeatingPolicy.SPREAD;
+                            break;
+                        default:
+                            System.err.println("Seating policy must be fill or spread");
+                            System.exit(1);
+                            break;
+                    }
+                    break;
+                case "-e":
+                    try {
+                        schedulerShards = Integer.parseInt(argument);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Number of scheduler shards must be an integer");
+                        System.exit(1);
+                    }
+                    break;
+                case "-o":
+                    try {
+                        spectatorPort = Integer.parseInt(argument);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Spectator port must be an integer");
+                        System.exit(1);
+                    }
+                    break;
+                case "-j":
+                    walletDirectory = argument;
+                    break;
+                case "-r":
+                    handHistoryFile = argument;
+                    break;
+                case "-a":
+                    try {
+                        adminPort = Integer.parseInt(argument);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Admin port must be an integer");
+                        System.exit(1);
+                    }
+                    break;
+                case "-l":
+                    try {
+                        messageRate = Integer.parseInt(argument);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Message rate must be an integer");
+                        System.exit(1);
+                    }
+                    break;
+                case "-g":
+                    try {
+                        gracePeriod = Integer.parseInt(argument);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Grace period must be an integer");
+                        System.exit(1);
+                    }
+                    break;
+                case "-k":
+                    try {
+                        houseBots = Integer.parseInt(argument);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Number of house bots must be an integer");
+                        System.exit(1);
+                    }
+                    break;
+                case "-n":
+                    try {
+                        botTables = Integer.parseInt(argument);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Number of bot tables must be an integer");
+                        System.exit(1);
+                    }
+                    break;
+                case "-u":
+                    try {
+                        botBetUnits = Integer.parseInt(argument);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Bot bet units must be an integer");
+                        System.exit(1);
+                    }
+                    break;
+                case "-x":
+                    unixSocketPath = argument;
+                    break;
+                case "-y":
+                    ringDirectory = argument;
+                    break;
+                case "-z":
+                    switch (argument) {
+                        case "spin":
+                            ringWaitStrategy = MappedRingTransport.WaitStrategy.SPIN;
+                            break;
+                        case "park":
+                            ringWaitStrategy = MappedRingTransport.WaitStrategy.PARK;
+                            break;
+                        default:
+                            System.err.println("Ring wait strategy must be spin or park");
+                            System.exit(1);
+                            break;
+                    }
+                    break;
+                case "-i":
+                    try {
+                        acceptors = Integer.parseInt(argument);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Number of acceptors must be an integer");
+                        System.exit(1);
+                    }
+                    break;
+                case "-q":
+                    try {
+                        acceptBacklog = Integer.parseInt(argument);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Accept backlog must be an integer");
+                        System.exit(1);
+                    }
+                    break;
+                case "-f":
+                    try {
+                        maxTables = Integer.parseInt(argument);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Maximum number of tables must be an integer");
+                        System.exit(1);
+                    }
+                    break;
+                case "-C":
+                    try {
+                        maxConnections = Integer.parseInt(argument);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Maximum number of connections must be an integer");
+                        System.exit(1);
+                    }
+                    break;
+                case "-v":
+                    try {
+                        maxQueuedPlayers = Integer.parseInt(argument);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Maximum number of queued players must be an integer");
+                        System.exit(1);
+                    }
+                    break;
                 default:
-                    System.err.println("Options: [-p serverPort] [-t playersPerTable] [-m startingMoney] [-b minimumBet] [-d numberOfDecks] [-c minimumCardsBeforeShuffle]");
+                    System.err.println("Options: [-p serverPort] [-t playersPerTable] [-m startingMoney] [-b minimumBet] [-d numberOfDecks] [-c minimumCardsBeforeShuffle] [-w tableStartWait] [-s seatingPolicy] [-e schedulerShards] [-o spectatorPort] [-j walletDirectory] [-r handHistoryFile] [-a adminPort] [-l messageRate] [-g gracePeriod] [-k houseBots] [-n botTables] [-u botBetUnits] [-x unixSocketPath] [-y ringDirectory] [-z ringWaitStrategy] [-i acceptors] [-q acceptBacklog] [-f maxTables] [-C maxConnections] [-v maxQueuedPlayers]");
                     System.exit(1);
                     break;
             }
@@ -165,8 +1000,44 @@ public class BlackjackServer {
         } else if (minimumCardsBeforeShuffle < 0) {
             System.err.println("Minimum cards before shuffle cannot be less than 0");
             System.exit(1);
+        } else if (tableStartWait < 0) {
+            System.err.println("Table start wait cannot be less than 0");
+            System.exit(1);
+        } else if (schedulerShards < 1) {
+            System.err.println("Number of scheduler shards must be at least 1");
+            System.exit(1);
+        } else if (messageRate < 0) {
+            System.err.println("Message rate cannot be less than 0");
+            System.exit(1);
+        } else if (gracePeriod < 0) {
+            System.err.println("Grace period cannot be less than 0");
+            System.exit(1);
+        } else if (houseBots < 0) {
+            System.err.println("Number of house bots cannot be less than 0");
+            System.exit(1);
+        } else if (botTables < 0) {
+            System.err.println("Number of bot tables cannot be less than 0");
+            System.exit(1);
+        } else if (botBetUnits < 1 || (long) botBetUnits * minimumBet > startingMoney) {
+            System.err.println("Bot bet units must be at least 1 and cannot bet more than the starting money");
+            System.exit(1);
+        } else if (acceptors < 1) {
+            System.err.println("Number of acceptors must be at least 1");
+            System.exit(1);
+        } else if (acceptBacklog < 1) {
+            System.err.println("Accept backlog must be at least 1");
+            System.exit(1);
+        } else if (maxTables < 0) {
+            System.err.println("Maximum number of tables cannot be less than 0");
+            System.exit(1);
+        } else if (maxConnections < 0) {
+            System.err.println("Maximum number of connections cannot be less than 0");
+            System.exit(1);
+        } else if (maxQueuedPlayers < 0) {
+            System.err.println("Maximum number of queued players cannot be less than 0");
+            System.exit(1);
         }
-        BlackjackServer blackjackServer = new BlackjackServer(serverPort, playersPerTable, startingMoney, minimumBet, numberOfDecks, minimumCardsBeforeShuffle);
+        BlackjackServer blackjackServer = new BlackjackServer(serverPort, playersPerTable, startingMoney, minimumBet, numberOfDecks, minimumCardsBeforeShuffle, tableStartWait, seatingPolicy, schedulerShards, spectatorPort, walletDirectory, handHistoryFile, adminPort, messageRate, gracePeriod, houseBots, botTables, botBetUnits, unixSocketPath, ringDirectory, ringWaitStrategy, acceptors, acceptBacklog, maxTables, maxConnections, maxQueuedPlayers);
         blackjackServer.start();
     }
 }
\ No newline at end of file
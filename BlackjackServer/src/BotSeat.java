@@ -0,0 +1,462 @@
+import java.util.ArrayList;
+
+/**
+ * BotSeat objects are house bots that fill seats at a table. A bot has no
+ * socket, thread or protocol of its own: the table calls it on the table's
+ * thread, and it bets, plays basic strategy and settles its hands before
+ * the call returns, so a table full of bots runs as fast as the shoe can
+ * be dealt.
+ *
+ * @author Jordan Segalman
+ */
+
+public class BotSeat implements Seat {
+    private static final int MAXIMUM_SCORE = 21;                            // maximum score before bust
+    private static final String SPLIT_PAIRS = "Split Pairs";                // choice to split pairs
+    private static final String DOUBLE_DOWN = "Double Down";                // choice to double down
+    private static final String HIT = "Hit";                                // choice to hit
+    private static final String STAND = "Stand";                            // choice to stand
+    private Table table;                                                    // table the bot sits at
+    private ArrayList<BlackjackHand> playerHands = new ArrayList<>();       // holds bot hands
+    private BlackjackHand originalPlayerHand;                               // bot hand to hold cards
+    private double money;                                                   // money available to bet
+    private int startingMoney;                                              // money the bot buys back in with once it cannot cover its bet
+    private int betUnits;                                                   // minimum bets the bot bets each round
+    private boolean stayWithoutPlayers;                                     // true if the bot keeps playing at a table with no players, false if it leaves
+    private boolean hasBlackjack = false;                                   // true if bot has Blackjack, false if does not
+    private long arrivalTime = System.nanoTime();                           // time the bot was seated in nanoseconds
+    private int seat;                                                       // seat number of the bot at the table
+
+    /**
+     * Constructor for BotSeat object.
+     *
+     * @param startingMoney Money the bot starts with and buys back in with once it cannot cover its bet
+     * @param betUnits Minimum bets the bot bets each round
+     * @param stayWithoutPlayers True if the bot keeps playing at a table with no players, false if it leaves
+     */
+
+    public BotSeat(int startingMoney, int betUnits, boolean stayWithoutPlayers) {
+        this(startingMoney, betUnits, stayWithoutPlayers, startingMoney);
+    }
+
+    /**
+     * Constructor for BotSeat object that has already played elsewhere,
+     * such as a bot moved from another server with its table.
+     *
+     * @param startingMoney Money the bot buys back in with once it cannot cover its bet
+     * @param betUnits Minimum bets the bot bets each round
+     * @param stayWithoutPlayers True if the bot keeps playing at a table with no players, false if it leaves
+     * @param money Money the bot has to bet
+     */
+
+    public BotSeat(int startingMoney, int betUnits, boolean stayWithoutPlayers, double money) {
+        this.startingMoney = startingMoney;
+        this.betUnits = betUnits;
+        this.stayWithoutPlayers = stayWithoutPlayers;
+        this.money = money;
+    }
+
+    /**
+     * Places the bot's bet for the new round.
+     */
+
+    @Override
+    public void roundStarted() {
+        playerHands.clear();
+        originalPlayerHand = new BlackjackHand();
+        playerHands.add(originalPlayerHand);
+        hasBlackjack = false;
+        double bet = table.minimumBet() * betUnits;  // amount the bot bets
+        if (money < bet) {
+            money = startingMoney;
+        }
+        originalPlayerHand.placeBet(bet);
+        money -= bet;
+        table.publish("TABLEMESSAGE--BET--" + seat + "--" + String.format("%.2f", bet));
+        table.handHistory().bet(seat, bet);
+        table.placedBetsLatchCountDown();
+    }
+
+    /**
+     * Does nothing, since the bot has no one to tell that betting is over.
+     */
+
+    @Override
+    public void betsPlaced() {
+    }
+
+    /**
+     * Checks the bot's first two cards for Blackjack and declines insurance,
+     * which basic strategy never takes.
+     */
+
+    @Override
+    public void cardsDealt() {
+        if (originalPlayerHand.blackjackValue() == MAXIMUM_SCORE) {
+            hasBlackjack = true;
+        }
+        table.placedInsuranceBetsLatchCountDown();
+    }
+
+    /**
+     * Tells the table the bot is ready for its turn.
+     */
+
+    @Override
+    public void insuranceBetsPlaced() {
+        table.turnLatchCountDown();
+    }
+
+    /**
+     * Plays the bot's turn. Nothing is played if the bot or the dealer has Blackjack.
+     */
+
+    @Override
+    public void turnStarted() {
+        if (!hasBlackjack && !table.dealerHasBlackjack()) {
+            playHand(originalPlayerHand);
+        }
+        table.playerTurnLatchCountDown();
+    }
+
+    /**
+     * Settles the bot's hands against the dealer. A house bot leaves once
+     * no players are left at the table, so it never keeps a table open on
+     * its own, and every bot leaves once the table is draining.
+     */
+
+    @Override
+    public void dealerTurnFinished() {
+        for (int i = 0; i < playerHands.size(); i++) {
+            BlackjackHand hand = playerHands.get(i);    // hand to settle
+            double payout = hand.payout(table.dealerHand(), hasBlackjack, table.dealerHasBlackjack());   // amount paid for the hand
+            money += payout;
+            table.handHistory().settlement(seat, i, payout, money);
+            table.publish("TABLEMESSAGE--RESULT--" + seat + "--" + i + "--" + hand.blackjackValue() + "--" + String.format("%.2f", money));
+        }
+        if (table.draining() || (!stayWithoutPlayers && table.numHumans() == 0)) {
+            table.removePlayer(this);
+        }
+        table.continuePlayingLatchCountDown();
+    }
+
+    /**
+     * Plays a hand with the same options a player is offered for it.
+     *
+     * @param hand Hand to play
+     */
+
+    private void playHand(BlackjackHand hand) {
+        boolean canSplit = !hand.doubleDown() && hand.isPair() && money >= hand.bet();          // true if the hand can be split
+        boolean canDoubleDown = !hand.splitPairs() && hand.doubleDownScore() && money >= hand.bet();  // true if the hand can be doubled down on
+        String choice = decide(hand, canSplit, canDoubleDown);  // choice the bot made
+        switch (choice) {
+            case SPLIT_PAIRS:
+                splitPairs(hand);
+                break;
+            case DOUBLE_DOWN:
+                doubleDown(hand);
+                break;
+            default:
+                while (choice.equals(HIT)) {
+                    dealCard(hand);
+                    if (hand.blackjackValue() > MAXIMUM_SCORE) {
+                        break;
+                    }
+                    choice = decide(hand, false, false);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Chooses a play for a hand by basic strategy and announces it.
+     *
+     * @param hand Hand to choose a play for
+     * @param canSplit True if the hand can be split, false if not
+     * @param canDoubleDown True if the hand can be doubled down on, false if not
+     * @return the choice the bot made
+     */
+
+    private String decide(BlackjackHand hand, boolean canSplit, boolean canDoubleDown) {
+        long decisionStart = System.nanoTime();     // time the decision started in nanoseconds
+        String choice = basicStrategy(hand, canSplit, canDoubleDown);   // choice the bot made
+        long decisionTime = System.nanoTime() - decisionStart;  // nanoseconds the decision took
+        int handIndex = playerHands.indexOf(hand);  // index of the hand
+        table.publish("TABLEMESSAGE--DECISION--" + seat + "--" + handIndex + "--" + choice);
+        table.handHistory().decision(seat, handIndex, choice, decisionTime);
+        GameEvents.Decision decisionEvent = new GameEvents.Decision();  // flight recorder event for the decision
+        if (decisionEvent.shouldCommit()) {
+            decisionEvent.tableId = table.id();
+            decisionEvent.seat = seat;
+            decisionEvent.hand = handIndex;
+            decisionEvent.choice = choice;
+            decisionEvent.thinkTime = decisionTime;
+            decisionEvent.commit();
+        }
+        return choice;
+    }
+
+    /**
+     * Returns the basic strategy play for a hand under this game's rules:
+     * the dealer hits soft 17, doubling down is only allowed on 9 to 11 or
+     * soft 19 to 21, and split aces get one card each.
+     *
+     * @param hand Hand to choose a play for
+     * @param canSplit True if the hand can be split, false if not
+     * @param canDoubleDown True if the hand can be doubled down on, false if not
+     * @return the basic strategy choice
+     */
+
+    private String basicStrategy(BlackjackHand hand, boolean canSplit, boolean canDoubleDown) {
+        Card shownCard = table.dealerShownCard();   // card the dealer is showing
+        int upcard = shownCard.rank() == Card.Rank.ACE ? 11 : shownCard.value();   // value of the dealer's card, counting an ace as 11
+        int value = hand.blackjackValue();          // value of the hand
+        if (canSplit && shouldSplit(hand.getCard(0).rank(), upcard)) {
+            return SPLIT_PAIRS;
+        }
+        if (hand.isSoft()) {
+            if (value == 19 && upcard == 6 && canDoubleDown) {
+                return DOUBLE_DOWN;
+            } else if (value >= 19) {
+                return STAND;
+            } else if (value == 18) {
+                return upcard >= 9 ? HIT : STAND;
+            }
+            return HIT;
+        }
+        if (canDoubleDown && (value == 11 || (value == 10 && upcard <= 9) || (value == 9 && upcard >= 3 && upcard <= 6))) {
+            return DOUBLE_DOWN;
+        } else if (value >= 17) {
+            return STAND;
+        } else if (value >= 13) {
+            return upcard <= 6 ? STAND : HIT;
+        } else if (value == 12) {
+            return upcard >= 4 && upcard <= 6 ? STAND : HIT;
+        }
+        return HIT;
+    }
+
+    /**
+     * Returns whether or not basic strategy splits a pair against the dealer's card.
+     *
+     * @param rank Rank of the pair
+     * @param upcard Value of the dealer's card, counting an ace as 11
+     * @return true if the pair should be split, false if not
+     */
+
+    private static boolean shouldSplit(Card.Rank rank, int upcard) {
+        switch (rank) {
+            case ACE:
+            case EIGHT:
+                return true;
+            case TWO:
+            case THREE:
+            case SEVEN:
+                return upcard <= 7;
+            case FOUR:
+                return upcard == 5 || upcard == 6;
+            case SIX:
+                return upcard <= 6;
+            case NINE:
+                return upcard <= 9 && upcard != 7;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Splits a given hand.
+     *
+     * @param hand Hand to split
+     */
+
+    private void splitPairs(BlackjackHand hand) {
+        hand.setSplitPairs();
+        money -= hand.bet();
+        BlackjackHand firstHand = new BlackjackHand();
+        BlackjackHand secondHand = new BlackjackHand();
+        int handIndex = playerHands.indexOf(hand);  // index of the hand being split
+        playerHands.set(handIndex, firstHand);
+        playerHands.add(handIndex + 1, secondHand);
+        firstHand.addCard(hand.getCard(0));
+        secondHand.addCard(hand.getCard(1));
+        firstHand.placeBet(hand.bet());
+        secondHand.placeBet(hand.bet());
+        table.publish("TABLEMESSAGE--SPLIT--" + seat + "--" + handIndex + "--" + firstHand.getCard(0) + "--" + secondHand.getCard(0));
+        dealCard(firstHand);
+        dealCard(secondHand);
+        if (firstHand.getCard(0).rank() != Card.Rank.ACE) {
+            playHand(firstHand);
+            playHand(secondHand);
+        }
+    }
+
+    /**
+     * Doubles down on a given hand.
+     *
+     * @param hand Hand to double down on
+     */
+
+    private void doubleDown(BlackjackHand hand) {
+        hand.setDoubleDown();
+        money -= hand.bet();
+        hand.placeBet(hand.bet() * 2);
+        Card newCard = table.dealCard();
+        hand.addDoubleDownCard(newCard);
+        table.publish("TABLEMESSAGE--PLAYERCARD--" + seat + "--" + playerHands.indexOf(hand) + "--back");
+        table.handHistory().playerCard(seat, playerHands.indexOf(hand), newCard);
+    }
+
+    /**
+     * Deals a card to a hand and announces it.
+     *
+     * @param hand Hand to deal to
+     */
+
+    private void dealCard(BlackjackHand hand) {
+        Card newCard = table.dealCard();
+        hand.addCard(newCard);
+        table.publish("TABLEMESSAGE--PLAYERCARD--" + seat + "--" + playerHands.indexOf(hand) + "--" + newCard);
+        table.handHistory().playerCard(seat, playerHands.indexOf(hand), newCard);
+    }
+
+    /**
+     * Places the bot at a table.
+     *
+     * @param table Table the bot joined
+     */
+
+    @Override
+    public void joinTable(Table table) {
+        this.table = table;
+    }
+
+    /**
+     * Sets the seat number of the bot at the table.
+     *
+     * @param seat Seat number of the bot
+     */
+
+    @Override
+    public void setSeat(int seat) {
+        this.seat = seat;
+    }
+
+    /**
+     * Returns the seat number of the bot at the table.
+     *
+     * @return the seat number of the bot
+     */
+
+    @Override
+    public int seat() {
+        return seat;
+    }
+
+    /**
+     * Returns the money the bot has available to bet.
+     *
+     * @return the money the bot has available to bet
+     */
+
+    @Override
+    public double money() {
+        return money;
+    }
+
+    /**
+     * Returns the time the bot was seated.
+     *
+     * @return the time the bot was seated in nanoseconds
+     */
+
+    @Override
+    public long arrivalTime() {
+        return arrivalTime;
+    }
+
+    /**
+     * Returns the bot hand.
+     *
+     * @return the bot hand
+     */
+
+    @Override
+    public BlackjackHand originalPlayerHand() {
+        return originalPlayerHand;
+    }
+
+    /**
+     * Returns the hands the bot is playing this round.
+     *
+     * @return the hands the bot is playing this round
+     */
+
+    @Override
+    public ArrayList<BlackjackHand> playerHands() {
+        return playerHands;
+    }
+
+    /**
+     * Returns whether or not the bot has Blackjack.
+     *
+     * @return true if the bot has Blackjack, false if does not
+     */
+
+    @Override
+    public boolean hasBlackjack() {
+        return hasBlackjack;
+    }
+
+    /**
+     * Returns the id of the bot's wallet account.
+     *
+     * @return -1, since house money is not kept in the wallet
+     */
+
+    @Override
+    public long account() {
+        return -1;
+    }
+
+    /**
+     * Returns whether or not the bot is a house bot.
+     *
+     * @return true, since bots are played by the house
+     */
+
+    @Override
+    public boolean isBot() {
+        return true;
+    }
+
+    /**
+     * Does nothing, since a house bot has no client to tell.
+     */
+
+    @Override
+    public void tableDrained() {
+    }
+
+    /**
+     * Adds the bot and the settings it plays by to the moving table.
+     *
+     * @param migration State of the moving table
+     */
+
+    @Override
+    public void exportTo(TableMigration migration) {
+        migration.addBot(money, startingMoney, betUnits, stayWithoutPlayers);
+    }
+
+    /**
+     * Does nothing, since the bot carries on as a new bot at the new server.
+     *
+     * @param address Address players connect to on the new server as host:port
+     */
+
+    @Override
+    public void tableMigrated(String address) {
+    }
+}
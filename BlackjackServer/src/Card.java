@@ -90,6 +90,37 @@ public class Card {
         return RANK;
     }
 
+    /**
+     * Returns the suit of the card.
+     *
+     * @return the suit of the card
+     */
+
+    public Suit suit() {
+        return SUIT;
+    }
+
+    /**
+     * Returns a compact code for the card between 0 and 51.
+     *
+     * @return the code for the card
+     */
+
+    public int code() {
+        return RANK.ordinal() * Suit.values().length + SUIT.ordinal();
+    }
+
+    /**
+     * Returns the card with the given code.
+     *
+     * @param code Code for the card
+     * @return the card with the given code
+     */
+
+    public static Card fromCode(int code) {
+        return new Card(Rank.values()[code / Suit.values().length], Suit.values()[code % Suit.values().length]);
+    }
+
     /**
      * Returns a string representation of the card.
      *
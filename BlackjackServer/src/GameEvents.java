@@ -0,0 +1,127 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * GameEvents holds the Java Flight Recorder events emitted by tables and
+ * players. The events are only written when enabled in a recording, such
+ * as one started with the blackjack.jfc settings, and cost next to nothing
+ * otherwise.
+ *
+ * @author Jordan Segalman
+ */
+
+public class GameEvents {
+
+    /**
+     * Round events span a round at a table from setup until every player has
+     * decided whether or not to keep playing.
+     */
+
+    @Name("blackjack.Round")
+    @Label("Round")
+    @Category("Blackjack")
+    @Description("A round of Blackjack at a table")
+    public static class Round extends Event {
+        @Label("Table Id")
+        int tableId;        // id of the table
+
+        @Label("Round Number")
+        int roundNumber;    // number of the round at the table
+
+        @Label("Players")
+        int players;        // number of players dealt into the round
+    }
+
+    /**
+     * Reshuffle events span the creation and shuffling of a new shoe.
+     */
+
+    @Name("blackjack.Reshuffle")
+    @Label("Reshuffle")
+    @Category("Blackjack")
+    @Description("A new shoe shuffled at a table")
+    public static class Reshuffle extends Event {
+        @Label("Table Id")
+        int tableId;        // id of the table
+
+        @Label("Cards Remaining")
+        int remainingCards; // number of cards left in the old shoe
+
+        @Label("Decks")
+        int decks;          // number of decks in the new shoe
+    }
+
+    /**
+     * Decision events are written when a player makes a valid choice.
+     */
+
+    @Name("blackjack.Decision")
+    @Label("Decision")
+    @Category("Blackjack")
+    @Description("A choice made by a player")
+    public static class Decision extends Event {
+        @Label("Table Id")
+        int tableId;        // id of the table
+
+        @Label("Seat")
+        int seat;           // seat of the player
+
+        @Label("Hand")
+        int hand;           // index of the hand, -1 if the choice is not about a hand
+
+        @Label("Choice")
+        String choice;      // choice made
+
+        @Label("Think Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long thinkTime;     // time the player took to choose
+    }
+
+    /**
+     * ChoiceRead events span a blocking read of a player's choice from their socket.
+     */
+
+    @Name("blackjack.ChoiceRead")
+    @Label("Choice Read")
+    @Category({"Blackjack", "I/O"})
+    @Description("A blocking read of a player's choice from their socket")
+    public static class ChoiceRead extends Event {
+        @Label("Table Id")
+        int tableId;        // id of the table
+
+        @Label("Seat")
+        int seat;           // seat of the player
+
+        @Label("Bytes Read")
+        @DataAmount
+        int bytes;          // number of characters read
+
+        @Label("End of Stream")
+        boolean endOfStream;    // true if the player disconnected, false if not
+    }
+
+    /**
+     * OutputFlush events span the write of a server message to a player's connection.
+     */
+
+    @Name("blackjack.OutputFlush")
+    @Label("Output Flush")
+    @Category({"Blackjack", "I/O"})
+    @Description("A server message written to a player's connection")
+    public static class OutputFlush extends Event {
+        @Label("Table Id")
+        int tableId;        // id of the table, -1 if the player has not joined one
+
+        @Label("Seat")
+        int seat;           // seat of the player
+
+        @Label("Bytes Written")
+        @DataAmount
+        int bytes;          // number of bytes written
+    }
+}
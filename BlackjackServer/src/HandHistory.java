@@ -0,0 +1,212 @@
+import java.util.Arrays;
+
+/**
+ * HandHistory objects build the compact binary record of one round at a table.
+ * Numbers are written as varints, cards as single byte codes and event times
+ * as microseconds since the start of the round.
+ *
+ * @author Jordan Segalman
+ */
+
+public class HandHistory {
+    public static final int BET = 1;                // tag of a bet event
+    public static final int PLAYER_CARD = 2;        // tag of a player card event
+    public static final int DEALER_CARD = 3;        // tag of a dealer card event
+    public static final int DECISION = 4;           // tag of a decision event
+    public static final int INSURANCE_BET = 5;      // tag of an insurance bet event
+    public static final int SETTLEMENT = 6;         // tag of a settlement event
+    public static final String[] DECISIONS = {"Hit", "Stand", "Split Pairs", "Double Down", "Yes", "No"};  // decisions that can be recorded, by code
+    private boolean recording;                      // true if the round is being recorded, false if not
+    private byte[] buffer = new byte[256];          // holds the encoded round
+    private int length;                             // number of bytes in the encoded round
+    private long startTime;                         // time the round started in nanoseconds
+
+    /**
+     * Constructor for HandHistory object.
+     *
+     * @param recording True if rounds are recorded, false if calls should do nothing
+     */
+
+    public HandHistory(boolean recording) {
+        this.recording = recording;
+    }
+
+    /**
+     * Starts recording a new round.
+     *
+     * @param tableId Id of the table
+     * @param roundNumber Number of the round
+     * @param remainingCards Number of cards remaining in the shoe
+     * @param reshuffled True if the shoe was reshuffled before the round, false if not
+     */
+
+    public synchronized void startRound(int tableId, long roundNumber, int remainingCards, boolean reshuffled) {
+        if (!recording) {
+            return;
+        }
+        length = 0;
+        startTime = System.nanoTime();
+        writeVarint(tableId);
+        writeVarint(roundNumber);
+        writeVarint(System.currentTimeMillis());
+        writeVarint(remainingCards);
+        writeByte(reshuffled ? 1 : 0);
+    }
+
+    /**
+     * Records a bet.
+     *
+     * @param seat Seat of the player
+     * @param bet Amount bet
+     */
+
+    public synchronized void bet(int seat, double bet) {
+        if (recording) {
+            writeEvent(BET);
+            writeVarint(seat);
+            writeVarint(toCents(bet));
+        }
+    }
+
+    /**
+     * Records an insurance bet.
+     *
+     * @param seat Seat of the player
+     * @param bet Amount of the insurance bet
+     */
+
+    public synchronized void insuranceBet(int seat, double bet) {
+        if (recording) {
+            writeEvent(INSURANCE_BET);
+            writeVarint(seat);
+            writeVarint(toCents(bet));
+        }
+    }
+
+    /**
+     * Records a card dealt to a player hand.
+     *
+     * @param seat Seat of the player
+     * @param hand Index of the hand
+     * @param card Card dealt
+     */
+
+    public synchronized void playerCard(int seat, int hand, Card card) {
+        if (recording) {
+            writeEvent(PLAYER_CARD);
+            writeVarint(seat);
+            writeVarint(hand);
+            writeByte(card.code());
+        }
+    }
+
+    /**
+     * Records a card dealt to the dealer.
+     *
+     * @param card Card dealt
+     */
+
+    public synchronized void dealerCard(Card card) {
+        if (recording) {
+            writeEvent(DEALER_CARD);
+            writeByte(card.code());
+        }
+    }
+
+    /**
+     * Records a decision made by a player.
+     *
+     * @param seat Seat of the player
+     * @param hand Index of the hand, -1 if the decision is not about a hand
+     * @param decision Decision made
+     * @param thinkTime Time the player took to decide in nanoseconds
+     */
+
+    public synchronized void decision(int seat, int hand, String decision, long thinkTime) {
+        if (recording) {
+            writeEvent(DECISION);
+            writeVarint(seat);
+            writeVarint(hand + 1);
+            writeByte(Math.max(Arrays.asList(DECISIONS).indexOf(decision), 0));
+            writeVarint(thinkTime / 1000);
+        }
+    }
+
+    /**
+     * Records the settlement of a player hand.
+     *
+     * @param seat Seat of the player
+     * @param hand Index of the hand
+     * @param payout Amount paid to the player
+     * @param balance Money the player has after the settlement
+     */
+
+    public synchronized void settlement(int seat, int hand, double payout, double balance) {
+        if (recording) {
+            writeEvent(SETTLEMENT);
+            writeVarint(seat);
+            writeVarint(hand);
+            writeVarint(toCents(payout));
+            writeVarint(toCents(balance));
+        }
+    }
+
+    /**
+     * Returns the encoded round.
+     *
+     * @return the encoded round, null if rounds are not recorded
+     */
+
+    public synchronized byte[] finishRound() {
+        return recording ? Arrays.copyOf(buffer, length) : null;
+    }
+
+    /**
+     * Writes the tag and time of an event.
+     *
+     * @param tag Tag of the event
+     */
+
+    private void writeEvent(int tag) {
+        writeByte(tag);
+        writeVarint((System.nanoTime() - startTime) / 1000);
+    }
+
+    /**
+     * Writes a single byte.
+     *
+     * @param value Byte to write
+     */
+
+    private void writeByte(int value) {
+        if (length == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[length++] = (byte) value;
+    }
+
+    /**
+     * Writes a non-negative number as a varint, seven bits per byte.
+     *
+     * @param value Number to write
+     */
+
+    private void writeVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    /**
+     * Converts an amount of money to whole cents.
+     *
+     * @param amount Amount of money
+     * @return the amount in cents
+     */
+
+    private static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
+}
@@ -0,0 +1,170 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * HandHistoryReader objects read a hand history log and export it as text.
+ *
+ * @author Jordan Segalman
+ */
+
+public class HandHistoryReader {
+    private DataInputStream in;     // in from the hand history log
+    private byte[] round;           // round being decoded
+    private int position;           // position in the round being decoded
+
+    /**
+     * Constructor for HandHistoryReader object.
+     *
+     * @param in Stream holding a hand history log
+     * @throws IOException if the log has no valid header
+     */
+
+    public HandHistoryReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        byte[] magic = new byte[HandHistoryRecorder.MAGIC.length];  // header of the log
+        this.in.readFully(magic);
+        if (!Arrays.equals(magic, HandHistoryRecorder.MAGIC)) {
+            throw new IOException("Not a hand history log");
+        }
+    }
+
+    /**
+     * Reads the next round and returns it as text, one line per event.
+     *
+     * @return the text of the round, null if there are no more rounds
+     * @throws IOException if the log cannot be read
+     */
+
+    public String nextRound() throws IOException {
+        int roundLength;    // number of bytes in the round
+        try {
+            roundLength = (int) readStreamVarint();
+        } catch (EOFException e) {
+            return null;
+        }
+        round = new byte[roundLength];
+        in.readFully(round);
+        position = 0;
+        StringBuilder text = new StringBuilder();   // text of the round
+        text.append("Table ").append(readVarint()).append(" round ").append(readVarint());
+        text.append(" at ").append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(readVarint())));
+        text.append(", ").append(readVarint()).append(" cards in shoe");
+        if (round[position++] == 1) {
+            text.append(", reshuffled");
+        }
+        while (position < round.length) {
+            int tag = round[position++];    // tag of the event
+            text.append("\n  +").append(String.format("%.3f", readVarint() / 1000.0)).append(" ms ");
+            switch (tag) {
+                case HandHistory.BET:
+                    text.append("seat ").append(readVarint()).append(" bet ").append(readMoney());
+                    break;
+                case HandHistory.INSURANCE_BET:
+                    text.append("seat ").append(readVarint()).append(" insurance bet ").append(readMoney());
+                    break;
+                case HandHistory.PLAYER_CARD:
+                    text.append("seat ").append(readVarint()).append(" hand ").append(readVarint()).append(" dealt ").append(Card.fromCode(round[position++]));
+                    break;
+                case HandHistory.DEALER_CARD:
+                    text.append("dealer dealt ").append(Card.fromCode(round[position++]));
+                    break;
+                case HandHistory.DECISION:
+                    text.append("seat ").append(readVarint());
+                    long hand = readVarint() - 1;   // index of the hand, -1 if the decision is not about a hand
+                    if (hand >= 0) {
+                        text.append(" hand ").append(hand);
+                    }
+                    text.append(" chose ").append(HandHistory.DECISIONS[round[position++]]).append(" after ").append(String.format("%.3f", readVarint() / 1000.0)).append(" ms");
+                    break;
+                case HandHistory.SETTLEMENT:
+                    text.append("seat ").append(readVarint()).append(" hand ").append(readVarint()).append(" paid ").append(readMoney()).append(", balance ").append(readMoney());
+                    break;
+                default:
+                    throw new IOException("Unknown hand history event " + tag);
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Decodes a varint from the round being decoded.
+     *
+     * @return the decoded number
+     */
+
+    private long readVarint() {
+        long value = 0; // decoded number
+        int shift = 0;  // bits decoded so far
+        byte b;         // byte being decoded
+        do {
+            b = round[position++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Decodes an amount of money in cents from the round being decoded.
+     *
+     * @return the amount of money as text
+     */
+
+    private String readMoney() {
+        return String.format("%.2f", readVarint() / 100.0);
+    }
+
+    /**
+     * Decodes a varint from the log stream.
+     *
+     * @return the decoded number
+     * @throws IOException if the log cannot be read
+     */
+
+    private long readStreamVarint() throws IOException {
+        long value = 0; // decoded number
+        int shift = 0;  // bits decoded so far
+        int b;          // byte being decoded
+        do {
+            b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Main method of the reader that exports a hand history log as text
+     * followed by the number of rounds and bytes per round.
+     *
+     * @param args String array containing the path of the hand history log
+     */
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: HandHistoryReader handHistoryFile");
+            System.exit(1);
+        }
+        try (FileInputStream file = new FileInputStream(args[0])) {
+            long fileLength = file.getChannel().size();                 // number of bytes in the log
+            HandHistoryReader reader = new HandHistoryReader(file);
+            int numRounds = 0;  // number of rounds read
+            String round;       // text of the round read
+            while ((round = reader.nextRound()) != null) {
+                System.out.println(round);
+                numRounds++;
+            }
+            System.out.println(numRounds + " rounds, " + String.format("%.1f", numRounds == 0 ? 0 : (double) (fileLength - HandHistoryRecorder.MAGIC.length) / numRounds) + " bytes per round");
+        } catch (IOException e) {
+            System.err.println("Could not read hand history log " + args[0] + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
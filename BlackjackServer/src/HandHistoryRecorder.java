@@ -0,0 +1,164 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HandHistoryRecorder objects append finished rounds to a hand history log
+ * on a background thread so that tables never wait on the disk. Rounds are
+ * dropped and counted if the writer falls too far behind. Closing the
+ * recorder writes every round already queued before the log is closed.
+ *
+ * @author Jordan Segalman
+ */
+
+public class HandHistoryRecorder implements Runnable {
+    public static final byte[] MAGIC = {'B', 'J', 'H', 'H', 1};            // bytes at the start of a hand history log
+    private static final int MAXIMUM_QUEUED_ROUNDS = 16384;                 // rounds queued before new rounds are dropped
+    private static final byte[] CLOSE = new byte[0];                        // marker telling the writer to close the log
+    private OutputStream out;                                               // out to the hand history log
+    private ArrayBlockingQueue<byte[]> rounds = new ArrayBlockingQueue<>(MAXIMUM_QUEUED_ROUNDS);   // holds rounds waiting to be written
+    private AtomicLong writtenRounds = new AtomicLong();                    // number of rounds written
+    private AtomicLong writtenBytes = new AtomicLong();                     // number of bytes written
+    private AtomicLong droppedRounds = new AtomicLong();                    // number of rounds dropped because the queue was full or the log was closed
+    private Thread writerThread;                                            // thread writing rounds to the log
+    private boolean closed;                                                 // true once the recorder has been closed, false before, guarded by the recorder
+
+    /**
+     * Constructor for HandHistoryRecorder object.
+     *
+     * @param file Hand history log to append to
+     * @throws IOException if the log cannot be opened
+     */
+
+    public HandHistoryRecorder(File file) throws IOException {
+        boolean newFile = !file.exists() || file.length() == 0;     // true if the log has no header yet
+        out = new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16);
+        if (newFile) {
+            out.write(MAGIC);
+        }
+        writerThread = new Thread(this, "hand-history-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Writer thread run method.
+     */
+
+    @Override
+    public void run() {
+        boolean closing = false;    // true once the writer has reached the close marker, false before
+        while (!closing) {
+            try {
+                byte[] round = rounds.take();   // next round to write
+                do {
+                    if (round == CLOSE) {
+                        closing = true;
+                        break;
+                    }
+                    writeVarint(round.length);
+                    out.write(round);
+                    writtenRounds.incrementAndGet();
+                    writtenBytes.addAndGet(round.length);
+                } while ((round = rounds.poll()) != null);
+                out.flush();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                Log.error("Could not write hand history", e);
+            }
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            Log.error("Could not close hand history", e);
+        }
+    }
+
+    /**
+     * Queues a finished round to be written. Never waits on the writer.
+     * The closed check and the offer are made under the recorder's lock,
+     * so every round queued is ahead of the close marker.
+     *
+     * @param round Encoded round
+     */
+
+    public void record(byte[] round) {
+        if (round == null) {
+            return;
+        }
+        synchronized (this) {
+            if (closed || !rounds.offer(round)) {
+                droppedRounds.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Writes every queued round, flushes the log and closes it. Waits for
+     * the writer to finish, since it is a daemon thread that would
+     * otherwise be stopped with rounds still queued when the server exits.
+     * Rounds recorded after this are dropped.
+     */
+
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        try {
+            rounds.put(CLOSE);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the number of rounds written.
+     *
+     * @return the number of rounds written
+     */
+
+    public long writtenRounds() {
+        return writtenRounds.get();
+    }
+
+    /**
+     * Returns the number of round bytes written.
+     *
+     * @return the number of round bytes written
+     */
+
+    public long writtenBytes() {
+        return writtenBytes.get();
+    }
+
+    /**
+     * Returns the number of rounds dropped because the writer fell behind.
+     *
+     * @return the number of rounds dropped
+     */
+
+    public long droppedRounds() {
+        return droppedRounds.get();
+    }
+
+    /**
+     * Writes the length of a round as a varint. Only called on the writer thread.
+     *
+     * @param value Number to write
+     * @throws IOException if the log cannot be written
+     */
+
+    private void writeVarint(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
@@ -0,0 +1,84 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * HashRing objects place keys on nodes by consistent hashing. Every node
+ * is hashed onto a ring of 64-bit points many times over as virtual
+ * nodes, and a key belongs to the first node point at or after the
+ * key's own hash. Adding or removing a node only moves the keys that
+ * fall on its points, about one key in every number of nodes, and the
+ * virtual nodes keep the share of keys on each node even. Rings never
+ * change once built, so they can be shared between threads freely and
+ * replaced whole when the nodes change.
+ *
+ * @param <T> Type of the nodes
+ * @author Jordan Segalman
+ */
+
+public class HashRing<T> {
+    private TreeMap<Long, T> points = new TreeMap<>();                      // nodes keyed by the points they were hashed onto
+    private Map<String, T> nodes;                                           // nodes on the ring keyed by name
+
+    /**
+     * Constructor for HashRing object.
+     *
+     * @param nodes Nodes to place on the ring keyed by name, which must be unique
+     * @param virtualNodes Number of points each node is hashed onto
+     */
+
+    public HashRing(Map<String, T> nodes, int virtualNodes) {
+        this.nodes = Collections.unmodifiableMap(new TreeMap<>(nodes));
+        for (Map.Entry<String, T> node : this.nodes.entrySet()) {
+            for (int i = 0; i < virtualNodes; i++) {
+                points.put(hash(node.getKey() + "#" + i), node.getValue());
+            }
+        }
+    }
+
+    /**
+     * Returns the node a key belongs to.
+     *
+     * @param key Key to place
+     * @return the node the key belongs to, null if the ring is empty
+     */
+
+    public T lookup(String key) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, T> point = points.ceilingEntry(hash(key));    // first node point at or after the key, null if the key is past the last point
+        return point != null ? point.getValue() : points.firstEntry().getValue();
+    }
+
+    /**
+     * Returns the nodes on the ring keyed by name.
+     *
+     * @return the nodes on the ring
+     */
+
+    public Map<String, T> nodes() {
+        return nodes;
+    }
+
+    /**
+     * Hashes a string onto the ring using the first eight bytes of its
+     * MD5 digest, which spreads similar names as well as any other.
+     *
+     * @param value String to hash
+     * @return the point the string is hashed onto
+     */
+
+    private static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));   // digest of the string
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+}
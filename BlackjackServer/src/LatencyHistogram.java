@@ -0,0 +1,143 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram objects count durations in log-linear buckets so that
+ * percentiles can be read with a bounded relative error. Each power of two
+ * microseconds is split into sixteen buckets, giving about 6% precision from
+ * one microsecond up to several hours. Recording is a single atomic increment
+ * and never locks, so it can be done from any thread.
+ *
+ * @author Jordan Segalman
+ */
+
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;                           // bits of precision kept within each power of two
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;            // buckets within each power of two
+    private static final int MAXIMUM_EXPONENT = 36;                         // highest power of two microseconds counted
+    private static final int NUM_BUCKETS = (MAXIMUM_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;  // number of buckets
+    private AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);      // number of durations counted in each bucket
+    private AtomicLong totalCount = new AtomicLong();                       // number of durations counted
+    private AtomicLong maximum = new AtomicLong();                          // longest duration counted in microseconds
+    private AtomicLong sum = new AtomicLong();                              // total of the durations counted in microseconds
+
+    /**
+     * Counts a duration.
+     *
+     * @param nanos Duration in nanoseconds
+     */
+
+    public void record(long nanos) {
+        long micros = Math.max(nanos / 1000, 0);    // duration in microseconds
+        counts.incrementAndGet(bucket(micros));
+        totalCount.incrementAndGet();
+        sum.addAndGet(micros);
+        if (micros > maximum.get()) {
+            maximum.accumulateAndGet(micros, Math::max);
+        }
+    }
+
+    /**
+     * Returns the number of durations counted.
+     *
+     * @return the number of durations counted
+     */
+
+    public long count() {
+        return totalCount.get();
+    }
+
+    /**
+     * Returns the total of the durations counted.
+     *
+     * @return the total of the durations counted in milliseconds
+     */
+
+    public double sum() {
+        return sum.get() / 1000.0;
+    }
+
+    /**
+     * Returns the longest duration counted.
+     *
+     * @return the longest duration counted in milliseconds
+     */
+
+    public double maximum() {
+        return maximum.get() / 1000.0;
+    }
+
+    /**
+     * Returns the duration that the given fraction of durations did not exceed.
+     * Counts recorded while the histogram is read may or may not be included.
+     *
+     * @param quantile Fraction of durations, between 0 and 1
+     * @return the duration in milliseconds, 0 if nothing has been counted
+     */
+
+    public double percentile(double quantile) {
+        long total = 0;     // number of durations in the snapshot of the counts
+        long[] snapshot = new long[NUM_BUCKETS];    // counts in each bucket when read
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max((long) Math.ceil(quantile * total), 1);    // number of durations at or below the percentile
+        long seen = 0;      // number of durations in the buckets passed so far
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), maximum.get()) / 1000.0;
+            }
+        }
+        return maximum();
+    }
+
+    /**
+     * Returns the median, 99th and 99.9th percentiles as text.
+     *
+     * @return the percentiles as text
+     */
+
+    public String summary() {
+        return "p50 " + String.format("%.3f", percentile(0.5)) + " p99 " + String.format("%.3f", percentile(0.99)) + " p999 " + String.format("%.3f", percentile(0.999)) + " max " + String.format("%.3f", maximum()) + " ms (" + count() + ")";
+    }
+
+    /**
+     * Returns the bucket that counts a duration.
+     *
+     * @param micros Duration in microseconds
+     * @return the index of the bucket
+     */
+
+    private static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);     // power of two of the duration
+        if (exponent > MAXIMUM_EXPONENT) {
+            return NUM_BUCKETS - 1;
+        }
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);  // bucket within the power of two
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the highest duration counted by a bucket.
+     *
+     * @param bucket Index of the bucket
+     * @return the highest duration in microseconds
+     */
+
+    private static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;  // power of two of the bucket
+        long width = 1L << (exponent - SUB_BUCKET_BITS);            // durations counted by the bucket
+        return (1L << exponent) + (bucket % SUB_BUCKETS) * width + width - 1;
+    }
+}
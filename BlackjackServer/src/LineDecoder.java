@@ -0,0 +1,121 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * LineDecoder objects split the bytes a client sends into lines with a
+ * bounded length. Unlike BufferedReader.readLine, a client cannot make the
+ * decoder hold more than one maximum-length frame, and lines holding
+ * anything other than printable ASCII are rejected. Both buffers are
+ * allocated once per connection and reused for every line.
+ *
+ * @author Jordan Segalman
+ */
+
+public class LineDecoder {
+    private static final int READ_BUFFER_SIZE = 512;                        // bytes read from the stream at a time
+    private InputStream in;                                                 // in from the client
+    private byte[] readBuffer = new byte[READ_BUFFER_SIZE];                 // holds bytes read but not yet decoded
+    private int readPosition;                                               // position of the next byte to decode in the read buffer
+    private int readLimit;                                                  // number of bytes in the read buffer
+    private int maximumLength;                                              // most bytes allowed in a line
+    private byte[] frame;                                                   // holds the line being decoded and its carriage return
+    private int frameLength;                                                // number of bytes in the line being decoded
+    private boolean discarding;                                             // true if the rest of a rejected line is being skipped
+
+    /**
+     * FrameException objects are thrown when a client sends a line that is too long or malformed.
+     */
+
+    public static class FrameException extends IOException {
+        private static final long serialVersionUID = 1L;    // version of the serialized form
+        private boolean oversize;                           // true if the line was too long, false if it was malformed
+
+        /**
+         * Constructor for FrameException object.
+         *
+         * @param message Description of the rejected line
+         * @param oversize True if the line was too long, false if it was malformed
+         */
+
+        FrameException(String message, boolean oversize) {
+            super(message);
+            this.oversize = oversize;
+        }
+
+        /**
+         * Returns whether or not the line was rejected for being too long.
+         *
+         * @return true if the line was too long, false if it was malformed
+         */
+
+        public boolean oversize() {
+            return oversize;
+        }
+    }
+
+    /**
+     * Constructor for LineDecoder object.
+     *
+     * @param in Stream from the client
+     * @param maximumLength Most bytes allowed in a line, not counting the line terminator
+     */
+
+    public LineDecoder(InputStream in, int maximumLength) {
+        this.in = in;
+        this.maximumLength = maximumLength;
+        frame = new byte[maximumLength + 1];
+    }
+
+    /**
+     * Reads the next line. Lines end with a line feed, optionally
+     * preceded by a carriage return. If reading times out partway through
+     * a line, the bytes decoded so far are kept and the next call carries
+     * on with the same line. After a line is rejected, the rest of it up
+     * to and including its line feed is discarded, so the next call
+     * starts decoding at the following line.
+     *
+     * @return the line without its terminator, null if the client closed the connection
+     * @throws FrameException if the line is too long or holds a byte that is not printable ASCII
+     * @throws IOException if the stream cannot be read
+     */
+
+    public String readLine() throws IOException {
+        while (true) {
+            if (readPosition == readLimit) {
+                readLimit = in.read(readBuffer);
+                readPosition = 0;
+                if (readLimit < 0) {
+                    readLimit = 0;
+                    frameLength = 0;
+                    discarding = false;
+                    return null;
+                }
+            }
+            byte b = readBuffer[readPosition++];   // byte being decoded
+            if (discarding) {
+                discarding = b != '\n';
+            } else if (b == '\n') {
+                if (frameLength > 0 && frame[frameLength - 1] == '\r') {
+                    frameLength--;
+                }
+                int length = frameLength;   // number of bytes in the line
+                frameLength = 0;
+                if (length > maximumLength) {
+                    throw new FrameException("Line is longer than " + maximumLength + " bytes", true);
+                }
+                return new String(frame, 0, length, StandardCharsets.US_ASCII);
+            } else if ((b < 0x20 || b > 0x7E) && b != '\r' && b != '\t') {
+                frameLength = 0;
+                discarding = true;
+                throw new FrameException("Line holds byte " + (b & 0xFF), false);
+            } else if (frameLength == frame.length) {
+                frameLength = 0;
+                discarding = true;
+                throw new FrameException("Line is longer than " + maximumLength + " bytes", true);
+            } else {
+                frame[frameLength++] = b;
+            }
+        }
+    }
+}
@@ -0,0 +1,719 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lobby objects place connected players into open seats at live tables.
+ *
+ * @author Jordan Segalman
+ */
+
+public class Lobby {
+    private static final String SERVER_FULL = "SERVERMESSAGE--SERVERFULL"; // message sent to a connection refused because the server is full
+    private static final long REPORT_INTERVAL = 60;                         // seconds between lobby reports
+    private static final long QUEUE_UPDATE_INTERVAL = 2000;                 // milliseconds between position updates sent to queued players
+    private static final double HANDOFF_SMOOTHING = 0.2;                    // weight of the latest interval in the average time between seats given to queued players
+    private int playersPerTable;                                            // number of seats at each table
+    private int minimumBet;                                                 // minimum player bet
+    private int numberOfDecks;                                              // number of decks in shoe
+    private int minimumCardsBeforeShuffle;                                  // minimum number of cards remaining before shuffling the shoe
+    private long tableStartWait;                                            // milliseconds to wait for a new table to fill before starting it
+    private SeatingPolicy seatingPolicy;                                    // policy used to choose a table for a new player
+    private int houseBots;                                                  // number of seats filled with house bots at each new table
+    private int botStartingMoney;                                           // money house bots start with
+    private int botBetUnits;                                                // minimum bets house bots bet each round
+    private int maxTables;                                                  // most live tables, 0 if tables are not limited
+    private int maxConnections;                                             // most players seated or queued at once, 0 if players are not limited
+    private int maxQueuedPlayers;                                           // most players waiting in the queue for a seat
+    private TableScheduler scheduler;                                       // scheduler that runs the tables
+    private HandHistoryRecorder handHistoryRecorder;                        // recorder that writes finished rounds, null if rounds are not recorded
+    private WalletStore wallet;                                             // store that keeps player balances, null if balances are not kept
+    private TableCheckpointStore checkpointStore;                           // store that keeps round checkpoints, null if rounds are not checkpointed
+    private ArrayList<Table> tables = new ArrayList<>();                    // holds the live tables
+    private volatile Table[] liveTables = new Table[0];                     // copy of the live tables replaced whenever they change, read without the lock
+    private TableDirectory directory = new TableDirectory();                // listing of the live tables that clients browse
+    private ArrayList<QueuedPlayer> queue = new ArrayList<>();              // holds players waiting for a seat in the order they arrived
+    private int admittedPlayers;                                            // number of players seated or queued
+    private long lastHandoff;                                               // time a queued player was last given a seat in nanoseconds, 0 if none has been
+    private double handoffInterval;                                         // average nanoseconds between queued players being given seats, 0 if not known
+    private volatile long drainStart;                                       // time the lobby started draining in nanoseconds, 0 if it is not draining
+    private LatencyHistogram drainTimes = new LatencyHistogram();           // time each table took to close after the drain started
+    private LatencyHistogram migrationTimes = new LatencyHistogram();       // time each table took to be sent to the server it moved to
+    private RoundTimings timings = new RoundTimings();                      // latency histograms of the rounds at every table
+    private ServerMetrics metrics = new ServerMetrics();                    // counters of server activity
+    private ScheduledExecutorService timer;                                 // timer used to report statistics
+    private ExecutorService migrationSender;                                // threads that send moving tables to the server they move to
+    private AtomicInteger nextTableId = new AtomicInteger();                // id of the next table created
+    private AtomicInteger waitingPlayers = new AtomicInteger();             // number of players waiting to be dealt into a round
+    private AtomicLong seatedPlayers = new AtomicLong();                    // number of players dealt into their first round
+    private AtomicLong totalAssignmentLatency = new AtomicLong();           // total nanoseconds between connecting and being dealt in
+    private AtomicLong maximumAssignmentLatency = new AtomicLong();         // longest nanoseconds between connecting and being dealt in
+
+    /**
+     * Policies that can be used to choose a table for a new player.
+     */
+
+    public enum SeatingPolicy {
+        FILL_FIRST, SPREAD
+    }
+
+    /**
+     * QueuedPlayer objects hold a connection waiting in the queue for a seat.
+     */
+
+    private static class QueuedPlayer {
+        private Transport connection;                                       // connection to the player's client
+        private Table table;                                                // table with a seat reserved for the player, null until the player is given a seat
+        private CountDownLatch seated = new CountDownLatch(1);              // latch counted down once the player is given a seat
+
+        /**
+         * Constructor for QueuedPlayer object.
+         *
+         * @param connection Connection to the player's client
+         */
+
+        private QueuedPlayer(Transport connection) {
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * Constructor for Lobby object.
+     *
+     * @param playersPerTable Number of seats at each table
+     * @param minimumBet Minimum player bet
+     * @param numberOfDecks Number of decks in shoe
+     * @param minimumCardsBeforeShuffle Minimum number of cards remaining before shuffling the shoe
+     * @param tableStartWait Milliseconds to wait for a new table to fill before starting it
+     * @param seatingPolicy Policy used to choose a table for a new player
+     * @param houseBots Number of seats filled with house bots at each new table
+     * @param botStartingMoney Money house bots start with
+     * @param botBetUnits Minimum bets house bots bet each round
+     * @param maxTables Most live tables, 0 if tables are not limited
+     * @param maxConnections Most players seated or queued at once, 0 if players are not limited
+     * @param maxQueuedPlayers Most players waiting in the queue for a seat
+     * @param scheduler Scheduler that runs the tables
+     * @param handHistoryRecorder Recorder that writes finished rounds, null if rounds are not recorded
+     * @param wallet Store that keeps player balances, null if balances are not kept
+     * @param checkpointStore Store that keeps round checkpoints, null if rounds are not checkpointed
+     */
+
+    public Lobby(int playersPerTable, int minimumBet, int numberOfDecks, int minimumCardsBeforeShuffle, long tableStartWait, SeatingPolicy seatingPolicy, int houseBots, int botStartingMoney, int botBetUnits, int maxTables, int maxConnections, int maxQueuedPlayers, TableScheduler scheduler, HandHistoryRecorder handHistoryRecorder, WalletStore wallet, TableCheckpointStore checkpointStore) {
+        this.playersPerTable = playersPerTable;
+        this.minimumBet = minimumBet;
+        this.numberOfDecks = numberOfDecks;
+        this.minimumCardsBeforeShuffle = minimumCardsBeforeShuffle;
+        this.tableStartWait = tableStartWait;
+        this.seatingPolicy = seatingPolicy;
+        this.houseBots = Math.min(houseBots, playersPerTable - 1);
+        this.botStartingMoney = botStartingMoney;
+        this.botBetUnits = botBetUnits;
+        this.maxTables = maxTables;
+        this.maxConnections = maxConnections;
+        this.maxQueuedPlayers = maxQueuedPlayers;
+        this.scheduler = scheduler;
+        this.handHistoryRecorder = handHistoryRecorder;
+        this.wallet = wallet;
+        this.checkpointStore = checkpointStore;
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lobby-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(() -> Log.info(report()), REPORT_INTERVAL, REPORT_INTERVAL, TimeUnit.SECONDS);
+        migrationSender = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "table-migration");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns whether or not a new connection would be admitted. New
+     * players cannot pass players already in the queue, so they are only
+     * seated straight away when the queue is empty.
+     *
+     * @return true if the connection would be given a seat or queued, false if the server is full
+     */
+
+    private boolean admitting() {
+        if (maxConnections != 0 && admittedPlayers >= maxConnections) {
+            return false;
+        }
+        return queue.size() < maxQueuedPlayers || (queue.isEmpty() && hasOpenSeat());
+    }
+
+    /**
+     * Reserves a seat for a new connection, creating a new table if every
+     * live table is full and the table limit allows it. When no seat can
+     * be had the connection joins the queue and the calling thread waits
+     * for a seat, sending the client its position and an estimate of the
+     * wait every few seconds. A connection is refused with SERVERFULL if
+     * the server is at its connection limit or the queue is full.
+     *
+     * @param connection Connection to the new player's client
+     * @return the table with a seat reserved for the player, null if the connection was refused or closed while queued
+     */
+
+    public Table reserveSeat(Transport connection) {
+        QueuedPlayer queuedPlayer;  // entry of the connection in the queue
+        synchronized (this) {
+            queuedPlayer = drainStart != 0 || !admitting() ? null : new QueuedPlayer(connection);
+            if (queuedPlayer != null) {
+                admittedPlayers++;
+                if (queue.isEmpty()) {
+                    Table table = openSeat();   // table with a seat reserved for the player
+                    if (table != null) {
+                        return table;
+                    }
+                }
+                queue.add(queuedPlayer);
+                metrics.playerQueued();
+            }
+        }
+        if (queuedPlayer == null) {
+            metrics.admissionRefused();
+            connection.send(SERVER_FULL);
+            return null;
+        }
+        return awaitSeat(queuedPlayer);
+    }
+
+    /**
+     * Reserves a seat at a table a client chose from the directory. The
+     * client is sent TABLEFULL if the table has no open seat, or if
+     * players are waiting in the queue, who are seated first. It is sent
+     * SERVERFULL if the server is at its connection limit or draining.
+     *
+     * @param connection Connection to the new player's client
+     * @param tableId Id of the chosen table
+     * @return the table with a seat reserved for the player, null if no seat was reserved
+     */
+
+    public Table reserveSeatAt(Transport connection, int tableId) {
+        synchronized (this) {
+            if (drainStart == 0 && (maxConnections == 0 || admittedPlayers < maxConnections)) {
+                Table table = table(tableId);   // table the client chose, null if it is not live
+                if (table != null && queue.isEmpty() && table.reserveSeat()) {
+                    admittedPlayers++;
+                    return table;
+                }
+                connection.send("SERVERMESSAGE--TABLEFULL--" + tableId);
+                return null;
+            }
+        }
+        metrics.admissionRefused();
+        connection.send(SERVER_FULL);
+        return null;
+    }
+
+    /**
+     * Waits for a queued player to be given a seat, sending the client
+     * its position in the queue until then. Queued players are sent away
+     * with SERVERFULL if the lobby starts draining. Queued clients are not
+     * read from, so a client that has gone is noticed when an update to it
+     * cannot be written, and its place in the queue is given up at once.
+     *
+     * @param queuedPlayer Entry of the player in the queue
+     * @return the table with a seat reserved for the player, null if the connection closed or was sent away while queued
+     */
+
+    private Table awaitSeat(QueuedPlayer queuedPlayer) {
+        while (true) {
+            String update;  // position update to send to the client, null if the player is leaving the queue
+            synchronized (this) {
+                if (queuedPlayer.table != null) {
+                    return queuedPlayer.table;
+                }
+                if (queuedPlayer.connection.isClosed() || drainStart != 0) {
+                    queue.remove(queuedPlayer);
+                    admittedPlayers--;
+                    update = null;
+                } else {
+                    int position = queue.indexOf(queuedPlayer) + 1;    // position of the player in the queue
+                    update = "SERVERMESSAGE--QUEUED--" + position + "--" + (handoffInterval == 0 ? -1 : Math.round(position * handoffInterval / 1e9));
+                }
+            }
+            if (update == null) {
+                if (drainStart != 0) {
+                    queuedPlayer.connection.send(SERVER_FULL);
+                }
+                return null;
+            }
+            queuedPlayer.connection.send(update);
+            if (queuedPlayer.connection.isClosed()) {
+                continue;
+            }
+            try {
+                queuedPlayer.seated.await(QUEUE_UPDATE_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Log.error("Interrupted waiting for a seat", e);
+                try {
+                    queuedPlayer.connection.close();
+                } catch (IOException closeException) {
+                    Log.error("Could not close connection", closeException);
+                }
+            }
+        }
+    }
+
+    /**
+     * Places a player into the seat reserved for them. A table is started
+     * as soon as its last seat is taken.
+     *
+     * @param player Player to seat
+     * @param table Table with a seat reserved for the player
+     */
+
+    public void seat(Player player, Table table) {
+        waitingPlayers.incrementAndGet();
+        player.joinTable(table);
+        table.addPlayer(player);
+        if (table.openSeats() == 0) {
+            table.start();
+        }
+    }
+
+    /**
+     * Records that a player seated or queued by reserveSeat has left the server.
+     */
+
+    public synchronized void playerLeft() {
+        admittedPlayers--;
+    }
+
+    /**
+     * Gives freed seats to the players at the front of the queue. Called
+     * whenever a seat is freed or a table closes.
+     */
+
+    public synchronized void seatFreed() {
+        while (!queue.isEmpty()) {
+            Table table = openSeat();   // table with a seat reserved for the next queued player
+            if (table == null) {
+                return;
+            }
+            QueuedPlayer queuedPlayer = queue.remove(0);    // player at the front of the queue
+            long now = System.nanoTime();                   // time the seat was given in nanoseconds
+            if (lastHandoff != 0) {
+                handoffInterval = handoffInterval == 0 ? now - lastHandoff : handoffInterval + HANDOFF_SMOOTHING * (now - lastHandoff - handoffInterval);
+            }
+            lastHandoff = now;
+            queuedPlayer.table = table;
+            queuedPlayer.seated.countDown();
+        }
+    }
+
+    /**
+     * Reserves an open seat, creating a new table if every live table is
+     * full and the table limit allows it. New tables are given their house
+     * bots before the seat is reserved and start after the table start
+     * wait unless they fill first.
+     *
+     * @return the table with the reserved seat, null if no seat can be had
+     */
+
+    private Table openSeat() {
+        if (drainStart != 0) {
+            return null;
+        }
+        Table chosenTable = null;   // table chosen for the player
+        for (Table table : tables) {
+            if (table.openSeats() > 0 && (chosenTable == null || betterTable(table, chosenTable))) {
+                chosenTable = table;
+            }
+        }
+        if (chosenTable != null && chosenTable.reserveSeat()) {
+            return chosenTable;
+        }
+        if (maxTables != 0 && tables.size() >= maxTables) {
+            return null;
+        }
+        chosenTable = newTable(houseBots, false);
+        chosenTable.reserveSeat();
+        chosenTable.shard().schedule(chosenTable::start, tableStartWait);
+        return chosenTable;
+    }
+
+    /**
+     * Returns whether or not a seat is open at a live table or a new table can be created.
+     *
+     * @return true if a seat can be had, false if not
+     */
+
+    private boolean hasOpenSeat() {
+        if (maxTables == 0 || tables.size() < maxTables) {
+            return true;
+        }
+        for (Table table : tables) {
+            if (table.openSeats() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Opens tables where every seat is taken by a house bot that never
+     * leaves. The tables play rounds back to back without waiting on any
+     * client, which makes them a cheap soak test of the round loop.
+     *
+     * @param numTables Number of tables to open
+     */
+
+    public synchronized void openBotTables(int numTables) {
+        for (int i = 0; i < numTables && (maxTables == 0 || tables.size() < maxTables); i++) {
+            newTable(playersPerTable, true).start();
+        }
+    }
+
+    /**
+     * Creates a live table with house bots in some of its seats.
+     *
+     * @param bots Number of seats to fill with house bots
+     * @param stayWithoutPlayers True if the bots keep playing once no players are at the table, false if they leave
+     * @return the new table
+     */
+
+    private Table newTable(int bots, boolean stayWithoutPlayers) {
+        Table table = new Table(nextTableId.getAndIncrement(), playersPerTable, minimumBet, numberOfDecks, minimumCardsBeforeShuffle, this, scheduler, handHistoryRecorder, wallet, checkpointStore);  // new table
+        for (int i = 0; i < bots; i++) {
+            BotSeat bot = new BotSeat(botStartingMoney, botBetUnits, stayWithoutPlayers);   // house bot to seat
+            table.reserveSeat();
+            bot.joinTable(table);
+            table.addPlayer(bot);
+        }
+        tables.add(table);
+        liveTables = tables.toArray(new Table[0]);
+        directory.tableOpened(table);
+        return table;
+    }
+
+    /**
+     * Returns whether or not a table is a better choice than another under the seating policy.
+     *
+     * @param table Table to compare
+     * @param otherTable Table currently chosen
+     * @return true if table is the better choice, false if not
+     */
+
+    private boolean betterTable(Table table, Table otherTable) {
+        if (seatingPolicy == SeatingPolicy.FILL_FIRST) {
+            return table.openSeats() < otherTable.openSeats();
+        }
+        return table.openSeats() > otherTable.openSeats();
+    }
+
+    /**
+     * Records that a waiting player has been dealt into their first round.
+     * House bots never wait in the lobby, so they are not counted.
+     *
+     * @param player Player or bot that was seated
+     */
+
+    public void playerSeated(Seat player) {
+        if (player.isBot()) {
+            return;
+        }
+        long latency = System.nanoTime() - player.arrivalTime();    // nanoseconds between connecting and being dealt in
+        waitingPlayers.decrementAndGet();
+        seatedPlayers.incrementAndGet();
+        totalAssignmentLatency.addAndGet(latency);
+        maximumAssignmentLatency.accumulateAndGet(latency, Math::max);
+    }
+
+    /**
+     * Removes a table that has closed from the lobby.
+     *
+     * @param table Table to remove
+     */
+
+    public synchronized void tableClosed(Table table) {
+        tables.remove(table);
+        liveTables = tables.toArray(new Table[0]);
+        directory.tableClosed(table);
+        if (drainStart != 0) {
+            long drainTime = System.nanoTime() - drainStart;   // nanoseconds the table took to close after the drain started
+            drainTimes.record(drainTime);
+            Log.info("Table {} drained in {} ms", table.id(), drainTime / 1000000);
+            if (tables.isEmpty()) {
+                notifyAll();
+            }
+        }
+        seatFreed();
+    }
+
+    /**
+     * Starts draining the lobby. New and queued players are sent away,
+     * no more tables are opened and every live table is asked to finish
+     * its round and then either close or move to another server.
+     *
+     * @param migrationTarget Admin address of the server to move the tables to as host:adminPort, null if they close
+     */
+
+    public synchronized void drain(String migrationTarget) {
+        if (drainStart != 0) {
+            return;
+        }
+        drainStart = System.nanoTime();
+        if (migrationTarget != null) {
+            Log.info("Moving {} tables to {}", tables.size(), migrationTarget);
+        }
+        Log.info("Draining {} tables and {} queued players", tables.size(), queue.size());
+        for (QueuedPlayer queuedPlayer : queue) {
+            queuedPlayer.seated.countDown();
+        }
+        for (Table table : tables) {
+            if (migrationTarget != null) {
+                table.migrate(migrationTarget);
+            } else {
+                table.drain();
+            }
+        }
+    }
+
+    /**
+     * Returns the threads that send moving tables to the server they move
+     * to, so that tables never wait on the network on their shards.
+     *
+     * @return the threads that send moving tables
+     */
+
+    public ExecutorService migrationSender() {
+        return migrationSender;
+    }
+
+    /**
+     * Records that a table was sent to another server before it closed here.
+     *
+     * @param table Table that moved
+     * @param numSeats Number of players and bots that moved with the table
+     * @param address Address players connect to on the new server
+     * @param nanos Nanoseconds taken to encode the table and have the new server seat everyone
+     */
+
+    public void tableMigrated(Table table, int numSeats, String address, long nanos) {
+        migrationTimes.record(nanos);
+        Log.info("Table " + table.id() + " moved " + numSeats + " seats to " + address + " in " + String.format("%.2f", nanos / 1e6) + " ms");
+    }
+
+    /**
+     * Opens a table that moved here from another server, reserving a
+     * seat for everyone who moved with it. The caller seats them in
+     * their old order and starts the table. Moving tables do not count
+     * against the table limit, since their players are already playing.
+     *
+     * @param migration State of the moving table
+     * @return the new table, null if the lobby is draining
+     */
+
+    public synchronized Table adoptTable(TableMigration migration) {
+        if (drainStart != 0) {
+            return null;
+        }
+        Table table = new Table(nextTableId.getAndIncrement(), migration.seats(), migration.minimumBet(), migration.numberOfDecks(), migration.minimumCardsBeforeShuffle(), this, scheduler, handHistoryRecorder, wallet, checkpointStore);  // table carrying on the moving table
+        table.restore(migration.shoe(), migration.roundNumber());
+        for (TableMigration.MigratedSeat migratedSeat : migration.migratedSeats()) {
+            table.reserveSeat();
+            if (!migratedSeat.isBot()) {
+                admittedPlayers++;
+            }
+        }
+        tables.add(table);
+        liveTables = tables.toArray(new Table[0]);
+        directory.tableOpened(table);
+        return table;
+    }
+
+    /**
+     * Returns whether or not the lobby has started draining.
+     *
+     * @return true if the lobby is draining, false if not
+     */
+
+    public boolean draining() {
+        return drainStart != 0;
+    }
+
+    /**
+     * Waits for every table to close after the lobby started draining.
+     *
+     * @param timeout Most milliseconds to wait
+     * @return true if every table has closed, false if some were still open when the time ran out
+     */
+
+    public synchronized boolean awaitDrained(long timeout) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);    // time to stop waiting in nanoseconds
+        while (!tables.isEmpty()) {
+            long remaining = deadline - System.nanoTime();     // nanoseconds left to wait
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                Log.error("Interrupted waiting for tables to drain", e);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a summary of how long the tables took to close after the lobby started draining.
+     *
+     * @return the summary of the drain
+     */
+
+    public synchronized String drainReport() {
+        StringBuilder report = new StringBuilder("Drain: " + drainTimes.count() + " tables closed in " + (System.nanoTime() - drainStart) / 1000000 + " ms, per table " + drainTimes.summary());   // summary of the drain
+        if (migrationTimes.count() > 0) {
+            report.append("\nMigration: ").append(migrationTimes.count()).append(" tables moved, pause per table ").append(migrationTimes.summary());
+        }
+        for (Table table : tables) {
+            report.append("\nTable ").append(table.id()).append(" still open with ").append(table.snapshot().numHumans()).append(" players");
+        }
+        return report.toString();
+    }
+
+    /**
+     * Returns the live table with the given id.
+     *
+     * @param id Id of the table
+     * @return the table with the given id, null if there is no such live table
+     */
+
+    public Table table(int id) {
+        for (Table table : liveTables) {
+            if (table.id() == id) {
+                return table;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of live tables.
+     *
+     * @return the number of live tables
+     */
+
+    public int numTables() {
+        return liveTables.length;
+    }
+
+    /**
+     * Returns the latest snapshot of every live table. Takes no lock, so
+     * it never waits on the lobby or on any table.
+     *
+     * @return the snapshots of the live tables
+     */
+
+    public ArrayList<TableSnapshot> tableSnapshots() {
+        Table[] current = liveTables;   // live tables when called
+        ArrayList<TableSnapshot> snapshots = new ArrayList<>(current.length);  // snapshots of the live tables
+        for (Table table : current) {
+            snapshots.add(table.snapshot());
+        }
+        return snapshots;
+    }
+
+    /**
+     * Returns the number of players waiting to be dealt into a round.
+     *
+     * @return the number of players waiting to be dealt into a round
+     */
+
+    public int queueLength() {
+        return waitingPlayers.get();
+    }
+
+    /**
+     * Returns the number of players waiting in the queue for a seat.
+     *
+     * @return the number of queued players
+     */
+
+    public synchronized int numQueued() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the average time between a player connecting and being dealt into a round.
+     *
+     * @return the average assignment latency in milliseconds
+     */
+
+    public double averageAssignmentLatency() {
+        long seated = seatedPlayers.get();  // number of players seated so far
+        return seated == 0 ? 0 : totalAssignmentLatency.get() / (double) seated / 1e6;
+    }
+
+    /**
+     * Returns the longest time between a player connecting and being dealt into a round.
+     *
+     * @return the maximum assignment latency in milliseconds
+     */
+
+    public double maximumAssignmentLatency() {
+        return maximumAssignmentLatency.get() / 1e6;
+    }
+
+    /**
+     * Returns the latency histograms of the rounds at every table.
+     *
+     * @return the latency histograms of the rounds at every table
+     */
+
+    public RoundTimings timings() {
+        return timings;
+    }
+
+    /**
+     * Returns the listing of the live tables that clients browse.
+     *
+     * @return the table directory
+     */
+
+    public TableDirectory directory() {
+        return directory;
+    }
+
+    /**
+     * Returns the counters of server activity.
+     *
+     * @return the counters of server activity
+     */
+
+    public ServerMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns a summary of a table's round latency percentiles.
+     *
+     * @param id Id of the table
+     * @return the summary of the table's round latencies, null if there is no such table
+     */
+
+    public String tableReport(int id) {
+        Table table = table(id);    // table to summarize
+        return table == null ? null : "Table " + id + ":" + table.timings().report();
+    }
+
+    /**
+     * Returns a summary of the lobby state.
+     *
+     * @return the summary of the lobby state
+     */
+
+    public String report() {
+        return "Lobby: " + numTables() + " tables, " + numQueued() + " queued, " + queueLength() + " waiting, " + seatedPlayers.get() + " seated, assignment latency avg " + String.format("%.1f", averageAssignmentLatency()) + " ms, max " + String.format("%.1f", maximumAssignmentLatency()) + " ms" + (checkpointStore == null ? "" : ", " + checkpointStore.checkpointsWritten() + " checkpoints avg " + String.format("%.2f", checkpointStore.averageCheckpointTime()) + " us") + timings.report() + scheduler.report();
+    }
+}
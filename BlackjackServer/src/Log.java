@@ -0,0 +1,286 @@
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Log writes server log records without making the logging thread wait.
+ * Records are copied into a preallocated ring of fixed-layout slots and a
+ * single background thread formats and writes them. If the ring is full,
+ * because the output is slow or a burst of failures is being logged, the
+ * record is dropped and counted instead of blocking the caller.
+ *
+ * @author Jordan Segalman
+ */
+
+public class Log implements Runnable {
+    private static final int CAPACITY = 8192;                               // number of slots in the ring, a power of two
+    private static final long IDLE_PARK = TimeUnit.MILLISECONDS.toNanos(1); // nanoseconds the writer parks when the ring is empty
+    private static final long SHUTDOWN_FLUSH_TIMEOUT = TimeUnit.SECONDS.toNanos(1);   // nanoseconds to wait for the ring to drain on exit
+    private static final Log LOG = new Log();                               // the server log
+    private Record[] ring = new Record[CAPACITY];                           // preallocated slots holding records
+    private AtomicLong claimed = new AtomicLong();                          // number of slots claimed by logging threads
+    private AtomicLong dropped = new AtomicLong();                          // number of records dropped because the ring was full
+    private volatile long consumed;                                         // number of records taken out of the ring by the writer
+    private volatile long written;                                          // number of records written and flushed
+    private PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);   // out to standard output for info records
+    private PrintStream err = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.err), 1 << 16), false);   // out to standard error for warnings and errors
+
+    /**
+     * Levels of log records.
+     */
+
+    public enum Level {
+        INFO, WARN, ERROR
+    }
+
+    /**
+     * Record objects are the fixed-layout slots of the ring. The message
+     * is formatted from its pattern and arguments on the writer thread.
+     */
+
+    private static class Record {
+        private volatile long sequence = -1;    // sequence number of the record in the slot, -1 until one is published
+        private long time;                      // time the record was logged in milliseconds since the epoch
+        private Level level;                    // level of the record
+        private String thread;                  // name of the thread that logged the record
+        private String pattern;                 // message with {} where each argument goes
+        private Object argument1;               // first argument of the message
+        private Object argument2;               // second argument of the message
+        private Throwable error;                // error logged with the record, null if there is none
+    }
+
+    /**
+     * Constructor for Log object. Starts the writer thread and drains
+     * the ring when the server exits.
+     */
+
+    private Log() {
+        for (int i = 0; i < CAPACITY; i++) {
+            ring[i] = new Record();
+        }
+        Thread writerThread = new Thread(this, "log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(SHUTDOWN_FLUSH_TIMEOUT), "log-flush"));
+    }
+
+    /**
+     * Logs an informational message.
+     *
+     * @param message Message to log
+     */
+
+    public static void info(String message) {
+        LOG.append(Level.INFO, message, null, null, null);
+    }
+
+    /**
+     * Logs an informational message with one argument.
+     *
+     * @param pattern Message with {} where the argument goes
+     * @param argument Argument of the message
+     */
+
+    public static void info(String pattern, Object argument) {
+        LOG.append(Level.INFO, pattern, argument, null, null);
+    }
+
+    /**
+     * Logs an informational message with two arguments.
+     *
+     * @param pattern Message with {} where each argument goes
+     * @param argument1 First argument of the message
+     * @param argument2 Second argument of the message
+     */
+
+    public static void info(String pattern, Object argument1, Object argument2) {
+        LOG.append(Level.INFO, pattern, argument1, argument2, null);
+    }
+
+    /**
+     * Logs a warning with one argument.
+     *
+     * @param pattern Message with {} where the argument goes
+     * @param argument Argument of the message
+     */
+
+    public static void warn(String pattern, Object argument) {
+        LOG.append(Level.WARN, pattern, argument, null, null);
+    }
+
+    /**
+     * Logs an error.
+     *
+     * @param message Message to log
+     */
+
+    public static void error(String message) {
+        LOG.append(Level.ERROR, message, null, null, null);
+    }
+
+    /**
+     * Logs an error with one argument.
+     *
+     * @param pattern Message with {} where the argument goes
+     * @param argument Argument of the message
+     */
+
+    public static void error(String pattern, Object argument) {
+        LOG.append(Level.ERROR, pattern, argument, null, null);
+    }
+
+    /**
+     * Logs an error with the exception that caused it.
+     *
+     * @param message Message to log
+     * @param error Exception that caused the error
+     */
+
+    public static void error(String message, Throwable error) {
+        LOG.append(Level.ERROR, message, null, null, error);
+    }
+
+    /**
+     * Logs an error with one argument and the exception that caused it.
+     *
+     * @param pattern Message with {} where the argument goes
+     * @param argument Argument of the message
+     * @param error Exception that caused the error
+     */
+
+    public static void error(String pattern, Object argument, Throwable error) {
+        LOG.append(Level.ERROR, pattern, argument, null, error);
+    }
+
+    /**
+     * Waits until every record logged so far has been written. Used
+     * before exiting so that the last records are not lost.
+     */
+
+    public static void flush() {
+        LOG.flush(Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns the number of records dropped because the ring was full.
+     *
+     * @return the number of records dropped
+     */
+
+    public static long droppedRecords() {
+        return LOG.dropped.get();
+    }
+
+    /**
+     * Writer thread run method. Formats and writes published records in
+     * order, flushing the output whenever the ring runs empty.
+     */
+
+    @Override
+    public void run() {
+        long next = 0;              // sequence number of the next record to write
+        long reportedDrops = 0;     // number of dropped records already reported
+        while (true) {
+            Record record = ring[(int) (next & (CAPACITY - 1))];   // slot of the next record
+            if (record.sequence != next) {
+                long drops = dropped.get();     // number of records dropped so far
+                if (drops != reportedDrops) {
+                    err.println(Instant.ofEpochMilli(System.currentTimeMillis()) + " WARN [log-writer] Dropped " + (drops - reportedDrops) + " log records because the log fell behind");
+                    reportedDrops = drops;
+                }
+                out.flush();
+                err.flush();
+                written = next;
+                LockSupport.parkNanos(IDLE_PARK);
+                continue;
+            }
+            PrintStream stream = record.level == Level.INFO ? out : err;  // stream the record is written to
+            stream.print(Instant.ofEpochMilli(record.time));
+            stream.print(' ');
+            stream.print(record.level);
+            stream.print(" [");
+            stream.print(record.thread);
+            stream.print("] ");
+            stream.println(format(record.pattern, record.argument1, record.argument2));
+            if (record.error != null) {
+                record.error.printStackTrace(stream);
+            }
+            record.argument1 = null;
+            record.argument2 = null;
+            record.error = null;
+            consumed = ++next;
+        }
+    }
+
+    /**
+     * Copies a record into the next free slot of the ring, or drops it if the ring is full.
+     *
+     * @param level Level of the record
+     * @param pattern Message with {} where each argument goes
+     * @param argument1 First argument of the message
+     * @param argument2 Second argument of the message
+     * @param error Exception logged with the record, null if there is none
+     */
+
+    private void append(Level level, String pattern, Object argument1, Object argument2, Throwable error) {
+        long sequence;  // sequence number claimed for the record
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed >= CAPACITY) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        Record record = ring[(int) (sequence & (CAPACITY - 1))];   // slot claimed for the record
+        record.time = System.currentTimeMillis();
+        record.level = level;
+        record.thread = Thread.currentThread().getName();
+        record.pattern = pattern;
+        record.argument1 = argument1;
+        record.argument2 = argument2;
+        record.error = error;
+        record.sequence = sequence;
+    }
+
+    /**
+     * Waits until every record claimed so far has been written and flushed.
+     *
+     * @param timeout Longest time to wait in nanoseconds
+     */
+
+    private void flush(long timeout) {
+        long target = claimed.get();                // number of records to wait for
+        long deadline = System.nanoTime() + timeout;    // time to stop waiting in nanoseconds
+        while (written < target && deadline - System.nanoTime() > 0) {
+            LockSupport.parkNanos(IDLE_PARK);
+        }
+    }
+
+    /**
+     * Replaces each {} in a pattern with the next argument.
+     *
+     * @param pattern Message with {} where each argument goes
+     * @param argument1 First argument of the message
+     * @param argument2 Second argument of the message
+     * @return the formatted message
+     */
+
+    private static String format(String pattern, Object argument1, Object argument2) {
+        int first = pattern.indexOf("{}");  // position of the first argument
+        if (first < 0) {
+            return pattern;
+        }
+        StringBuilder message = new StringBuilder(pattern.length() + 32);   // formatted message
+        message.append(pattern, 0, first).append(argument1);
+        int second = pattern.indexOf("{}", first + 2);  // position of the second argument
+        if (second < 0) {
+            return message.append(pattern, first + 2, pattern.length()).toString();
+        }
+        return message.append(pattern, first + 2, second).append(argument2).append(pattern, second + 2, pattern.length()).toString();
+    }
+}
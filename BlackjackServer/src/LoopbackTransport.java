@@ -0,0 +1,98 @@
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * LoopbackTransport objects are the two ends of an in-memory connection.
+ * Each end hands whole lines to the other through a queue, so a complete
+ * protocol session can run inside one JVM without sockets, encoding or
+ * framing. Closing either end ends the stream for both of them.
+ *
+ * @author Jordan Segalman
+ */
+
+public class LoopbackTransport implements Transport {
+    private static final String END_OF_STREAM = new String("END_OF_STREAM");  // marker queued when the connection closes, compared by identity
+    private LinkedBlockingQueue<String> inbox = new LinkedBlockingQueue<>();    // lines sent to this end that have not been read
+    private LoopbackTransport peer;                                         // other end of the connection
+    private volatile boolean closed = false;                                // true once this end has been closed, false if not
+
+    /**
+     * Constructor for LoopbackTransport object. Ends are only created in
+     * connected pairs.
+     */
+
+    private LoopbackTransport() {
+    }
+
+    /**
+     * Creates a connected pair of ends.
+     *
+     * @return the two ends of a new connection, the first for the server and the second for the client
+     */
+
+    public static LoopbackTransport[] pair() {
+        LoopbackTransport serverEnd = new LoopbackTransport();   // end used by the player
+        LoopbackTransport clientEnd = new LoopbackTransport();   // end used by the client
+        serverEnd.peer = clientEnd;
+        clientEnd.peer = serverEnd;
+        return new LoopbackTransport[] {serverEnd, clientEnd};
+    }
+
+    /**
+     * Takes the next line sent to this end, blocking until one arrives.
+     *
+     * @return the line, null if either end has closed the connection or the reading thread was interrupted
+     */
+
+    @Override
+    public String readLine() {
+        String line;    // next line sent to this end
+        try {
+            line = inbox.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (line == END_OF_STREAM) {
+            inbox.offer(END_OF_STREAM);
+            return null;
+        }
+        return line;
+    }
+
+    /**
+     * Queues a line for the other end.
+     *
+     * @param message Line to send, without its terminator
+     */
+
+    @Override
+    public void send(String message) {
+        if (!closed && !peer.closed) {
+            peer.inbox.offer(message);
+        }
+    }
+
+    /**
+     * Closes the connection, waking a read blocked on either end.
+     */
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            inbox.offer(END_OF_STREAM);
+            peer.inbox.offer(END_OF_STREAM);
+        }
+    }
+
+    /**
+     * Returns whether or not this end has been closed.
+     *
+     * @return true if this end has been closed, false if not
+     */
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+}
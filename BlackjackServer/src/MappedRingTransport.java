@@ -0,0 +1,297 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * MappedRingTransport objects carry protocol lines between the server and
+ * an agent process on the same host through a memory-mapped file. The
+ * file holds two single-producer, single-consumer rings, one in each
+ * direction, so a line is handed over by copying it into shared memory
+ * and publishing the ring's tail, without a system call.
+ *
+ * An agent connects by creating a ring file under a temporary name and
+ * renaming it into the server's ring directory with a .ring extension,
+ * so the server never maps a file that is still being set up. The agent
+ * side is opened with connect and the server side with accept. Each
+ * line is a record of a four byte length followed by its bytes, padded
+ * so that the next length is aligned and never wraps around the ring.
+ *
+ * @author Jordan Segalman
+ */
+
+public class MappedRingTransport implements Transport {
+    public static final String EXTENSION = ".ring";                         // extension of ring files the server accepts
+    private static final int MAGIC = 0x424A5231;                            // marks a file as a ring file
+    private static final int DEFAULT_CAPACITY = 64 * 1024;                  // bytes of line records each ring holds
+    private static final int CACHE_LINE = 64;                               // bytes kept between counters written by different processes
+    private static final int CAPACITY_OFFSET = 4;                           // offset of the ring capacity in the file
+    private static final int SERVER_CLOSED_OFFSET = CACHE_LINE;             // offset of the flag set once the server closes
+    private static final int AGENT_CLOSED_OFFSET = CACHE_LINE * 2;          // offset of the flag set once the agent closes
+    private static final int RINGS_OFFSET = CACHE_LINE * 3;                 // offset of the first ring
+    private static final int TAIL_OFFSET = 0;                               // offset of a ring's tail, written by its producer
+    private static final int HEAD_OFFSET = CACHE_LINE;                      // offset of a ring's head, written by its consumer
+    private static final int DATA_OFFSET = CACHE_LINE * 2;                  // offset of a ring's records
+    private static final int LENGTH_BYTES = 4;                              // bytes in the length before each record
+    private static final int SPINS_BEFORE_YIELDING = Runtime.getRuntime().availableProcessors() > 1 ? 100 : 0;    // empty polls a parking reader or writer spins before yielding, none on a single core where the peer cannot run meanwhile
+    private static final int SPINS_BEFORE_PARKING = 200;                    // empty polls a parking reader or writer makes before parking
+    private static final long PARK_TIME = TimeUnit.MICROSECONDS.toNanos(50);    // nanoseconds a parking reader or writer parks between polls
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());   // ordered access to ring counters
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());     // ordered access to closed flags
+    private MappedByteBuffer buffer;                                        // mapped ring file
+    private Path file;                                                      // ring file
+    private boolean server;                                                 // true if this is the server side, false if it is the agent side
+    private int capacity;                                                   // bytes of line records each ring holds, a power of two
+    private int inbound;                                                    // offset of the ring read by this side
+    private int outbound;                                                   // offset of the ring written by this side
+    private WaitStrategy waitStrategy;                                      // how this side waits on an empty or full ring
+    private int maximumLength;                                              // most bytes allowed in a line read by this side
+    private byte[] line;                                                    // holds the line being read
+
+    /**
+     * Ways a side can wait for its peer. Spinning gives the lowest
+     * latency when both sides have a core to themselves. Parking spins
+     * briefly, then yields its core to the peer, then parks.
+     */
+
+    public enum WaitStrategy {
+        SPIN, PARK
+    }
+
+    /**
+     * Constructor for MappedRingTransport object.
+     *
+     * @param buffer Mapped ring file
+     * @param file Ring file
+     * @param server True if this is the server side, false if it is the agent side
+     * @param waitStrategy How this side waits on an empty or full ring
+     * @param maximumLength Most bytes allowed in a line read by this side
+     */
+
+    private MappedRingTransport(MappedByteBuffer buffer, Path file, boolean server, WaitStrategy waitStrategy, int maximumLength) {
+        this.buffer = buffer;
+        this.file = file;
+        this.server = server;
+        this.waitStrategy = waitStrategy;
+        this.maximumLength = maximumLength;
+        capacity = buffer.getInt(CAPACITY_OFFSET);
+        int ringSize = DATA_OFFSET + capacity;  // bytes in each ring
+        inbound = RINGS_OFFSET + (server ? ringSize : 0);
+        outbound = RINGS_OFFSET + (server ? 0 : ringSize);
+        line = new byte[maximumLength + 1];
+    }
+
+    /**
+     * Connects an agent to a server through a new ring file in the server's ring directory.
+     *
+     * @param directory Ring directory the server watches
+     * @param waitStrategy How the agent waits on an empty or full ring
+     * @param maximumLength Most bytes allowed in a line from the server
+     * @return the agent side of the connection
+     * @throws IOException if the ring file cannot be created
+     */
+
+    public static MappedRingTransport connect(Path directory, WaitStrategy waitStrategy, int maximumLength) throws IOException {
+        String name = UUID.randomUUID().toString();             // name of the ring file
+        Path temporaryFile = directory.resolve("." + name + ".tmp");    // ring file while it is being set up
+        Path file = directory.resolve(name + EXTENSION);        // ring file once the server can accept it
+        MappedByteBuffer buffer = map(temporaryFile, RINGS_OFFSET + (DATA_OFFSET + DEFAULT_CAPACITY) * 2);  // mapped ring file
+        buffer.putInt(CAPACITY_OFFSET, DEFAULT_CAPACITY);
+        buffer.putInt(0, MAGIC);
+        buffer.force();
+        Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE);
+        return new MappedRingTransport(buffer, file, false, waitStrategy, maximumLength);
+    }
+
+    /**
+     * Accepts an agent's ring file on the server.
+     *
+     * @param file Ring file the agent created
+     * @param waitStrategy How the server waits on an empty or full ring
+     * @param maximumLength Most bytes allowed in a line from the agent
+     * @return the server side of the connection
+     * @throws IOException if the file cannot be mapped or is not a ring file
+     */
+
+    public static MappedRingTransport accept(Path file, WaitStrategy waitStrategy, int maximumLength) throws IOException {
+        MappedByteBuffer buffer = map(file, 0);     // mapped ring file
+        int capacity = buffer.capacity() < RINGS_OFFSET ? 0 : buffer.getInt(CAPACITY_OFFSET);  // bytes of line records each ring holds
+        if (buffer.getInt(0) != MAGIC || Integer.bitCount(capacity) != 1 || buffer.capacity() != RINGS_OFFSET + (DATA_OFFSET + capacity) * 2) {
+            throw new IOException("Not a ring file: " + file);
+        }
+        return new MappedRingTransport(buffer, file, true, waitStrategy, maximumLength);
+    }
+
+    /**
+     * Maps a ring file into memory.
+     *
+     * @param file Ring file
+     * @param size Bytes to size a new file to, 0 to map an existing file as it is
+     * @return the mapped file
+     * @throws IOException if the file cannot be mapped
+     */
+
+    private static MappedByteBuffer map(Path file, int size) throws IOException {
+        try (FileChannel channel = size == 0 ? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE) : FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size == 0 ? channel.size() : size);
+        }
+    }
+
+    /**
+     * Reads the next line the peer sent, waiting until one arrives.
+     *
+     * @return the line, null if either side has closed the connection and every line sent before has been read
+     * @throws LineDecoder.FrameException if the line is too long or holds a byte that is not printable ASCII
+     */
+
+    @Override
+    public String readLine() throws LineDecoder.FrameException {
+        long head = (long) LONGS.getOpaque(buffer, inbound + HEAD_OFFSET);  // position of the next record to read
+        int polls = 0;  // empty polls since the wait started
+        while ((long) LONGS.getAcquire(buffer, inbound + TAIL_OFFSET) == head) {
+            if (isClosed() || peerClosed()) {
+                if ((long) LONGS.getAcquire(buffer, inbound + TAIL_OFFSET) == head) {
+                    return null;
+                }
+                break;
+            }
+            polls = idle(polls);
+        }
+        int length = buffer.getInt(inbound + DATA_OFFSET + (int) (head & (capacity - 1)));  // bytes in the line
+        if (length > maximumLength || length < 0) {
+            throw new LineDecoder.FrameException("Line is longer than " + maximumLength + " bytes", true);
+        }
+        copy(inbound, head + LENGTH_BYTES, line, length, false);
+        LONGS.setRelease(buffer, inbound + HEAD_OFFSET, head + recordSize(length));
+        for (int i = 0; i < length; i++) {
+            if ((line[i] < 0x20 || line[i] > 0x7E) && line[i] != '\t') {
+                throw new LineDecoder.FrameException("Line holds byte " + (line[i] & 0xFF), false);
+            }
+        }
+        return new String(line, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Sends a line to the peer, waiting for room in the ring. Lines are
+     * dropped once either side has closed the connection.
+     *
+     * @param message Line to send
+     */
+
+    @Override
+    public void send(String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.US_ASCII);    // bytes of the line
+        if (recordSize(bytes.length) > capacity) {
+            return;
+        }
+        long tail = (long) LONGS.getOpaque(buffer, outbound + TAIL_OFFSET);    // position to write the record at
+        int polls = 0;  // full polls since the wait started
+        while (tail + recordSize(bytes.length) - (long) LONGS.getAcquire(buffer, outbound + HEAD_OFFSET) > capacity) {
+            if (isClosed() || peerClosed()) {
+                return;
+            }
+            polls = idle(polls);
+        }
+        buffer.putInt(outbound + DATA_OFFSET + (int) (tail & (capacity - 1)), bytes.length);
+        copy(outbound, tail + LENGTH_BYTES, bytes, bytes.length, true);
+        LONGS.setRelease(buffer, outbound + TAIL_OFFSET, tail + recordSize(bytes.length));
+    }
+
+    /**
+     * Closes this side of the connection, which ends the stream for both
+     * sides. The server removes the ring file once it closes.
+     *
+     * @throws IOException if the ring file cannot be removed
+     */
+
+    @Override
+    public void close() throws IOException {
+        INTS.setRelease(buffer, server ? SERVER_CLOSED_OFFSET : AGENT_CLOSED_OFFSET, 1);
+        if (server) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Returns whether or not this side has closed the connection.
+     *
+     * @return true if this side has closed, false if not
+     */
+
+    @Override
+    public boolean isClosed() {
+        return (int) INTS.getAcquire(buffer, server ? SERVER_CLOSED_OFFSET : AGENT_CLOSED_OFFSET) == 1;
+    }
+
+    /**
+     * Returns whether or not the peer has closed the connection.
+     *
+     * @return true if the peer has closed, false if not
+     */
+
+    private boolean peerClosed() {
+        return (int) INTS.getAcquire(buffer, server ? AGENT_CLOSED_OFFSET : SERVER_CLOSED_OFFSET) == 1;
+    }
+
+    /**
+     * Waits a moment for the peer using the wait strategy.
+     *
+     * @param polls Empty or full polls since the wait started
+     * @return the number of polls including this one
+     */
+
+    private int idle(int polls) {
+        if (waitStrategy == WaitStrategy.SPIN || polls < SPINS_BEFORE_YIELDING) {
+            Thread.onSpinWait();
+        } else if (polls < SPINS_BEFORE_PARKING) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_TIME);
+        }
+        return polls + 1;
+    }
+
+    /**
+     * Copies bytes between an array and a ring, wrapping around the end of the ring.
+     *
+     * @param ring Offset of the ring
+     * @param position Position in the ring to copy at
+     * @param bytes Array to copy to or from
+     * @param length Number of bytes to copy
+     * @param toRing True to copy from the array into the ring, false to copy from the ring into the array
+     */
+
+    private void copy(int ring, long position, byte[] bytes, int length, boolean toRing) {
+        int start = (int) (position & (capacity - 1));  // index in the ring's records to start at
+        int firstPart = Math.min(length, capacity - start);   // bytes before the end of the ring
+        int index = ring + DATA_OFFSET + start;         // index in the file to start at
+        if (toRing) {
+            buffer.put(index, bytes, 0, firstPart);
+            buffer.put(ring + DATA_OFFSET, bytes, firstPart, length - firstPart);
+        } else {
+            buffer.get(index, bytes, 0, firstPart);
+            buffer.get(ring + DATA_OFFSET, bytes, firstPart, length - firstPart);
+        }
+    }
+
+    /**
+     * Returns the bytes a line takes up in a ring.
+     *
+     * @param length Bytes in the line
+     * @return the bytes of the line's record including its length and padding
+     */
+
+    private static int recordSize(int length) {
+        return LENGTH_BYTES + ((length + LENGTH_BYTES - 1) & -LENGTH_BYTES);
+    }
+}
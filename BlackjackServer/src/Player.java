@@ -1,10 +1,8 @@
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
 import java.util.ArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Player objects represent a player in Blackjack.
@@ -12,21 +10,17 @@ import java.util.concurrent.CountDownLatch;
  * @author Jordan Segalman
  */
 
-public class Player implements Runnable {
+public class Player implements Runnable, Seat {
     private static final int MAXIMUM_SCORE = 21;                            // maximum score before bust
-    private static final int MINIMUM_DOUBLE_DOWN_SCORE = 9;                 // minimum score player can double down on
-    private static final int MAXIMUM_DOUBLE_DOWN_SCORE = 11;                // maximum score player can double down on
-    private static final int MINIMUM_DOUBLE_DOWN_SOFT_SCORE = 19;           // minimum soft score player can double down on
-    private static final int MAXIMUM_DOUBLE_DOWN_SOFT_SCORE = 21;           // maximum soft score player can double down on
     private static final double BLACKJACK_PAYOUT_MULTIPLIER = 3.0 / 2.0;    // payout multiplier when player has Blackjack
     private Table table;                                                    // table to join
-    private BufferedReader in;                                              // in to client
-    private PrintWriter out;                                                // out from client
+    private Transport connection;                                           // connection to client, guarded by this while the player waits on a latch
     private ArrayList<BlackjackHand> playerHands = new ArrayList<>();       // holds player hands
     private BlackjackHand originalPlayerHand;                               // player hand to hold cards
     private double money;                                                   // money available to bet
     private boolean hasBlackjack = false;                                   // true if player has Blackjack, false if does not
     private String choice;                                                  // choice player made
+    private long choiceTime;                                                // time the player took to make their last choice in nanoseconds
     private boolean receivedChoice = false;                                 // true if player made a choice, false if did not
     private double insuranceBet;                                            // amount of insurance bet
     private boolean placedInsuranceBet = false;                             // true if insurance bet made, false if not
@@ -34,26 +28,85 @@ public class Player implements Runnable {
     private CountDownLatch betLatch;                                        // latch to wait for all players to place their bets
     private CountDownLatch insuranceBetLatch;                               // latch to wait for all players to place their insurance bets
     private CountDownLatch dealLatch;                                       // latch to wait for all players to be dealt cards
+    private CountDownLatch turnLatch;                                       // latch to wait for the player's turn
     private CountDownLatch dealerTurnLatch;                                 // latch to wait for dealer to finish turn
     private boolean continuePlaying = false;                                // true if player wants to keep playing, false if does not
+    private boolean disconnected = false;                                   // true if the player's connection has closed, false if not
+    private boolean kicked = false;                                         // true if the player was disconnected for misbehaving and cannot resume, false if not
+    private long arrivalTime;                                               // time the player connected in nanoseconds
+    private int seat;                                                       // seat number of the player at the table
+    private WalletStore wallet;                                             // store that keeps player balances, null if balances are not kept
+    private long account = -1;                                              // id of the player's wallet account, -1 if balances are not kept
+    private long walletTicket;                                              // ticket of the player's latest balance change
+    private RateLimiter.Client limits;                                      // rate limits of the player's connection, null if messages are not limited
+    private SessionRegistry sessions;                                       // registry the player's session can be resumed from
+    private String sessionToken;                                            // token the player resumes their session with
+    private long gracePeriod;                                               // nanoseconds a due choice waits for the player to reconnect
+    private long connectionLostTime;                                        // time the player's connection was found closed in nanoseconds
+    private String lastPrompt;                                              // last message asking the player for a choice
+    private boolean dealtIn = false;                                        // true if the player has been sent this round's cards, false if not
+    private boolean dealerRevealed = false;                                 // true if the player has been sent the dealer's hole card, false if not
+    private boolean waiting = false;                                        // true while the player waits on a latch, guarded by this
+    private boolean finished = false;                                       // true once the player's session can no longer be resumed, guarded by this
+    private volatile boolean drained = false;                               // true once the table has closed for a drain before the next round, false if not
+    private volatile String migrationAddress;                               // address of the server the table moved to as host:port, null if it has not moved
+    private Transport resumedConnection;                                    // connection the player reconnected on that is not in use yet, guarded by this
+    private RateLimiter.Client resumedLimits;                               // rate limits of the connection the player reconnected on, guarded by this
 
     /**
      * Constructor for Player object.
      *
-     * @param socket Socket from server socket
-     * @param table Table the player joined
+     * @param connection Connection to the client
+     * @param wallet Store that keeps player balances, null if balances are not kept
+     * @param money Amount of money the player starts with
+     * @param limits Rate limits of the player's connection, null if messages are not limited
+     * @param sessions Registry the player's session can be resumed from
+     * @param gracePeriod Nanoseconds a due choice waits for the player to reconnect
      */
 
-    public Player(Socket socket, Table table, int money) {
-        this.table = table;
+    public Player(Transport connection, WalletStore wallet, int money, RateLimiter.Client limits, SessionRegistry sessions, long gracePeriod) {
+        this.wallet = wallet;
+        this.sessions = sessions;
+        this.gracePeriod = gracePeriod;
         this.money = money;
-        try {
-            InputStreamReader isr = new InputStreamReader(socket.getInputStream());     // input stream reader from socket
-            in = new BufferedReader(isr);
-            out = new PrintWriter(socket.getOutputStream(), true);
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (wallet != null) {
+            account = wallet.openAccount(money);
         }
+        arrivalTime = System.nanoTime();
+        resetLatches();
+        useConnection(connection, limits);
+    }
+
+    /**
+     * Constructor for Player object that moved here with their table
+     * from another server. The player starts out disconnected, holding
+     * their seat for the grace period until the router resumes their
+     * session with the token they already have.
+     *
+     * @param sessionToken Token the player resumes their session with
+     * @param wallet Store that keeps player balances, null if balances are not kept
+     * @param money Amount of money the player has
+     * @param sessions Registry the player's session can be resumed from
+     * @param gracePeriod Nanoseconds a due choice waits for the player to reconnect
+     */
+
+    public Player(String sessionToken, WalletStore wallet, double money, SessionRegistry sessions, long gracePeriod) {
+        this.wallet = wallet;
+        this.sessions = sessions;
+        this.gracePeriod = gracePeriod;
+        this.money = money;
+        if (wallet != null) {
+            account = wallet.openAccount(money);
+        }
+        arrivalTime = System.nanoTime();
+        resetLatches();
+        LoopbackTransport closedConnection = LoopbackTransport.pair()[0];  // connection that drops every line until the player resumes
+        closedConnection.close();
+        useConnection(closedConnection, null);
+        disconnected = true;
+        connectionLostTime = arrivalTime;
+        this.sessionToken = sessionToken;
+        sessions.adopt(sessionToken, this);
     }
 
     /**
@@ -62,11 +115,33 @@ public class Player implements Runnable {
 
     @Override
     public void run() {
-        out.println("SERVERMESSAGE--WELCOME");
+        if (sessionToken == null) {
+            sessionToken = sessions.open(this);
+            send("SERVERMESSAGE--WELCOME--" + sessionToken);
+        }
         do {
             playBlackjack();
         } while (continuePlaying);
-        out.println("SERVERMESSAGE--GAMEOVER--" + String.format("%.2f", money));
+        synchronized (this) {
+            finished = true;
+        }
+        sessions.close(sessionToken);
+        if (migrationAddress != null) {
+            if (wallet != null) {
+                wallet.record(account, 0, WalletStore.Type.MIGRATE, -money, 0);
+                walletTicket = wallet.closeAccount(account, 0);
+                wallet.awaitDurable(walletTicket);
+            }
+            send("SERVERMESSAGE--MIGRATE--" + migrationAddress + "--" + sessionToken);
+            closeConnection();
+        } else {
+            if (wallet != null) {
+                walletTicket = wallet.closeAccount(account, money);
+                wallet.awaitDurable(walletTicket);
+            }
+            send("SERVERMESSAGE--GAMEOVER--" + String.format("%.2f", money));
+        }
+        table.metrics().connectionClosed();
     }
 
     /**
@@ -75,28 +150,18 @@ public class Player implements Runnable {
 
     private void playBlackjack() {
         setupPlayer();
-        try {
-            startLatch.await();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        await(startLatch, "start");
+        if (drained || migrationAddress != null) {
+            return;
         }
         getBet();
-        try {
-            betLatch.await();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-        try {
-            dealLatch.await();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+        await(betLatch, "bet");
+        await(dealLatch, "deal");
         sendRoundInformation();
-        try {
-            dealerTurnLatch.await();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+        await(turnLatch, "turn");
+        takeTurn(originalPlayerHand);
+        table.playerTurnLatchCountDown();
+        await(dealerTurnLatch, "dealer turn");
         sendDealerCards();
         for (BlackjackHand hand : playerHands) {
             sendResult(hand);
@@ -116,12 +181,23 @@ public class Player implements Runnable {
         receivedChoice = false;
         placedInsuranceBet = false;
         continuePlaying = false;
+        dealtIn = false;
+        dealerRevealed = false;
+        send("SERVERMESSAGE--WAITING--WELCOME");
+    }
+
+    /**
+     * Creates the latches for the next round. This is done before the
+     * table can start the round so that no count down is missed.
+     */
+
+    private void resetLatches() {
         startLatch = new CountDownLatch(1);
         betLatch = new CountDownLatch(1);
         insuranceBetLatch = new CountDownLatch(1);
         dealLatch = new CountDownLatch(1);
+        turnLatch = new CountDownLatch(1);
         dealerTurnLatch = new CountDownLatch(1);
-        out.println("SERVERMESSAGE--WAITING--WELCOME");
     }
 
     /**
@@ -132,8 +208,8 @@ public class Player implements Runnable {
         receivedChoice = false;
         do {
             boolean betNotNumeric = false;  // true if bet is not a positive integer, false if it is
-            out.println("SERVERMESSAGE--GETBET--" + String.format("%.2f", money) + "--" + String.format("%.2f", table.minimumBet()));
-            getChoice();
+            prompt("SERVERMESSAGE--GETBET--" + String.format("%.2f", money) + "--" + String.format("%.2f", table.minimumBet()));
+            getChoice("0");
             try {
                 int bet = Integer.parseInt(choice);
                 originalPlayerHand.placeBet(bet);
@@ -141,21 +217,24 @@ public class Player implements Runnable {
                 betNotNumeric = true;
             }
             if (betNotNumeric) {
-                out.println("SERVERMESSAGE--BETRESPONSE--INVALID");
+                send("SERVERMESSAGE--BETRESPONSE--INVALID");
                 receivedChoice = false;
             } else if (originalPlayerHand.bet() > money) {
-                out.println("SERVERMESSAGE--BETRESPONSE--TOOMUCH");
+                send("SERVERMESSAGE--BETRESPONSE--TOOMUCH");
                 receivedChoice = false;
-            } else if (originalPlayerHand.bet() < table.minimumBet()) {
-                out.println("SERVERMESSAGE--BETRESPONSE--MINIMUM");
+            } else if (originalPlayerHand.bet() < table.minimumBet() && !disconnected) {
+                send("SERVERMESSAGE--BETRESPONSE--MINIMUM");
                 receivedChoice = false;
             }
         } while (!receivedChoice);
         money -= originalPlayerHand.bet();
+        recordBalance(WalletStore.Type.BET, -originalPlayerHand.bet());
+        table.publish("TABLEMESSAGE--BET--" + seat + "--" + String.format("%.2f", originalPlayerHand.bet()));
+        table.handHistory().bet(seat, originalPlayerHand.bet());
         table.placedBetsLatchCountDown();
-        out.println("SERVERMESSAGE--BETRESPONSE--SUCCESS--" + String.format("%.2f", money));
+        send("SERVERMESSAGE--BETRESPONSE--SUCCESS--" + String.format("%.2f", money));
         if (table.numPlayers() > 1) {
-            out.println("SERVERMESSAGE--WAITING--BET");
+            send("SERVERMESSAGE--WAITING--BET");
         }
     }
 
@@ -166,53 +245,52 @@ public class Player implements Runnable {
      */
 
     private void sendRoundInformation() {
-        out.println("SERVERMESSAGE--NEWROUND--" + String.format("%.2f", money));
-        out.println("SERVERMESSAGE--NEWHAND--0");
+        dealtIn = true;
+        send("SERVERMESSAGE--NEWROUND--" + String.format("%.2f", money));
+        send("SERVERMESSAGE--NEWHAND--0");
         for (int i = 0; i < originalPlayerHand.size(); i++) {
-            out.println("SERVERMESSAGE--NEWPLAYERCARD--0--" + originalPlayerHand.getCard(i));
+            send("SERVERMESSAGE--NEWPLAYERCARD--0--" + originalPlayerHand.getCard(i));
         }
-        out.println("SERVERMESSAGE--HANDVALUE--0--" + originalPlayerHand.blackjackValue());
-        out.println("SERVERMESSAGE--HANDBET--0--" + String.format("%.2f", originalPlayerHand.bet()));
+        send("SERVERMESSAGE--HANDVALUE--0--" + originalPlayerHand.blackjackValue());
+        send("SERVERMESSAGE--HANDBET--0--" + String.format("%.2f", originalPlayerHand.bet()));
         if (originalPlayerHand.blackjackValue() == MAXIMUM_SCORE) {
-            out.println("SERVERMESSAGE--BLACKJACK--PLAYER");
+            send("SERVERMESSAGE--BLACKJACK--PLAYER");
             hasBlackjack = true;
         }
-        out.println("SERVERMESSAGE--NEWDEALERCARD--" + table.dealerShownCard());
-        out.println("SERVERMESSAGE--NEWDEALERCARD--back");
+        send("SERVERMESSAGE--NEWDEALERCARD--" + table.dealerShownCard());
+        send("SERVERMESSAGE--NEWDEALERCARD--back");
         if (table.dealerShownCard().rank() == Card.Rank.ACE) {
             getInsuranceBet();
         }
         table.placedInsuranceBetsLatchCountDown();
-        try {
-            insuranceBetLatch.await();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+        await(insuranceBetLatch, "insurance bet");
         if (originalPlayerHand.blackjackValue() == MAXIMUM_SCORE && table.dealerHand().blackjackValue() == MAXIMUM_SCORE) {
-            out.println("SERVERMESSAGE--BLACKJACK--PLAYERANDDEALER");
+            send("SERVERMESSAGE--BLACKJACK--PLAYERANDDEALER");
             hasBlackjack = true;
             if (placedInsuranceBet) {
                 money += (insuranceBet + (insuranceBet * 2));
-                out.println("SERVERMESSAGE--INSURANCEBETWON--" + String.format("%.2f", insuranceBet * 2) + "--" + String.format("%.2f", money));
+                recordBalance(WalletStore.Type.INSURANCE_PAYOUT, insuranceBet + (insuranceBet * 2));
+                send("SERVERMESSAGE--INSURANCEBETWON--" + String.format("%.2f", insuranceBet * 2) + "--" + String.format("%.2f", money));
             }
         } else if (table.dealerHand().blackjackValue() == MAXIMUM_SCORE) {
-            out.println("SERVERMESSAGE--BLACKJACK--DEALER");
+            send("SERVERMESSAGE--BLACKJACK--DEALER");
             if (placedInsuranceBet) {
                 money += (insuranceBet + (insuranceBet * 2));
-                out.println("SERVERMESSAGE--INSURANCEBETWON--" + String.format("%.2f", insuranceBet * 2) + "--" + String.format("%.2f", money));
+                recordBalance(WalletStore.Type.INSURANCE_PAYOUT, insuranceBet + (insuranceBet * 2));
+                send("SERVERMESSAGE--INSURANCEBETWON--" + String.format("%.2f", insuranceBet * 2) + "--" + String.format("%.2f", money));
             }
         } else if (table.dealerShownCard().rank() == Card.Rank.ACE && table.dealerHand().blackjackValue() != MAXIMUM_SCORE){
-            out.println("SERVERMESSAGE--BLACKJACK--DEALERNOBLACKJACK");
+            send("SERVERMESSAGE--BLACKJACK--DEALERNOBLACKJACK");
             if (placedInsuranceBet) {
-                out.println("SERVERMESSAGE--INSURANCEBETLOST");
+                send("SERVERMESSAGE--INSURANCEBETLOST");
             }
         }
         if (table.dealerShownCard().rank() == Card.Rank.ACE) {
-            out.println("SERVERMESSAGE--INSURANCEBETDONE");
+            send("SERVERMESSAGE--INSURANCEBETDONE");
         }
         table.turnLatchCountDown();
         if (table.numPlayers() > 1) {
-            out.println("SERVERMESSAGE--WAITING--TURN");
+            send("SERVERMESSAGE--WAITING--TURN");
         }
     }
 
@@ -224,26 +302,29 @@ public class Player implements Runnable {
         if (money >= originalPlayerHand.bet() / 2) {
             receivedChoice = false;
             do {
-                out.println("SERVERMESSAGE--GETINSURANCEBET");
-                getChoice();
+                prompt("SERVERMESSAGE--GETINSURANCEBET");
+                getChoice("No");
                 if (!choice.equals("Yes") && !choice.equals("No")) {
-                    out.println("SERVERMESSAGE--INSURANCEBETRESPONSE--ERROR");
+                    send("SERVERMESSAGE--INSURANCEBETRESPONSE--ERROR");
                     receivedChoice = false;
                 }
             } while (!receivedChoice);
+            announceDecision(-1);
             if (choice.equals("Yes")) {
                 insuranceBet = originalPlayerHand.bet() / 2;
                 money -= insuranceBet;
+                recordBalance(WalletStore.Type.INSURANCE_BET, -insuranceBet);
+                table.handHistory().insuranceBet(seat, insuranceBet);
                 placedInsuranceBet = true;
-                out.println("SERVERMESSAGE--INSURANCEBETRESPONSE--PLACED--" + String.format("%.2f", insuranceBet) + "--" + String.format("%.2f", money));
+                send("SERVERMESSAGE--INSURANCEBETRESPONSE--PLACED--" + String.format("%.2f", insuranceBet) + "--" + String.format("%.2f", money));
             } else if (choice.equals("No")) {
-                out.println("SERVERMESSAGE--INSURANCEBETRESPONSE--NOTPLACED");
+                send("SERVERMESSAGE--INSURANCEBETRESPONSE--NOTPLACED");
             }
         } else {
-            out.println("SERVERMESSAGE--CANNOTINSURANCEBET");
+            send("SERVERMESSAGE--CANNOTINSURANCEBET");
         }
         if (table.numPlayers() > 1) {
-            out.println("SERVERMESSAGE--WAITING--INSURANCEBET");
+            send("SERVERMESSAGE--WAITING--INSURANCEBET");
         }
     }
 
@@ -254,26 +335,29 @@ public class Player implements Runnable {
      * @param hand Hand to play
      */
 
-    void takeTurn(BlackjackHand hand) {
+    private void takeTurn(BlackjackHand hand) {
         if (hand == originalPlayerHand) {
-            out.println("SERVERMESSAGE--TAKETURN");
+            send("SERVERMESSAGE--TAKETURN");
             if (hasBlackjack && table.dealerHasBlackjack()) {
-                out.println("SERVERMESSAGE--TURNBLACKJACK--PLAYERANDDEALER");
+                send("SERVERMESSAGE--TURNBLACKJACK--PLAYERANDDEALER");
             } else if (hasBlackjack && !table.dealerHasBlackjack()) {
-                out.println("SERVERMESSAGE--TURNBLACKJACK--PLAYER");
+                send("SERVERMESSAGE--TURNBLACKJACK--PLAYER");
             } else if (!hasBlackjack && table.dealerHasBlackjack()) {
-                out.println("SERVERMESSAGE--TURNBLACKJACK--DEALER");
+                send("SERVERMESSAGE--TURNBLACKJACK--DEALER");
             }
         }
-        if (!hasBlackjack && !table.dealerHasBlackjack() && hand.getCard(0).rank() == hand.getCard(1).rank() && ((hand.blackjackValue() >= MINIMUM_DOUBLE_DOWN_SCORE && hand.blackjackValue() <= MAXIMUM_DOUBLE_DOWN_SCORE) || (hand.isSoft() && hand.blackjackValue() >= MINIMUM_DOUBLE_DOWN_SOFT_SCORE && hand.blackjackValue() <= MAXIMUM_DOUBLE_DOWN_SOFT_SCORE)) && money >= hand.bet()) {
+        if (!hasBlackjack && !table.dealerHasBlackjack() && hand.isPair() && hand.doubleDownScore() && money >= hand.bet()) {
             bothOptions(hand);
-        } else if (!hasBlackjack && !table.dealerHasBlackjack() && !hand.doubleDown() && hand.getCard(0).rank() == hand.getCard(1).rank() && money >= hand.bet()) {
+        } else if (!hasBlackjack && !table.dealerHasBlackjack() && !hand.doubleDown() && hand.isPair() && money >= hand.bet()) {
             splitPairsOption(hand);
-        } else if (!hasBlackjack && !table.dealerHasBlackjack() && !hand.splitPairs() && ((hand.blackjackValue() >= MINIMUM_DOUBLE_DOWN_SCORE && hand.blackjackValue() <= MAXIMUM_DOUBLE_DOWN_SCORE) || (hand.isSoft() && hand.blackjackValue() >= MINIMUM_DOUBLE_DOWN_SOFT_SCORE && hand.blackjackValue() <= MAXIMUM_DOUBLE_DOWN_SOFT_SCORE)) && money >= hand.bet()) {
+        } else if (!hasBlackjack && !table.dealerHasBlackjack() && !hand.splitPairs() && hand.doubleDownScore() && money >= hand.bet()) {
             doubleDownOption(hand);
         } else if (!hasBlackjack && !table.dealerHasBlackjack() && !hand.splitPairs() && !hand.doubleDown()) {
             neitherOption(hand);
         }
+        if (!hasBlackjack && !table.dealerHasBlackjack()) {
+            announceDecision(playerHands.indexOf(hand));
+        }
         switch (choice) {
             case "Split Pairs":
                 splitPairs(hand);
@@ -287,7 +371,7 @@ public class Player implements Runnable {
                 break;
         }
         if (table.numPlayers() > 1 && !hasBlackjack && !table.dealerHasBlackjack() && hand == playerHands.get(playerHands.size() - 1)) {
-            out.println("SERVERMESSAGE--WAITING--TURN");
+            send("SERVERMESSAGE--WAITING--TURN");
         }
     }
 
@@ -300,11 +384,11 @@ public class Player implements Runnable {
     private void bothOptions(BlackjackHand hand) {
         receivedChoice = false;
         do {
-            out.println("SERVERMESSAGE--HANDVALUE--" + playerHands.indexOf(hand) + "--" + hand.blackjackValue());
-            out.println("SERVERMESSAGE--TURNOPTION--BOTH--" + playerHands.indexOf(hand));
-            getChoice();
+            send("SERVERMESSAGE--HANDVALUE--" + playerHands.indexOf(hand) + "--" + hand.blackjackValue());
+            prompt("SERVERMESSAGE--TURNOPTION--BOTH--" + playerHands.indexOf(hand));
+            getChoice("Stand");
             if (!choice.equals("Hit") && !choice.equals("Stand") && !choice.equals("Split Pairs") && !choice.equals("Double Down")) {
-                out.println("SERVERMESSAGE--TURNOPTIONERROR--" + playerHands.indexOf(hand));
+                send("SERVERMESSAGE--TURNOPTIONERROR--" + playerHands.indexOf(hand));
                 receivedChoice = false;
             }
         } while (!receivedChoice);
@@ -319,11 +403,11 @@ public class Player implements Runnable {
     private void splitPairsOption(BlackjackHand hand) {
         receivedChoice = false;
         do {
-            out.println("SERVERMESSAGE--HANDVALUE--" + playerHands.indexOf(hand) + "--" + hand.blackjackValue());
-            out.println("SERVERMESSAGE--TURNOPTION--SPLITPAIRS--" + playerHands.indexOf(hand));
-            getChoice();
+            send("SERVERMESSAGE--HANDVALUE--" + playerHands.indexOf(hand) + "--" + hand.blackjackValue());
+            prompt("SERVERMESSAGE--TURNOPTION--SPLITPAIRS--" + playerHands.indexOf(hand));
+            getChoice("Stand");
             if (!choice.equals("Hit") && !choice.equals("Stand") && !choice.equals("Split Pairs")) {
-                out.println("SERVERMESSAGE--TURNOPTIONERROR--" + playerHands.indexOf(hand));
+                send("SERVERMESSAGE--TURNOPTIONERROR--" + playerHands.indexOf(hand));
                 receivedChoice = false;
             }
         } while (!receivedChoice);
@@ -338,11 +422,11 @@ public class Player implements Runnable {
     private void doubleDownOption(BlackjackHand hand) {
         receivedChoice = false;
         do {
-            out.println("SERVERMESSAGE--HANDVALUE--" + playerHands.indexOf(hand) + "--" + hand.blackjackValue());
-            out.println("SERVERMESSAGE--TURNOPTION--DOUBLEDOWN--" + playerHands.indexOf(hand));
-            getChoice();
+            send("SERVERMESSAGE--HANDVALUE--" + playerHands.indexOf(hand) + "--" + hand.blackjackValue());
+            prompt("SERVERMESSAGE--TURNOPTION--DOUBLEDOWN--" + playerHands.indexOf(hand));
+            getChoice("Stand");
             if (!choice.equals("Hit") && !choice.equals("Stand") && !choice.equals("Double Down")) {
-                out.println("SERVERMESSAGE--TURNOPTIONERROR--" + playerHands.indexOf(hand));
+                send("SERVERMESSAGE--TURNOPTIONERROR--" + playerHands.indexOf(hand));
                 receivedChoice = false;
             }
         } while (!receivedChoice);
@@ -357,11 +441,11 @@ public class Player implements Runnable {
     private void neitherOption(BlackjackHand hand) {
         receivedChoice = false;
         do {
-            out.println("SERVERMESSAGE--HANDVALUE--" + playerHands.indexOf(hand) + "--" + hand.blackjackValue());
-            out.println("SERVERMESSAGE--TURNOPTION--NEITHER--" + playerHands.indexOf(hand));
-            getChoice();
+            send("SERVERMESSAGE--HANDVALUE--" + playerHands.indexOf(hand) + "--" + hand.blackjackValue());
+            prompt("SERVERMESSAGE--TURNOPTION--NEITHER--" + playerHands.indexOf(hand));
+            getChoice("Stand");
             if (!choice.equals("Hit") && !choice.equals("Stand")) {
-                out.println("SERVERMESSAGE--TURNOPTIONERROR--" + playerHands.indexOf(hand));
+                send("SERVERMESSAGE--TURNOPTIONERROR--" + playerHands.indexOf(hand));
                 receivedChoice = false;
             }
         } while (!receivedChoice);
@@ -376,44 +460,50 @@ public class Player implements Runnable {
     private void splitPairs(BlackjackHand hand) {
         hand.setSplitPairs();
         money -= hand.bet();
-        out.println("SERVERMESSAGE--SPLITPAIRSRESPONSE--SUCCESS--" + String.format("%.2f", money));
+        recordBalance(WalletStore.Type.SPLIT_PAIRS, -hand.bet());
+        send("SERVERMESSAGE--SPLITPAIRSRESPONSE--SUCCESS--" + String.format("%.2f", money));
         BlackjackHand firstHand = new BlackjackHand();
         BlackjackHand secondHand = new BlackjackHand();
-        out.println("SERVERMESSAGE--REMOVEHAND--" + playerHands.indexOf(hand));
+        send("SERVERMESSAGE--REMOVEHAND--" + playerHands.indexOf(hand));
         playerHands.add(playerHands.indexOf(hand), secondHand);
-        out.println("SERVERMESSAGE--NEWHAND--" + playerHands.indexOf(secondHand));
+        send("SERVERMESSAGE--NEWHAND--" + playerHands.indexOf(secondHand));
         playerHands.add(playerHands.indexOf(secondHand), firstHand);
-        out.println("SERVERMESSAGE--NEWHAND--" + playerHands.indexOf(firstHand));
+        send("SERVERMESSAGE--NEWHAND--" + playerHands.indexOf(firstHand));
         playerHands.remove(hand);
         firstHand.addCard(hand.getCard(0));
-        out.println("SERVERMESSAGE--NEWPLAYERCARD--" + playerHands.indexOf(firstHand) + "--" + firstHand.getCard(0));
+        send("SERVERMESSAGE--NEWPLAYERCARD--" + playerHands.indexOf(firstHand) + "--" + firstHand.getCard(0));
         secondHand.addCard(hand.getCard(1));
-        out.println("SERVERMESSAGE--NEWPLAYERCARD--" + playerHands.indexOf(secondHand) + "--" + secondHand.getCard(0));
+        send("SERVERMESSAGE--NEWPLAYERCARD--" + playerHands.indexOf(secondHand) + "--" + secondHand.getCard(0));
         firstHand.placeBet(hand.bet());
-        out.println("SERVERMESSAGE--HANDBET--" + playerHands.indexOf(firstHand) + "--" + String.format("%.2f", firstHand.bet()));
+        send("SERVERMESSAGE--HANDBET--" + playerHands.indexOf(firstHand) + "--" + String.format("%.2f", firstHand.bet()));
         secondHand.placeBet(hand.bet());
-        out.println("SERVERMESSAGE--HANDBET--" + playerHands.indexOf(secondHand) + "--" + String.format("%.2f", secondHand.bet()));
+        send("SERVERMESSAGE--HANDBET--" + playerHands.indexOf(secondHand) + "--" + String.format("%.2f", secondHand.bet()));
+        table.publish("TABLEMESSAGE--SPLIT--" + seat + "--" + playerHands.indexOf(firstHand) + "--" + firstHand.getCard(0) + "--" + secondHand.getCard(0));
         if (firstHand.getCard(0).rank() == Card.Rank.ACE && secondHand.getCard(0).rank() == Card.Rank.ACE) {
             Card newCard = table.dealCard();
             firstHand.addCard(newCard);
-            out.println("SERVERMESSAGE--NEWPLAYERCARD--" + playerHands.indexOf(firstHand) + "--" + newCard);
-            out.println("SERVERMESSAGE--HANDVALUE--" + playerHands.indexOf(firstHand) + "--" + firstHand.blackjackValue());
+            send("SERVERMESSAGE--NEWPLAYERCARD--" + playerHands.indexOf(firstHand) + "--" + newCard);
+            announceCard(firstHand, newCard);
+            send("SERVERMESSAGE--HANDVALUE--" + playerHands.indexOf(firstHand) + "--" + firstHand.blackjackValue());
             newCard = table.dealCard();
             secondHand.addCard(newCard);
-            out.println("SERVERMESSAGE--NEWPLAYERCARD--" + playerHands.indexOf(secondHand) + "--" + newCard);
-            out.println("SERVERMESSAGE--HANDVALUE--" + playerHands.indexOf(secondHand) + "--" + secondHand.blackjackValue());
+            send("SERVERMESSAGE--NEWPLAYERCARD--" + playerHands.indexOf(secondHand) + "--" + newCard);
+            announceCard(secondHand, newCard);
+            send("SERVERMESSAGE--HANDVALUE--" + playerHands.indexOf(secondHand) + "--" + secondHand.blackjackValue());
             if (table.numPlayers() > 1 && secondHand == playerHands.get(playerHands.size() - 1)) {
-                out.println("SERVERMESSAGE--WAITING--TURN");
+                send("SERVERMESSAGE--WAITING--TURN");
             }
         } else {
             Card newCard = table.dealCard();
             firstHand.addCard(newCard);
-            out.println("SERVERMESSAGE--NEWPLAYERCARD--" + playerHands.indexOf(firstHand) + "--" + newCard);
-            out.println("SERVERMESSAGE--HANDVALUE--" + playerHands.indexOf(firstHand) + "--" + firstHand.blackjackValue());
+            send("SERVERMESSAGE--NEWPLAYERCARD--" + playerHands.indexOf(firstHand) + "--" + newCard);
+            announceCard(firstHand, newCard);
+            send("SERVERMESSAGE--HANDVALUE--" + playerHands.indexOf(firstHand) + "--" + firstHand.blackjackValue());
             newCard = table.dealCard();
             secondHand.addCard(newCard);
-            out.println("SERVERMESSAGE--NEWPLAYERCARD--" + playerHands.indexOf(secondHand) + "--" + newCard);
-            out.println("SERVERMESSAGE--HANDVALUE--" + playerHands.indexOf(secondHand) + "--" + secondHand.blackjackValue());
+            send("SERVERMESSAGE--NEWPLAYERCARD--" + playerHands.indexOf(secondHand) + "--" + newCard);
+            announceCard(secondHand, newCard);
+            send("SERVERMESSAGE--HANDVALUE--" + playerHands.indexOf(secondHand) + "--" + secondHand.blackjackValue());
             takeTurn(firstHand);
             takeTurn(secondHand);
         }
@@ -428,12 +518,15 @@ public class Player implements Runnable {
     private void doubleDown(BlackjackHand hand) {
         hand.setDoubleDown();
         money -= hand.bet();
+        recordBalance(WalletStore.Type.DOUBLE_DOWN, -hand.bet());
         hand.placeBet(hand.bet() * 2);
         Card newCard = table.dealCard();
         hand.addDoubleDownCard(newCard);
-        out.println("SERVERMESSAGE--HANDBET--" + playerHands.indexOf(hand) + "--" + String.format("%.2f", hand.bet()));
-        out.println("SERVERMESSAGE--NEWPLAYERCARD--" + playerHands.indexOf(hand) + "--back");
-        out.println("SERVERMESSAGE--DOUBLEDOWNRESPONSE--SUCCESS--" + playerHands.indexOf(hand) + "--" + String.format("%.2f", money));
+        send("SERVERMESSAGE--HANDBET--" + playerHands.indexOf(hand) + "--" + String.format("%.2f", hand.bet()));
+        send("SERVERMESSAGE--NEWPLAYERCARD--" + playerHands.indexOf(hand) + "--back");
+        table.publish("TABLEMESSAGE--PLAYERCARD--" + seat + "--" + playerHands.indexOf(hand) + "--back");
+        table.handHistory().playerCard(seat, playerHands.indexOf(hand), newCard);
+        send("SERVERMESSAGE--DOUBLEDOWNRESPONSE--SUCCESS--" + playerHands.indexOf(hand) + "--" + String.format("%.2f", money));
     }
 
     /**
@@ -446,19 +539,22 @@ public class Player implements Runnable {
         if (choice.equals("Hit")) {
             Card newCard = table.dealCard();
             hand.addCard(newCard);
-            out.println("SERVERMESSAGE--NEWPLAYERCARD--" + playerHands.indexOf(hand) + "--" + newCard);
+            send("SERVERMESSAGE--NEWPLAYERCARD--" + playerHands.indexOf(hand) + "--" + newCard);
+            announceCard(hand, newCard);
             while (choice.equals("Hit") && hand.blackjackValue() <= MAXIMUM_SCORE) {
                 neitherOption(hand);
+                announceDecision(playerHands.indexOf(hand));
                 if (choice.equals("Hit")) {
                     newCard = table.dealCard();
                     hand.addCard(newCard);
-                    out.println("SERVERMESSAGE--NEWPLAYERCARD--" + playerHands.indexOf(hand) + "--" + newCard);
+                    send("SERVERMESSAGE--NEWPLAYERCARD--" + playerHands.indexOf(hand) + "--" + newCard);
+                    announceCard(hand, newCard);
                 }
             }
         }
-        out.println("SERVERMESSAGE--HANDVALUE--" + playerHands.indexOf(hand) + "--" + hand.blackjackValue());
+        send("SERVERMESSAGE--HANDVALUE--" + playerHands.indexOf(hand) + "--" + hand.blackjackValue());
         if (hand.blackjackValue() > MAXIMUM_SCORE) {
-            out.println("SERVERMESSAGE--BUST--" + playerHands.indexOf(hand));
+            send("SERVERMESSAGE--BUST--" + playerHands.indexOf(hand));
         }
     }
 
@@ -467,12 +563,13 @@ public class Player implements Runnable {
      */
 
     private void sendDealerCards() {
-        out.println("SERVERMESSAGE--SENDRESULT");
-        out.println("SERVERMESSAGE--REMOVEDEALERFACEDOWNCARD");
+        dealerRevealed = true;
+        send("SERVERMESSAGE--SENDRESULT");
+        send("SERVERMESSAGE--REMOVEDEALERFACEDOWNCARD");
         for (int i = 1; i < table.dealerHand().size(); i++) {
-            out.println("SERVERMESSAGE--NEWDEALERCARD--" + table.dealerHand().getCard(i));
+            send("SERVERMESSAGE--NEWDEALERCARD--" + table.dealerHand().getCard(i));
         }
-        out.println("SERVERMESSAGE--DEALERHANDVALUE--" + table.dealerHand().blackjackValue());
+        send("SERVERMESSAGE--DEALERHANDVALUE--" + table.dealerHand().blackjackValue());
     }
 
     /**
@@ -484,42 +581,46 @@ public class Player implements Runnable {
      */
 
     private void sendResult(BlackjackHand hand) {
+        double moneyBeforeResult = money;   // money before the hand is settled
         if (hand.doubleDown()) {
-            out.println("SERVERMESSAGE--REMOVEDOUBLEDOWNFACEDOWNCARD--" + playerHands.indexOf(hand));
-            out.println("SERVERMESSAGE--NEWPLAYERCARD--" + playerHands.indexOf(hand) + "--" + hand.doubleDownCard());
+            send("SERVERMESSAGE--REMOVEDOUBLEDOWNFACEDOWNCARD--" + playerHands.indexOf(hand));
+            send("SERVERMESSAGE--NEWPLAYERCARD--" + playerHands.indexOf(hand) + "--" + hand.doubleDownCard());
         }
-        out.println("SERVERMESSAGE--HANDVALUE--" + playerHands.indexOf(hand) + "--" + hand.blackjackValue());
+        send("SERVERMESSAGE--HANDVALUE--" + playerHands.indexOf(hand) + "--" + hand.blackjackValue());
         if (!hasBlackjack && !table.dealerHasBlackjack()) {
             if (hand.blackjackValue() > MAXIMUM_SCORE && table.dealerHand().blackjackValue() > MAXIMUM_SCORE) {
                 money += hand.bet();
-                out.println("SERVERMESSAGE--ROUNDRESULT--BUST--TIE--" + playerHands.indexOf(hand) + "--" + String.format("%.2f", money));
+                send("SERVERMESSAGE--ROUNDRESULT--BUST--TIE--" + playerHands.indexOf(hand) + "--" + String.format("%.2f", money));
             } else if (hand.blackjackValue() > MAXIMUM_SCORE) {
-                out.println("SERVERMESSAGE--ROUNDRESULT--BUST--DEALER--" + playerHands.indexOf(hand) + "--" + String.format("%.2f", money));
+                send("SERVERMESSAGE--ROUNDRESULT--BUST--DEALER--" + playerHands.indexOf(hand) + "--" + String.format("%.2f", money));
             } else if (table.dealerHand().blackjackValue() > MAXIMUM_SCORE) {
                 money += hand.bet() * 2;
-                out.println("SERVERMESSAGE--ROUNDRESULT--BUST--PLAYER--" + playerHands.indexOf(hand) + "--" + String.format("%.2f", money));
+                send("SERVERMESSAGE--ROUNDRESULT--BUST--PLAYER--" + playerHands.indexOf(hand) + "--" + String.format("%.2f", money));
             } else {
                 if (hand.blackjackValue() == table.dealerHand().blackjackValue()) {
                     money += hand.bet();
-                    out.println("SERVERMESSAGE--ROUNDRESULT--NORMAL--TIE--" + playerHands.indexOf(hand) + "--" + String.format("%.2f", money));
+                    send("SERVERMESSAGE--ROUNDRESULT--NORMAL--TIE--" + playerHands.indexOf(hand) + "--" + String.format("%.2f", money));
                 } else if (hand.blackjackValue() < table.dealerHand().blackjackValue()) {
-                    out.println("SERVERMESSAGE--ROUNDRESULT--NORMAL--DEALER--" + playerHands.indexOf(hand) + "--" + String.format("%.2f", money));
+                    send("SERVERMESSAGE--ROUNDRESULT--NORMAL--DEALER--" + playerHands.indexOf(hand) + "--" + String.format("%.2f", money));
                 } else if (hand.blackjackValue() > table.dealerHand().blackjackValue()){
                     money += hand.bet() * 2;
-                    out.println("SERVERMESSAGE--ROUNDRESULT--NORMAL--PLAYER--" + playerHands.indexOf(hand) + "--" + String.format("%.2f", money));
+                    send("SERVERMESSAGE--ROUNDRESULT--NORMAL--PLAYER--" + playerHands.indexOf(hand) + "--" + String.format("%.2f", money));
                 }
             }
         } else {
             if (hasBlackjack && table.dealerHasBlackjack()) {
                 money += hand.bet();
-                out.println("SERVERMESSAGE--ROUNDRESULT--BLACKJACK--TIE--" + playerHands.indexOf(hand) + "--" + String.format("%.2f", money));
+                send("SERVERMESSAGE--ROUNDRESULT--BLACKJACK--TIE--" + playerHands.indexOf(hand) + "--" + String.format("%.2f", money));
             } else if (!hasBlackjack && table.dealerHasBlackjack()) {
-                out.println("SERVERMESSAGE--ROUNDRESULT--BLACKJACK--DEALER--" + playerHands.indexOf(hand) + "--" + String.format("%.2f", money));
+                send("SERVERMESSAGE--ROUNDRESULT--BLACKJACK--DEALER--" + playerHands.indexOf(hand) + "--" + String.format("%.2f", money));
             } else if (hasBlackjack && !table.dealerHasBlackjack()) {
                 money += (hand.bet() + (hand.bet() * (BLACKJACK_PAYOUT_MULTIPLIER)));
-                out.println("SERVERMESSAGE--ROUNDRESULT--BLACKJACK--PLAYER--" + playerHands.indexOf(hand) + "--" + String.format("%.2f", money));
+                send("SERVERMESSAGE--ROUNDRESULT--BLACKJACK--PLAYER--" + playerHands.indexOf(hand) + "--" + String.format("%.2f", money));
             }
         }
+        recordBalance(WalletStore.Type.SETTLEMENT, money - moneyBeforeResult);
+        table.handHistory().settlement(seat, playerHands.indexOf(hand), money - moneyBeforeResult, money);
+        table.publish("TABLEMESSAGE--RESULT--" + seat + "--" + playerHands.indexOf(hand) + "--" + hand.blackjackValue() + "--" + String.format("%.2f", money));
     }
 
     /**
@@ -527,19 +628,21 @@ public class Player implements Runnable {
      */
 
     private void getContinuePlaying() {
-        if (money >= table.minimumBet()) {
+        if (money >= table.minimumBet() && !table.draining()) {
             receivedChoice = false;
             do {
-                out.println("SERVERMESSAGE--GETCONTINUEPLAYING");
-                getChoice();
+                prompt("SERVERMESSAGE--GETCONTINUEPLAYING");
+                getChoice("No");
                 if (!choice.equals("Yes") && !choice.equals("No")) {
-                    out.println("SERVERMESSAGE--CONTINUEPLAYINGRESPONSE--ERROR");
+                    send("SERVERMESSAGE--CONTINUEPLAYINGRESPONSE--ERROR");
                     receivedChoice = false;
                 }
             } while (!receivedChoice);
+            announceDecision(-1);
             if (choice.equals("Yes")) {
                 continuePlaying = true;
-                out.println("SERVERMESSAGE--CONTINUEPLAYINGRESPONSE--CONTINUE");
+                resetLatches();
+                send("SERVERMESSAGE--CONTINUEPLAYINGRESPONSE--CONTINUE");
             } else {
                 table.removePlayer(this);
             }
@@ -550,70 +653,524 @@ public class Player implements Runnable {
     }
 
     /**
-     * Gets the player's choice.
+     * Tells spectators and the hand history that a card was dealt to a hand.
+     *
+     * @param hand Hand the card was dealt to
+     * @param card Card dealt
      */
 
-    private void getChoice() {
-        try {
-            while (!receivedChoice) {
-                String clientMessage;
-                if ((clientMessage = in.readLine()) != null) {
-                    choice = clientMessage;
+    private void announceCard(BlackjackHand hand, Card card) {
+        table.publish("TABLEMESSAGE--PLAYERCARD--" + seat + "--" + playerHands.indexOf(hand) + "--" + card);
+        table.handHistory().playerCard(seat, playerHands.indexOf(hand), card);
+    }
+
+    /**
+     * Tells spectators and the hand history about the choice the player made.
+     *
+     * @param handIndex Index of the hand the choice was for, -1 if the choice is not about a hand
+     */
+
+    private void announceDecision(int handIndex) {
+        table.publish("TABLEMESSAGE--DECISION--" + seat + "--" + handIndex + "--" + choice);
+        table.handHistory().decision(seat, handIndex, choice, choiceTime);
+        GameEvents.Decision decisionEvent = new GameEvents.Decision();  // flight recorder event for the decision
+        if (decisionEvent.shouldCommit()) {
+            decisionEvent.tableId = table.id();
+            decisionEvent.seat = seat;
+            decisionEvent.hand = handIndex;
+            decisionEvent.choice = choice;
+            decisionEvent.thinkTime = choiceTime;
+            decisionEvent.commit();
+        }
+    }
+
+    /**
+     * Records a change to the player's money in their wallet.
+     *
+     * @param type Kind of change
+     * @param amount Amount added to the player's money
+     */
+
+    private void recordBalance(WalletStore.Type type, double amount) {
+        if (wallet != null) {
+            walletTicket = wallet.record(account, table.roundId(), type, amount, money);
+        }
+    }
+
+    /**
+     * Gets the player's choice. If the player's connection has closed,
+     * the choice waits out the rest of the grace period for them to
+     * reconnect. Once the grace period is over, or if the player was
+     * disconnected for sending a line that is too long or malformed or
+     * for flooding, the given choice is made for them without reading so
+     * that the round can finish.
+     *
+     * @param disconnectedChoice Choice made for the player once they have disconnected
+     */
+
+    private void getChoice(String disconnectedChoice) {
+        long choiceStart = System.nanoTime();   // time the player was asked for a choice in nanoseconds
+        while (!receivedChoice) {
+            adoptResumedConnection(true);
+            if (disconnected) {
+                if (!awaitResume()) {
+                    choice = disconnectedChoice;
                     receivedChoice = true;
                 }
+                continue;
+            }
+            String clientMessage = null;    // line read from the client, null if the client disconnected
+            GameEvents.ChoiceRead readEvent = new GameEvents.ChoiceRead();  // flight recorder event spanning the read
+            readEvent.begin();
+            try {
+                clientMessage = connection.readLine();
+            } catch (LineDecoder.FrameException e) {
+                if (e.oversize()) {
+                    table.metrics().oversizeFrameRejected();
+                } else {
+                    table.metrics().malformedFrameRejected();
+                }
+                Log.warn("Disconnecting player: {}", e.getMessage());
+                kick();
+            } catch (IOException e) {
+                if (!connection.isClosed()) {
+                    Log.error("Could not read player choice", e);
+                }
             }
+            readEvent.tableId = table.id();
+            readEvent.seat = seat;
+            readEvent.bytes = clientMessage == null ? 0 : clientMessage.length();
+            readEvent.endOfStream = clientMessage == null;
+            readEvent.commit();
+            if (clientMessage != null && limits != null) {
+                long penalty = limits.admitMessage();   // nanoseconds to delay the player, -1 if they are flooding
+                if (penalty < 0) {
+                    Log.warn("Disconnecting player at table {} for flooding", table.id());
+                    kick();
+                    clientMessage = null;
+                } else if (penalty > 0) {
+                    LockSupport.parkNanos(penalty);
+                }
+            }
+            if (clientMessage == null) {
+                disconnect();
+            } else {
+                choice = clientMessage;
+                receivedChoice = true;
+            }
+        }
+        choiceTime = System.nanoTime() - choiceStart;
+        table.recordTiming(RoundTimings.Stage.DECISION, choiceTime);
+    }
+
+    /**
+     * Sends a message asking the player for a choice, remembering it so
+     * that it can be asked again if the player reconnects before choosing.
+     *
+     * @param message Message asking for a choice
+     */
+
+    private void prompt(String message) {
+        lastPrompt = message;
+        send(message);
+    }
+
+    /**
+     * Closes the player's connection. The player keeps their seat and
+     * can resume their session until they leave the table.
+     */
+
+    private void disconnect() {
+        if (!disconnected) {
+            disconnected = true;
+            connectionLostTime = System.nanoTime();
+            table.metrics().disconnected();
+            closeConnection();
+        }
+    }
+
+    /**
+     * Disconnects the player for misbehaving. The player cannot resume
+     * their session and stands on every hand until they leave the table.
+     */
+
+    private void kick() {
+        synchronized (this) {
+            kicked = true;
+        }
+        sessions.close(sessionToken);
+        disconnect();
+    }
+
+    /**
+     * Sends a line to the player's client.
+     *
+     * @param message Line to send
+     */
+
+    private void send(String message) {
+        GameEvents.OutputFlush flushEvent = new GameEvents.OutputFlush();  // flight recorder event spanning the write
+        flushEvent.begin();
+        connection.send(message);
+        flushEvent.tableId = table == null ? -1 : table.id();
+        flushEvent.seat = seat;
+        flushEvent.bytes = message.length() + 1;
+        flushEvent.commit();
+    }
+
+    /**
+     * Closes the connection the player is connected on.
+     */
+
+    private void closeConnection() {
+        try {
+            connection.close();
         } catch (IOException e) {
-            e.printStackTrace();
+            Log.error("Could not close player connection", e);
+        }
+    }
+
+    /**
+     * Starts using a connection to the client.
+     *
+     * @param connection Connection to the client
+     * @param limits Rate limits of the connection, null if messages are not limited
+     */
+
+    private void useConnection(Transport connection, RateLimiter.Client limits) {
+        this.connection = connection;
+        this.limits = limits;
+        disconnected = false;
+    }
+
+    /**
+     * Resumes the player's session on a new connection. If the player is
+     * waiting on a latch, the new connection is used right away and the
+     * snapshot is sent from the calling thread, since the player's own
+     * thread is not touching its state. Otherwise the new connection is
+     * handed to the player's thread, and the old connection is closed so
+     * that a read blocked on it returns.
+     *
+     * @param connection Connection the player reconnected on
+     * @param limits Rate limits of the connection, null if messages are not limited
+     * @return true if the session was resumed, false if it can no longer be resumed
+     */
+
+    public synchronized boolean resume(Transport connection, RateLimiter.Client limits) {
+        if (finished || kicked) {
+            return false;
+        }
+        if (waiting) {
+            closeConnection();
+            useConnection(connection, limits);
+            sendSnapshot(false);
+        } else {
+            if (resumedConnection != null) {
+                try {
+                    resumedConnection.close();
+                } catch (IOException e) {
+                    Log.error("Could not close player connection", e);
+                }
+            }
+            resumedConnection = connection;
+            resumedLimits = limits;
+            closeConnection();
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Starts using the connection the player reconnected on, if there is one.
+     *
+     * @param choiceDue True if the player is being asked for a choice, false if not
+     */
+
+    private synchronized void adoptResumedConnection(boolean choiceDue) {
+        if (resumedConnection != null) {
+            useConnection(resumedConnection, resumedLimits);
+            sendSnapshot(choiceDue);
+            resumedConnection = null;
+            resumedLimits = null;
         }
     }
 
+    /**
+     * Waits for the player to reconnect until the grace period runs out.
+     *
+     * @return true if the player reconnected, false if the grace period is over or the player cannot resume
+     */
+
+    private synchronized boolean awaitResume() {
+        long remaining = connectionLostTime + gracePeriod - System.nanoTime();  // nanoseconds left in the grace period
+        while (resumedConnection == null && !kicked && remaining > 0) {
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                Log.error("Interrupted waiting for the player to reconnect", e);
+                break;
+            }
+            remaining = connectionLostTime + gracePeriod - System.nanoTime();
+        }
+        return resumedConnection != null;
+    }
+
+    /**
+     * Sends the player a single message that rebuilds their view of the
+     * round, followed by the choice they are being asked for if there is
+     * one. The snapshot holds the player's money and, once they have been
+     * dealt in, the dealer's hand and each of the player's hands, with
+     * cards the player has not seen yet sent face down.
+     *
+     * @param choiceDue True if the player is being asked for a choice, false if not
+     */
+
+    private void sendSnapshot(boolean choiceDue) {
+        StringBuilder snapshot = new StringBuilder("SERVERMESSAGE--RESUMED--").append(String.format("%.2f", money));   // message rebuilding the player's view
+        if (dealtIn) {
+            if (dealerRevealed) {
+                BlackjackHand dealerHand = table.dealerHand();  // hand of the dealer
+                snapshot.append("--").append(dealerHand.blackjackValue()).append(":");
+                for (int i = 0; i < dealerHand.size(); i++) {
+                    snapshot.append(i == 0 ? "" : ",").append(dealerHand.getCard(i));
+                }
+            } else {
+                snapshot.append("--0:").append(table.dealerShownCard()).append(",back");
+            }
+            for (BlackjackHand hand : playerHands) {
+                boolean faceDown = hand.doubleDown() && !dealerRevealed;    // true if the hand's double down card has not been shown, false if not
+                snapshot.append("--").append(String.format("%.2f", hand.bet())).append(":").append(faceDown ? 0 : hand.blackjackValue()).append(":");
+                for (int i = 0; i < hand.size(); i++) {
+                    snapshot.append(i == 0 ? "" : ",").append(faceDown && i == hand.size() - 1 ? "back" : hand.getCard(i).toString());
+                }
+            }
+        }
+        send(snapshot.toString());
+        if (choiceDue && lastPrompt != null) {
+            send(lastPrompt);
+        }
+    }
+
+    /**
+     * Waits for a latch to count down. The player's session can be
+     * resumed on the caller's thread while the player waits.
+     *
+     * @param latch Latch to wait on
+     * @param name Name of the latch
+     */
+
+    private void await(CountDownLatch latch, String name) {
+        synchronized (this) {
+            waiting = true;
+        }
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Log.error("Interrupted waiting for the {} latch", name, e);
+        }
+        synchronized (this) {
+            waiting = false;
+        }
+        adoptResumedConnection(false);
+    }
+
+    /**
+     * Sets the table the player has been seated at.
+     *
+     * @param table Table the player joined
+     */
+
+    @Override
+    public void joinTable(Table table) {
+        this.table = table;
+    }
+
+    /**
+     * Sets the seat number of the player at the table.
+     *
+     * @param seat Seat number of the player
+     */
+
+    @Override
+    public void setSeat(int seat) {
+        this.seat = seat;
+    }
+
+    /**
+     * Returns the seat number of the player at the table.
+     *
+     * @return the seat number of the player
+     */
+
+    @Override
+    public int seat() {
+        return seat;
+    }
+
+    /**
+     * Returns the money the player has available to bet.
+     *
+     * @return the money the player has available to bet
+     */
+
+    @Override
+    public double money() {
+        return money;
+    }
+
+    /**
+     * Returns the time the player connected.
+     *
+     * @return the time the player connected in nanoseconds
+     */
+
+    @Override
+    public long arrivalTime() {
+        return arrivalTime;
+    }
+
     /**
      * Returns the player hand.
      *
      * @return the player hand
      */
 
+    @Override
     public BlackjackHand originalPlayerHand() {
         return originalPlayerHand;
     }
 
     /**
-     * Decrements the start latch.
+     * Returns the hands the player is playing this round.
+     *
+     * @return the hands the player is playing this round
+     */
+
+    @Override
+    public ArrayList<BlackjackHand> playerHands() {
+        return playerHands;
+    }
+
+    /**
+     * Returns whether or not the player has Blackjack.
+     *
+     * @return true if the player has Blackjack, false if does not
+     */
+
+    @Override
+    public boolean hasBlackjack() {
+        return hasBlackjack;
+    }
+
+    /**
+     * Returns the id of the player's wallet account.
+     *
+     * @return the id of the player's wallet account, -1 if balances are not kept
+     */
+
+    @Override
+    public long account() {
+        return account;
+    }
+
+    /**
+     * Returns whether or not the player is a house bot.
+     *
+     * @return false, since players are connected clients
+     */
+
+    @Override
+    public boolean isBot() {
+        return false;
+    }
+
+    /**
+     * Decrements the start latch once the round has started.
      */
 
-    public void startLatchCountDown() {
+    @Override
+    public void roundStarted() {
         startLatch.countDown();
     }
 
     /**
-     * Decrements the bet latch.
+     * Decrements the bet latch once every bet has been placed.
      */
 
-    public void betLatchCountDown() {
+    @Override
+    public void betsPlaced() {
         betLatch.countDown();
     }
 
     /**
-     * Decrements the insurance bet latch.
+     * Decrements the insurance bet latch once every insurance bet has been placed.
      */
 
-    public void insuranceBetLatchCountDown() {
+    @Override
+    public void insuranceBetsPlaced() {
         insuranceBetLatch.countDown();
     }
 
     /**
-     * Decrements the deal latch.
+     * Decrements the deal latch once the first cards have been dealt.
      */
 
-    public void dealLatchCountDown() {
+    @Override
+    public void cardsDealt() {
         dealLatch.countDown();
     }
 
     /**
-     * Decrements the dealer turn latch.
+     * Decrements the turn latch once it is the player's turn.
+     */
+
+    @Override
+    public void turnStarted() {
+        turnLatch.countDown();
+    }
+
+    /**
+     * Decrements the dealer turn latch once the dealer has finished their turn.
      */
 
-    public void dealerTurnLatchCountDown() {
+    @Override
+    public void dealerTurnFinished() {
         dealerTurnLatch.countDown();
     }
-}
\ No newline at end of file
+
+    /**
+     * Releases the player from waiting for the next round once the table
+     * has closed for a drain. The player then leaves with GAMEOVER.
+     */
+
+    @Override
+    public void tableDrained() {
+        drained = true;
+        startLatch.countDown();
+    }
+
+    /**
+     * Adds the player's session and money to the moving table.
+     *
+     * @param migration State of the moving table
+     */
+
+    @Override
+    public void exportTo(TableMigration migration) {
+        migration.addPlayer(sessionToken, money);
+    }
+
+    /**
+     * Releases the player from waiting for the next round once the table
+     * has moved to another server. The player's session here is closed
+     * and the client's router is told where to resume it.
+     *
+     * @param address Address players connect to on the new server as host:port
+     */
+
+    @Override
+    public void tableMigrated(String address) {
+        migrationAddress = address;
+        startLatch.countDown();
+    }
+}
@@ -0,0 +1,200 @@
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RateLimiter objects limit how fast clients can send messages and open
+ * connections. Every connection has its own token bucket for messages and
+ * shares a second, larger bucket with every other connection from the same
+ * address, so a client cannot get around the limit by opening more
+ * connections. A connection that runs out of tokens is slowed down by a
+ * penalty delay that grows with each offence, and is disconnected once it
+ * keeps flooding.
+ *
+ * @author Jordan Segalman
+ */
+
+public class RateLimiter {
+    private static final int MESSAGE_BURST_SECONDS = 2;                     // seconds of messages a connection can send in a burst
+    private static final int ADDRESS_MESSAGE_MULTIPLIER = 4;                // times more messages an address can send than one connection
+    private static final double CONNECTIONS_PER_SECOND = 2;                 // connections an address can open per second
+    private static final int CONNECTION_BURST = 10;                         // connections an address can open in a burst
+    private static final long PENALTY_DELAY = TimeUnit.MILLISECONDS.toNanos(250);   // nanoseconds a connection is delayed for its first offence
+    private static final int MAXIMUM_STRIKES = 5;                           // offences a connection can commit before it is disconnected
+    private static final long FORGIVENESS_PERIOD = TimeUnit.SECONDS.toNanos(10);    // nanoseconds a connection must stay within its limits after a penalty to have its offences forgiven
+    private static final int EVICTION_THRESHOLD = 4096;                     // addresses tracked before idle ones are evicted
+    private double messagesPerSecond;                                       // messages a connection can send per second
+    private ConcurrentHashMap<InetAddress, TokenBucket> addressMessages = new ConcurrentHashMap<>();     // message buckets shared by the connections of each address
+    private ConcurrentHashMap<InetAddress, TokenBucket> addressConnections = new ConcurrentHashMap<>();  // connection buckets of each address
+    private ServerMetrics metrics;                                          // counters of server activity
+
+    /**
+     * TokenBucket objects hold tokens that refill at a steady rate up to a capacity.
+     */
+
+    private static class TokenBucket {
+        private double capacity;        // most tokens the bucket can hold
+        private double refillRate;      // tokens added per nanosecond
+        private double tokens;          // tokens in the bucket
+        private long lastRefill;        // time tokens were last added in nanoseconds
+
+        /**
+         * Constructor for TokenBucket object. The bucket starts full.
+         *
+         * @param capacity Most tokens the bucket can hold
+         * @param perSecond Tokens added per second
+         * @param now Current time in nanoseconds
+         */
+
+        TokenBucket(double capacity, double perSecond, long now) {
+            this.capacity = capacity;
+            refillRate = perSecond / TimeUnit.SECONDS.toNanos(1);
+            tokens = capacity;
+            lastRefill = now;
+        }
+
+        /**
+         * Takes a token if one is available.
+         *
+         * @param now Current time in nanoseconds
+         * @return true if a token was taken, false if the bucket was empty
+         */
+
+        synchronized boolean tryTake(long now) {
+            refill(now);
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        /**
+         * Returns whether or not the bucket has refilled completely.
+         *
+         * @param now Current time in nanoseconds
+         * @return true if the bucket is full, false if not
+         */
+
+        synchronized boolean isFull(long now) {
+            refill(now);
+            return tokens >= capacity;
+        }
+
+        /**
+         * Adds the tokens earned since the last refill.
+         *
+         * @param now Current time in nanoseconds
+         */
+
+        private void refill(long now) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * refillRate);
+            lastRefill = now;
+        }
+    }
+
+    /**
+     * Client objects hold the limits of one connection. Only the thread
+     * reading the connection uses its client.
+     */
+
+    public class Client {
+        private InetAddress address;    // address the connection came from
+        private TokenBucket messages;   // message bucket of the connection
+        private int strikes;            // offences committed since the connection was last forgiven
+        private long penaltyEnd;        // time the connection's last penalty ended in nanoseconds
+
+        /**
+         * Constructor for Client object.
+         *
+         * @param address Address the connection came from
+         */
+
+        private Client(InetAddress address) {
+            this.address = address;
+            messages = new TokenBucket(messagesPerSecond * MESSAGE_BURST_SECONDS, messagesPerSecond, System.nanoTime());
+        }
+
+        /**
+         * Charges a message to the connection and its address. Strikes
+         * are forgiven once the connection has stayed within its limits
+         * for a while after its last penalty, so a client that floods
+         * briefly and then plays normally is not disconnected later.
+         *
+         * @return nanoseconds to delay the connection, 0 if the message is within the limits, -1 if the connection should be disconnected
+         */
+
+        public long admitMessage() {
+            long now = System.nanoTime();   // time the message was read in nanoseconds
+            if (strikes > 0 && now - penaltyEnd > FORGIVENESS_PERIOD) {
+                strikes = 0;
+            }
+            if (messages.tryTake(now) & addressMessages(address, now).tryTake(now)) {  // both buckets are charged even if the first is empty
+                return 0;
+            }
+            metrics.messageThrottled();
+            if (++strikes > MAXIMUM_STRIKES) {
+                metrics.floodDisconnected();
+                return -1;
+            }
+            long penalty = PENALTY_DELAY << (strikes - 1);  // nanoseconds to delay the connection
+            penaltyEnd = now + penalty;
+            return penalty;
+        }
+    }
+
+    /**
+     * Constructor for RateLimiter object.
+     *
+     * @param messagesPerSecond Messages a connection can send per second
+     * @param metrics Counters of server activity
+     */
+
+    public RateLimiter(double messagesPerSecond, ServerMetrics metrics) {
+        this.messagesPerSecond = messagesPerSecond;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Charges a new connection to its address.
+     *
+     * @param address Address the connection came from
+     * @return the limits of the connection, null if the address is opening connections too fast
+     */
+
+    public Client admitConnection(InetAddress address) {
+        long now = System.nanoTime();   // time the connection was accepted in nanoseconds
+        if (addressConnections.size() > EVICTION_THRESHOLD) {
+            evictIdle(now);
+        }
+        if (!addressConnections.computeIfAbsent(address, a -> new TokenBucket(CONNECTION_BURST, CONNECTIONS_PER_SECOND, now)).tryTake(now)) {
+            metrics.connectionRefused();
+            return null;
+        }
+        return new Client(address);
+    }
+
+    /**
+     * Returns the message bucket shared by the connections of an address.
+     *
+     * @param address Address of the connections
+     * @param now Current time in nanoseconds
+     * @return the message bucket of the address
+     */
+
+    private TokenBucket addressMessages(InetAddress address, long now) {
+        return addressMessages.computeIfAbsent(address, a -> new TokenBucket(messagesPerSecond * MESSAGE_BURST_SECONDS * ADDRESS_MESSAGE_MULTIPLIER, messagesPerSecond * ADDRESS_MESSAGE_MULTIPLIER, now));
+    }
+
+    /**
+     * Forgets addresses whose buckets have refilled, since a full bucket
+     * behaves the same as a new one.
+     *
+     * @param now Current time in nanoseconds
+     */
+
+    private void evictIdle(long now) {
+        addressConnections.values().removeIf(bucket -> bucket.isFull(now));
+        addressMessages.values().removeIf(bucket -> bucket.isFull(now));
+    }
+}
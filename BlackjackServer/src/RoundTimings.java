@@ -0,0 +1,66 @@
+/**
+ * RoundTimings objects hold a latency histogram for each stage of a round
+ * of Blackjack and for the time players take to make decisions.
+ *
+ * @author Jordan Segalman
+ */
+
+public class RoundTimings {
+    private LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];    // holds the histogram of each stage
+
+    /**
+     * Stages of a round that are timed.
+     */
+
+    public enum Stage {
+        BETS, DEAL, INSURANCE, PLAYER_TURN, DEALER_TURN, CONTINUE_PLAYING, ROUND, DECISION
+    }
+
+    /**
+     * Constructor for RoundTimings object.
+     */
+
+    public RoundTimings() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Records the time a stage took.
+     *
+     * @param stage Stage that was timed
+     * @param nanos Time the stage took in nanoseconds
+     */
+
+    public void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Returns the histogram of a stage.
+     *
+     * @param stage Stage of the histogram
+     * @return the histogram of the stage
+     */
+
+    public LatencyHistogram histogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    /**
+     * Returns the percentiles of every stage that has been timed, one stage per line.
+     *
+     * @return the percentiles of every stage
+     */
+
+    public String report() {
+        StringBuilder report = new StringBuilder();     // percentiles of each stage
+        for (Stage stage : Stage.values()) {
+            if (histograms[stage.ordinal()].count() > 0) {
+                report.append("\n").append(stage).append(": ").append(histograms[stage.ordinal()].summary());
+            }
+        }
+        return report.toString();
+    }
+}
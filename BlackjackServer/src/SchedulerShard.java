@@ -0,0 +1,199 @@
+import java.util.PriorityQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SchedulerShard objects run an event loop thread that drives many tables.
+ * Tables are advanced when a player event arrives for them or a timer fires,
+ * so a table never holds a thread while it waits for its players.
+ *
+ * @author Jordan Segalman
+ */
+
+public class SchedulerShard implements Runnable {
+    private int id;                                                         // id of the shard
+    private LinkedBlockingQueue<Runnable> events = new LinkedBlockingQueue<>(); // holds events waiting to run on the shard thread
+    private PriorityQueue<Timer> timers = new PriorityQueue<>();            // holds pending timers, only used by the shard thread
+    private AtomicInteger numTables = new AtomicInteger();                  // number of tables pinned to the shard
+    private AtomicInteger numSeats = new AtomicInteger();                   // number of seats at tables pinned to the shard
+    private AtomicLong processedEvents = new AtomicLong();                  // number of events and timers run by the shard
+    private long lastReportTime = System.nanoTime();                        // time of the last load report in nanoseconds
+    private long lastReportEvents;                                          // number of processed events at the last load report
+
+    /**
+     * Timer objects hold a task to run on the shard thread at a given time.
+     */
+
+    private static class Timer implements Comparable<Timer> {
+        private long deadline;  // time to run the task in nanoseconds
+        private Runnable task;  // task to run
+
+        /**
+         * Constructor for Timer object.
+         *
+         * @param deadline Time to run the task in nanoseconds
+         * @param task Task to run
+         */
+
+        Timer(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        /**
+         * Compares timers by deadline.
+         *
+         * @param other Timer to compare to
+         * @return a negative number, zero, or a positive number if this timer fires before, with, or after the other timer
+         */
+
+        @Override
+        public int compareTo(Timer other) {
+            return Long.compare(deadline, other.deadline);
+        }
+    }
+
+    /**
+     * Constructor for SchedulerShard object.
+     *
+     * @param id Id of the shard
+     */
+
+    public SchedulerShard(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Shard thread run method.
+     */
+
+    @Override
+    public void run() {
+        while (true) {
+            Runnable event;     // next event to run
+            try {
+                Timer nextTimer = timers.peek();    // timer that fires first
+                if (nextTimer == null) {
+                    event = events.take();
+                } else {
+                    event = events.poll(nextTimer.deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (event != null) {
+                runEvent(event);
+            }
+            long now = System.nanoTime();   // current time in nanoseconds
+            while (!timers.isEmpty() && timers.peek().deadline <= now) {
+                runEvent(timers.poll().task);
+            }
+        }
+    }
+
+    /**
+     * Runs an event on the shard thread without letting a failure stop the shard.
+     *
+     * @param event Event to run
+     */
+
+    private void runEvent(Runnable event) {
+        processedEvents.incrementAndGet();
+        try {
+            event.run();
+        } catch (RuntimeException e) {
+            Log.error("Table event failed on shard {}", id, e);
+        }
+    }
+
+    /**
+     * Queues an event to run on the shard thread.
+     *
+     * @param event Event to run
+     */
+
+    public void execute(Runnable event) {
+        events.add(event);
+    }
+
+    /**
+     * Runs a task on the shard thread after a delay.
+     *
+     * @param task Task to run
+     * @param delay Milliseconds to wait before running the task
+     */
+
+    public void schedule(Runnable task, long delay) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);  // time to run the task in nanoseconds
+        execute(() -> timers.add(new Timer(deadline, task)));
+    }
+
+    /**
+     * Pins a table to the shard.
+     *
+     * @param table Table to pin
+     */
+
+    public void addTable(Table table) {
+        numTables.incrementAndGet();
+        numSeats.addAndGet(table.seats());
+    }
+
+    /**
+     * Unpins a closed table from the shard.
+     *
+     * @param table Table to unpin
+     */
+
+    public void removeTable(Table table) {
+        numTables.decrementAndGet();
+        numSeats.addAndGet(-table.seats());
+    }
+
+    /**
+     * Returns the load of the shard used to choose where new tables go.
+     *
+     * @return the number of seats at tables pinned to the shard
+     */
+
+    public int load() {
+        return numSeats.get();
+    }
+
+    /**
+     * Returns the number of tables pinned to the shard.
+     *
+     * @return the number of tables pinned to the shard
+     */
+
+    public int numTables() {
+        return numTables.get();
+    }
+
+    /**
+     * Returns the number of events and timers run by the shard.
+     *
+     * @return the number of events and timers run by the shard
+     */
+
+    public long processedEvents() {
+        return processedEvents.get();
+    }
+
+    /**
+     * Returns a summary of the shard load since the last report.
+     *
+     * @return the summary of the shard load
+     */
+
+    public synchronized String report() {
+        long now = System.nanoTime();           // current time in nanoseconds
+        long processed = processedEvents.get(); // number of processed events
+        double eventsPerSecond = (processed - lastReportEvents) / ((now - lastReportTime) / 1e9);   // events run per second since the last report
+        lastReportTime = now;
+        lastReportEvents = processed;
+        return "Shard " + id + ": " + numTables.get() + " tables, " + numSeats.get() + " seats, " + String.format("%.1f", eventsPerSecond) + " events/sec";
+    }
+}
@@ -0,0 +1,153 @@
+import java.util.ArrayList;
+
+/**
+ * Seat objects are the occupants of a table's seats. The table tells each
+ * seat when the round reaches a point where it has to act, and the seat
+ * answers through the table's count down methods once it has acted. A
+ * Player answers from its own thread after asking its client, while a
+ * BotSeat answers on the table's thread before the call returns.
+ *
+ * @author Jordan Segalman
+ */
+
+public interface Seat {
+
+    /**
+     * Places the seat at a table.
+     *
+     * @param table Table the seat joins
+     */
+
+    void joinTable(Table table);
+
+    /**
+     * Tells the seat a new round has started and bets are being taken.
+     */
+
+    void roundStarted();
+
+    /**
+     * Tells the seat every bet has been placed.
+     */
+
+    void betsPlaced();
+
+    /**
+     * Tells the seat the first cards have been dealt and insurance bets are being taken.
+     */
+
+    void cardsDealt();
+
+    /**
+     * Tells the seat every insurance bet has been placed.
+     */
+
+    void insuranceBetsPlaced();
+
+    /**
+     * Tells the seat it is their turn.
+     */
+
+    void turnStarted();
+
+    /**
+     * Tells the seat the dealer has finished their turn and the round is being settled.
+     */
+
+    void dealerTurnFinished();
+
+    /**
+     * Tells the seat the table closed for a drain before the next round, so it is not dealt in again.
+     */
+
+    void tableDrained();
+
+    /**
+     * Adds the seat's occupant to the state of a table moving to another server.
+     *
+     * @param migration State of the moving table
+     */
+
+    void exportTo(TableMigration migration);
+
+    /**
+     * Tells the seat the table moved to another server before the next
+     * round, so it is not dealt in here again.
+     *
+     * @param address Address players connect to on the new server as host:port
+     */
+
+    void tableMigrated(String address);
+
+    /**
+     * Sets the seat number.
+     *
+     * @param seat Seat number at the table
+     */
+
+    void setSeat(int seat);
+
+    /**
+     * Returns the seat number.
+     *
+     * @return the seat number at the table
+     */
+
+    int seat();
+
+    /**
+     * Returns the money available to bet.
+     *
+     * @return the money available to bet
+     */
+
+    double money();
+
+    /**
+     * Returns the time the seat was taken.
+     *
+     * @return the time the seat was taken in nanoseconds
+     */
+
+    long arrivalTime();
+
+    /**
+     * Returns the hand the seat is dealt at the start of the round.
+     *
+     * @return the first hand of the round
+     */
+
+    BlackjackHand originalPlayerHand();
+
+    /**
+     * Returns the seat's hands.
+     *
+     * @return the hands of the seat
+     */
+
+    ArrayList<BlackjackHand> playerHands();
+
+    /**
+     * Returns whether or not the seat has Blackjack.
+     *
+     * @return true if the seat has Blackjack, false if does not
+     */
+
+    boolean hasBlackjack();
+
+    /**
+     * Returns the id of the seat's wallet account.
+     *
+     * @return the id of the wallet account, -1 if the seat has none
+     */
+
+    long account();
+
+    /**
+     * Returns whether or not the seat is played by the house.
+     *
+     * @return true if the seat is a house bot, false if it is a player
+     */
+
+    boolean isBot();
+}
@@ -0,0 +1,278 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ServerMetrics objects count server activity. Every counter is a striped
+ * adder, so tables and players never contend with each other or with a
+ * scrape of the admin endpoint when counting.
+ *
+ * @author Jordan Segalman
+ */
+
+public class ServerMetrics {
+    private LongAdder connectionsOpened = new LongAdder();                  // number of players that connected
+    private LongAdder connectionsClosed = new LongAdder();                  // number of players that finished playing
+    private LongAdder disconnects = new LongAdder();                        // number of players that disconnected without finishing
+    private LongAdder rounds = new LongAdder();                             // number of rounds finished at every table
+    private LongAdder reshuffles = new LongAdder();                         // number of shoes shuffled at every table
+    private LongAdder oversizeFrames = new LongAdder();                     // number of client lines rejected for being too long
+    private LongAdder malformedFrames = new LongAdder();                    // number of client lines rejected for holding bytes that are not printable ASCII
+    private LongAdder throttledMessages = new LongAdder();                  // number of client messages over the rate limit
+    private LongAdder floodDisconnects = new LongAdder();                   // number of players disconnected for flooding
+    private LongAdder refusedConnections = new LongAdder();                 // number of connections refused because their address opened connections too fast
+    private LongAdder resumes = new LongAdder();                            // number of sessions resumed after reconnecting
+    private LongAdder refusedResumes = new LongAdder();                     // number of reconnects whose session could not be resumed
+    private LongAdder queuedPlayers = new LongAdder();                      // number of players that waited in the queue for a seat
+    private LongAdder refusedAdmissions = new LongAdder();                  // number of connections refused because the server was full
+
+    /**
+     * Counts a player that connected.
+     */
+
+    public void connectionOpened() {
+        connectionsOpened.increment();
+    }
+
+    /**
+     * Counts a player that finished playing.
+     */
+
+    public void connectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    /**
+     * Counts a player that disconnected without finishing.
+     */
+
+    public void disconnected() {
+        disconnects.increment();
+    }
+
+    /**
+     * Counts a finished round.
+     */
+
+    public void roundFinished() {
+        rounds.increment();
+    }
+
+    /**
+     * Counts a shuffled shoe.
+     */
+
+    public void reshuffled() {
+        reshuffles.increment();
+    }
+
+    /**
+     * Counts a client line rejected for being too long.
+     */
+
+    public void oversizeFrameRejected() {
+        oversizeFrames.increment();
+    }
+
+    /**
+     * Counts a client line rejected for holding bytes that are not printable ASCII.
+     */
+
+    public void malformedFrameRejected() {
+        malformedFrames.increment();
+    }
+
+    /**
+     * Counts a client message over the rate limit.
+     */
+
+    public void messageThrottled() {
+        throttledMessages.increment();
+    }
+
+    /**
+     * Counts a player disconnected for flooding.
+     */
+
+    public void floodDisconnected() {
+        floodDisconnects.increment();
+    }
+
+    /**
+     * Counts a connection refused because its address opened connections too fast.
+     */
+
+    public void connectionRefused() {
+        refusedConnections.increment();
+    }
+
+    /**
+     * Counts a session resumed after reconnecting.
+     */
+
+    public void sessionResumed() {
+        resumes.increment();
+    }
+
+    /**
+     * Counts a reconnect whose session could not be resumed.
+     */
+
+    public void resumeRefused() {
+        refusedResumes.increment();
+    }
+
+    /**
+     * Counts a player that joined the queue for a seat.
+     */
+
+    public void playerQueued() {
+        queuedPlayers.increment();
+    }
+
+    /**
+     * Counts a connection refused because the server was full.
+     */
+
+    public void admissionRefused() {
+        refusedAdmissions.increment();
+    }
+
+    /**
+     * Returns the number of players that connected.
+     *
+     * @return the number of players that connected
+     */
+
+    public long connectionsOpened() {
+        return connectionsOpened.sum();
+    }
+
+    /**
+     * Returns the number of players currently connected.
+     *
+     * @return the number of players currently connected
+     */
+
+    public long connections() {
+        return connectionsOpened.sum() - connectionsClosed.sum();
+    }
+
+    /**
+     * Returns the number of players that disconnected without finishing.
+     *
+     * @return the number of players that disconnected without finishing
+     */
+
+    public long disconnects() {
+        return disconnects.sum();
+    }
+
+    /**
+     * Returns the number of rounds finished at every table.
+     *
+     * @return the number of rounds finished
+     */
+
+    public long rounds() {
+        return rounds.sum();
+    }
+
+    /**
+     * Returns the number of shoes shuffled at every table.
+     *
+     * @return the number of shoes shuffled
+     */
+
+    public long reshuffles() {
+        return reshuffles.sum();
+    }
+
+    /**
+     * Returns the number of client lines rejected for being too long.
+     *
+     * @return the number of client lines rejected for being too long
+     */
+
+    public long oversizeFrames() {
+        return oversizeFrames.sum();
+    }
+
+    /**
+     * Returns the number of client lines rejected for holding bytes that are not printable ASCII.
+     *
+     * @return the number of malformed client lines rejected
+     */
+
+    public long malformedFrames() {
+        return malformedFrames.sum();
+    }
+
+    /**
+     * Returns the number of client messages over the rate limit.
+     *
+     * @return the number of throttled client messages
+     */
+
+    public long throttledMessages() {
+        return throttledMessages.sum();
+    }
+
+    /**
+     * Returns the number of players disconnected for flooding.
+     *
+     * @return the number of players disconnected for flooding
+     */
+
+    public long floodDisconnects() {
+        return floodDisconnects.sum();
+    }
+
+    /**
+     * Returns the number of connections refused because their address opened connections too fast.
+     *
+     * @return the number of refused connections
+     */
+
+    public long refusedConnections() {
+        return refusedConnections.sum();
+    }
+
+    /**
+     * Returns the number of sessions resumed after reconnecting.
+     *
+     * @return the number of resumed sessions
+     */
+
+    public long resumes() {
+        return resumes.sum();
+    }
+
+    /**
+     * Returns the number of reconnects whose session could not be resumed.
+     *
+     * @return the number of refused resumes
+     */
+
+    public long refusedResumes() {
+        return refusedResumes.sum();
+    }
+
+    /**
+     * Returns the number of players that waited in the queue for a seat.
+     *
+     * @return the number of queued players
+     */
+
+    public long queuedPlayers() {
+        return queuedPlayers.sum();
+    }
+
+    /**
+     * Returns the number of connections refused because the server was full.
+     *
+     * @return the number of refused admissions
+     */
+
+    public long refusedAdmissions() {
+        return refusedAdmissions.sum();
+    }
+}
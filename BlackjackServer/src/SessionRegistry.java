@@ -0,0 +1,101 @@
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SessionRegistry objects let players pick up where they left off after
+ * their connection drops. Each player is given a random token when they
+ * are welcomed, and a client that reconnects with the token is handed back
+ * to the same player, seat, hands and bets.
+ *
+ * @author Jordan Segalman
+ */
+
+public class SessionRegistry {
+    private static final int TOKEN_BYTES = 16;                              // random bytes in a session token
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();  // digits used to write session tokens
+    private SecureRandom random = new SecureRandom();                       // source of session tokens
+    private ConcurrentHashMap<String, Player> sessions = new ConcurrentHashMap<>();  // players that can be resumed by token
+    private ServerMetrics metrics;                                          // counters of server activity
+
+    /**
+     * Constructor for SessionRegistry object.
+     *
+     * @param metrics Counters of server activity
+     */
+
+    public SessionRegistry(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Opens a session for a player.
+     *
+     * @param player Player to open a session for
+     * @return the token the player resumes their session with
+     */
+
+    public String open(Player player) {
+        byte[] bytes = new byte[TOKEN_BYTES];   // random bytes of the token
+        random.nextBytes(bytes);
+        char[] token = new char[TOKEN_BYTES * 2];   // token written in hexadecimal, which never contains the message separator
+        for (int i = 0; i < TOKEN_BYTES; i++) {
+            token[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            token[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        String sessionToken = new String(token);    // token of the session
+        sessions.put(sessionToken, player);
+        return sessionToken;
+    }
+
+    /**
+     * Opens a session for a player under a token given out by another
+     * server, so that a player whose table moved here can resume with
+     * the token they already have.
+     *
+     * @param token Token of the session
+     * @param player Player to open a session for
+     */
+
+    public void adopt(String token, Player player) {
+        sessions.put(token, player);
+    }
+
+    /**
+     * Resumes a session on a new connection.
+     *
+     * @param token Token of the session
+     * @param connection Connection the player reconnected on
+     * @param limits Rate limits of the connection, null if messages are not limited
+     * @return true if the session was resumed, false if there is no such session or it has ended
+     */
+
+    public boolean resume(String token, Transport connection, RateLimiter.Client limits) {
+        Player player = sessions.get(token);    // player the session belongs to
+        if (player != null && player.resume(connection, limits)) {
+            metrics.sessionResumed();
+            return true;
+        }
+        metrics.resumeRefused();
+        return false;
+    }
+
+    /**
+     * Closes a session so that it can no longer be resumed.
+     *
+     * @param token Token of the session
+     */
+
+    public void close(String token) {
+        sessions.remove(token);
+    }
+
+    /**
+     * Returns the number of open sessions.
+     *
+     * @return the number of open sessions
+     */
+
+    public int size() {
+        return sessions.size();
+    }
+}
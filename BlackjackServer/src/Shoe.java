@@ -22,6 +22,17 @@ public class Shoe {
         }
     }
 
+    /**
+     * Constructor for Shoe object holding cards already in dealing order,
+     * such as the cards left in a shoe moved from another server.
+     *
+     * @param cards Cards in the shoe, the next card dealt last
+     */
+
+    public Shoe(ArrayList<Card> cards) {
+        shoe.addAll(cards);
+    }
+
     /**
      * Adds a deck to the shoe.
      *
@@ -54,6 +65,17 @@ public class Shoe {
         return card;
     }
 
+    /**
+     * Returns the card at the given position in the shoe without dealing it.
+     *
+     * @param index Position of the card, where the last card is dealt next
+     * @return the card at the given position
+     */
+
+    public Card getCard(int index) {
+        return shoe.get(index);
+    }
+
     /**
      * Returns the number of cards in the shoe.
      *
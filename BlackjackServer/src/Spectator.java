@@ -0,0 +1,117 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spectator objects write the frames of a table feed to a watching client.
+ * A spectator that falls behind has its queued frames dropped and skips
+ * to the latest snapshot, and one that keeps falling behind is disconnected.
+ * Closing the spectator wakes its writer with a marker frame, so the
+ * writer thread ends even if no more frames are published.
+ *
+ * @author Jordan Segalman
+ */
+
+public class Spectator implements Runnable {
+    private static final int MAXIMUM_QUEUED_FRAMES = 256;                   // frames queued before the spectator skips ahead
+    private static final int MAXIMUM_SKIPS = 8;                             // skips in a row before the spectator is dropped
+    private static final byte[] SKIP_TO_SNAPSHOT = new byte[0];             // marker frame telling the writer to send the latest snapshot
+    private static final byte[] CLOSED = new byte[0];                       // marker frame telling the writer to stop
+    private Socket socket;                                                  // socket to the spectator
+    private SpectatorFeed feed;                                             // feed of the watched table
+    private ArrayBlockingQueue<byte[]> frames = new ArrayBlockingQueue<>(MAXIMUM_QUEUED_FRAMES);   // holds frames waiting to be written
+    private AtomicInteger skips = new AtomicInteger();                      // number of skips since a frame was last written in order
+    private AtomicBoolean closed = new AtomicBoolean();                     // true once the spectator has been closed, false before
+
+    /**
+     * Constructor for Spectator object.
+     *
+     * @param socket Socket to the spectator
+     * @param feed Feed of the watched table
+     */
+
+    public Spectator(Socket socket, SpectatorFeed feed) {
+        this.socket = socket;
+        this.feed = feed;
+    }
+
+    /**
+     * Spectator thread run method.
+     */
+
+    @Override
+    public void run() {
+        if (!feed.subscribe(this)) {
+            close();
+            return;
+        }
+        try {
+            OutputStream out = socket.getOutputStream();    // out to spectator
+            byte[] snapshot = feed.latestSnapshot();        // snapshot to send first
+            if (snapshot != null) {
+                out.write(snapshot);
+            }
+            while (!closed.get()) {
+                byte[] frame = frames.take();   // next frame to write
+                if (frame == CLOSED) {
+                    break;
+                } else if (frame == SKIP_TO_SNAPSHOT) {
+                    frame = feed.latestSnapshot();
+                    if (frame == null) {
+                        continue;
+                    }
+                } else {
+                    skips.set(0);
+                }
+                out.write(frame);
+                if (frames.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // spectator disconnected
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Stops watching the table, wakes the writer so its thread ends and
+     * closes the socket to the spectator. Only the first call has any effect.
+     */
+
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        feed.unsubscribe(this);
+        frames.clear();
+        frames.offer(CLOSED);
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Log.error("Could not close spectator connection", e);
+        }
+    }
+
+    /**
+     * Queues a frame to be written. If the spectator has fallen behind,
+     * its queued frames are dropped and it skips to the latest snapshot.
+     *
+     * @param frame Frame to write
+     */
+
+    public void offer(byte[] frame) {
+        if (!frames.offer(frame)) {
+            frames.clear();
+            if (skips.incrementAndGet() > MAXIMUM_SKIPS) {
+                close();
+            } else {
+                frames.offer(SKIP_TO_SNAPSHOT);
+            }
+        }
+    }
+}
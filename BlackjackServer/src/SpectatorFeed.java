@@ -0,0 +1,119 @@
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * SpectatorFeed objects fan table events out to the spectators watching a table.
+ * Each event is encoded once into a frame that is shared by every spectator.
+ *
+ * @author Jordan Segalman
+ */
+
+public class SpectatorFeed {
+    private CopyOnWriteArrayList<Spectator> spectators = new CopyOnWriteArrayList<>();  // holds the spectators watching the table
+    private volatile TableSnapshot latestSnapshot;                          // latest table snapshot
+    private volatile boolean closed;                                        // true once the table has closed, false before
+
+    /**
+     * Encodes a table event once and offers it to every spectator. Never blocks.
+     *
+     * @param event Event to send to spectators
+     */
+
+    public void publish(String event) {
+        if (spectators.isEmpty()) {
+            return;
+        }
+        byte[] frame = encode(event);   // frame shared by every spectator
+        for (Spectator spectator : spectators) {
+            spectator.offer(frame);
+        }
+    }
+
+    /**
+     * Replaces the latest table snapshot and offers it to every spectator.
+     * The snapshot is only encoded once someone is watching.
+     *
+     * @param snapshot Snapshot of the table
+     */
+
+    public void publishSnapshot(TableSnapshot snapshot) {
+        latestSnapshot = snapshot;
+        if (spectators.isEmpty()) {
+            return;
+        }
+        byte[] frame = snapshot.frame();    // frame shared by every spectator
+        for (Spectator spectator : spectators) {
+            spectator.offer(frame);
+        }
+    }
+
+    /**
+     * Returns the frame holding the latest table snapshot.
+     *
+     * @return the frame holding the latest table snapshot, null if none has been published
+     */
+
+    public byte[] latestSnapshot() {
+        TableSnapshot snapshot = latestSnapshot;    // latest table snapshot, null if none has been published
+        return snapshot == null ? null : snapshot.frame();
+    }
+
+    /**
+     * Adds a spectator to the feed. A spectator that subscribes as the
+     * table closes is either closed by close or turned away here.
+     *
+     * @param spectator Spectator to add
+     * @return true if the spectator was added, false if the table has closed
+     */
+
+    public boolean subscribe(Spectator spectator) {
+        spectators.add(spectator);
+        if (closed) {
+            spectators.remove(spectator);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Removes a spectator from the feed.
+     *
+     * @param spectator Spectator to remove
+     */
+
+    public void unsubscribe(Spectator spectator) {
+        spectators.remove(spectator);
+    }
+
+    /**
+     * Disconnects every spectator once the table has closed.
+     */
+
+    public void close() {
+        closed = true;
+        for (Spectator spectator : spectators) {
+            spectator.close();
+        }
+    }
+
+    /**
+     * Returns the number of spectators watching the table.
+     *
+     * @return the number of spectators watching the table
+     */
+
+    public int numSpectators() {
+        return spectators.size();
+    }
+
+    /**
+     * Encodes a message into a frame.
+     *
+     * @param message Message to encode
+     * @return the frame holding the message
+     */
+
+    private static byte[] encode(String message) {
+        return (message + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
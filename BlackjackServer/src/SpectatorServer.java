@@ -0,0 +1,102 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * SpectatorServer objects allow clients to connect to watch a table without taking a seat.
+ *
+ * @author Jordan Segalman
+ */
+
+public class SpectatorServer implements Runnable {
+    private static final int MAXIMUM_LINE_LENGTH = 64;      // most bytes allowed in a watch request
+    private static final int REQUEST_TIMEOUT = 5000;        // milliseconds a spectator is given to send its watch request
+    private int spectatorPort;  // port spectators connect to
+    private Lobby lobby;        // lobby holding the live tables
+
+    /**
+     * Constructor for SpectatorServer object.
+     *
+     * @param spectatorPort Port spectators connect to
+     * @param lobby Lobby holding the live tables
+     */
+
+    public SpectatorServer(int spectatorPort, Lobby lobby) {
+        this.spectatorPort = spectatorPort;
+        this.lobby = lobby;
+    }
+
+    /**
+     * Spectator server thread run method.
+     */
+
+    @Override
+    public void run() {
+        try (ServerSocket serverSocket = new ServerSocket(spectatorPort)) {
+            Log.info("Listening for spectators on port {}", spectatorPort);
+            while (true) {
+                Socket socket = serverSocket.accept();
+                new Thread(() -> watch(socket)).start();
+            }
+        } catch (IOException e) {
+            Log.error("Could not accept spectators on port {}", spectatorPort);
+        }
+    }
+
+    /**
+     * Reads which table a spectator wants to watch and starts streaming it.
+     * The request is read through a bounded LineDecoder and must arrive
+     * within the request timeout, so a connection that sends nothing or
+     * an endless line cannot hold a thread.
+     *
+     * @param socket Socket to the spectator
+     */
+
+    private void watch(Socket socket) {
+        try {
+            LineDecoder in = new LineDecoder(socket.getInputStream(), MAXIMUM_LINE_LENGTH);    // in to spectator
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);                  // out from spectator
+            socket.setSoTimeout(REQUEST_TIMEOUT);
+            String request = in.readLine();     // table the spectator wants to watch
+            socket.setSoTimeout(0);
+            String[] requestComponents = request == null ? new String[0] : request.split("--");
+            Table table = null;                 // table to watch
+            if (requestComponents.length == 3 && requestComponents[0].equals("SPECTATORMESSAGE") && requestComponents[1].equals("WATCH")) {
+                try {
+                    table = lobby.table(Integer.parseInt(requestComponents[2]));
+                } catch (NumberFormatException e) {
+                    table = null;
+                }
+            }
+            if (table == null) {
+                out.println("SPECTATORMESSAGE--NOTABLE");
+                socket.close();
+                return;
+            }
+            out.println("SPECTATORMESSAGE--WATCHING--" + table.id());
+            new Spectator(socket, table.spectators()).run();
+        } catch (SocketTimeoutException | LineDecoder.FrameException e) {
+            Log.warn("Disconnecting spectator on port {} that sent no valid watch request", socket.getPort());
+            close(socket);
+        } catch (IOException e) {
+            Log.error("Spectator connection failed", e);
+            close(socket);
+        }
+    }
+
+    /**
+     * Closes the socket to a spectator that is not watching a table.
+     *
+     * @param socket Socket to the spectator
+     */
+
+    private void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Log.error("Could not close spectator connection", e);
+        }
+    }
+}
@@ -1,5 +1,13 @@
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Table objects represent a Blackjack table that players can join.
@@ -7,10 +15,40 @@ import java.util.concurrent.CountDownLatch;
  * @author Jordan Segalman
  */
 
-public class Table implements Runnable {
+public class Table {
     private static final int MAXIMUM_SCORE = 21;                            // maximum score before bust
     private static final int DEALER_HIT_THRESHOLD = 17;                     // score that dealer stands on
-    private ArrayList<Player> table = new ArrayList<>();                    // holds the players at the table
+    private ArrayList<Seat> table = new ArrayList<>();                      // holds the players and bots at the table
+    private ConcurrentLinkedQueue<Seat> arrivingPlayers = new ConcurrentLinkedQueue<>();    // holds players and bots waiting to be dealt into the next round
+    private AtomicInteger reservedSeats = new AtomicInteger();              // number of seats taken or reserved, -1 once the table has closed
+    private AtomicBoolean started = new AtomicBoolean();                    // true once the table has been started
+    private AtomicBoolean signalled = new AtomicBoolean();                  // true if the table is queued to be advanced on its shard
+    private volatile boolean draining;                                      // true once the table has been asked to finish its round and close
+    private volatile String migrationTarget;                                // admin address of the server the table is moving to as host:adminPort, null if it is not moving
+    private CompletableFuture<String> migrationSend;                        // address players connect to on the new server once it has taken the table, null if the table is not being sent
+    private ArrayList<Seat> movingPlayers;                                  // players and bots being sent with the table
+    private ArrayList<Seat> movingArrivals;                                 // players and bots being sent that were waiting to be dealt in
+    private long migrationStart;                                            // time the table started being sent in nanoseconds
+    private SchedulerShard shard;                                           // scheduler shard that runs the table
+    private Phase phase = Phase.WAITING_TO_START;                           // current phase of the round
+    private volatile TableSnapshot snapshot;                                // state of the table as of the last phase change, read by other threads
+    private int currentTurn;                                                // index of the player taking their turn
+    private int roundNumber;                                                // number of the current round
+    private SpectatorFeed spectators = new SpectatorFeed();                 // feed of table events sent to spectators
+    private HandHistoryRecorder handHistoryRecorder;                        // recorder that writes finished rounds, null if rounds are not recorded
+    private HandHistory handHistory;                                        // record of the current round
+    private boolean reshuffled;                                             // true if the shoe was reshuffled since the last round started
+    private WalletStore wallet;                                             // store that keeps player balances, null if balances are not kept
+    private TableCheckpointStore checkpointStore;                           // store that keeps round checkpoints, null if rounds are not checkpointed
+    private int checkpointSlot = -1;                                        // slot the table writes its checkpoints to, -1 if it has none
+    private ByteBuffer checkpoint;                                          // buffer used to encode checkpoints
+    private RoundTimings timings = new RoundTimings();                      // latency histograms of the table's rounds
+    private long roundStart;                                                // time the current round started in nanoseconds
+    private long stageStart;                                                // time the current timed stage started in nanoseconds
+    private GameEvents.Round roundEvent;                                    // flight recorder event spanning the current round
+    private int id;                                                         // id of the table
+    private int seats;                                                      // number of seats at the table
+    private Lobby lobby;                                                    // lobby that placed players at the table
     private int minimumBet;                                                 // minimum player bet
     private int numberOfDecks;                                              // number of decks in shoe
     private int minimumCardsBeforeShuffle;                                  // minimum number of cards remaining before shuffling the shoe
@@ -20,79 +58,426 @@ public class Table implements Runnable {
     private CountDownLatch placedBetsLatch;                                 // latch to wait for all players to place their bets
     private CountDownLatch placedInsuranceBetsLatch;                        // latch to wait for all players to place their insurance bets
     private CountDownLatch turnLatch;                                       // latch to wait for all players to be ready for their turns
+    private CountDownLatch playerTurnLatch;                                 // latch to wait for the current player to finish their turn
     private CountDownLatch continuePlayingLatch;                            // latch to wait for all players to determine if they will keep playing
 
     /**
      * Constructor for Table object.
      *
+     * @param id Id of the table
+     * @param seats Number of seats at the table
      * @param minimumBet Minimum player bet
+     * @param numberOfDecks Number of decks in shoe
+     * @param minimumCardsBeforeShuffle Minimum number of cards remaining before shuffling the shoe
+     * @param lobby Lobby that places players at the table
+     * @param scheduler Scheduler that pins the table to a shard
+     * @param handHistoryRecorder Recorder that writes finished rounds, null if rounds are not recorded
+     * @param wallet Store that keeps player balances, null if balances are not kept
+     * @param checkpointStore Store that keeps round checkpoints, null if rounds are not checkpointed
      */
 
-    public Table(int minimumBet, int numberOfDecks, int minimumCardsBeforeShuffle) {
+    public Table(int id, int seats, int minimumBet, int numberOfDecks, int minimumCardsBeforeShuffle, Lobby lobby, TableScheduler scheduler, HandHistoryRecorder handHistoryRecorder, WalletStore wallet, TableCheckpointStore checkpointStore) {
+        this.id = id;
+        this.seats = seats;
+        this.lobby = lobby;
+        shard = scheduler.register(this);
+        this.handHistoryRecorder = handHistoryRecorder;
+        handHistory = new HandHistory(handHistoryRecorder != null);
+        this.wallet = wallet;
+        this.checkpointStore = checkpointStore;
+        if (checkpointStore != null) {
+            checkpointSlot = checkpointStore.allocateSlot();
+            checkpoint = TableCheckpointStore.newBuffer();
+        }
         this.minimumBet = minimumBet;
         this.numberOfDecks = numberOfDecks;
         this.minimumCardsBeforeShuffle = minimumCardsBeforeShuffle;
+        snapshot = new TableSnapshot(id, roundNumber, phase, dealerHand, table, null);
+        spectators.publishSnapshot(snapshot);
     }
 
     /**
-     * Table thread run method.
+     * Phases of a round of Blackjack.
      */
 
-    @Override
-    public void run() {
-        shoe = new Shoe(numberOfDecks);
-        shoe.shuffle();
-        do {
-            playBlackjack();
-        } while (numPlayers() > 0);
+    public enum Phase {
+        WAITING_TO_START, BETTING, INSURANCE, READY_FOR_TURNS, PLAYER_TURNS, CONTINUE_PLAYING, CLOSED
     }
 
     /**
-     * Plays Blackjack.
+     * Starts the table on its scheduler shard if it has not already been started.
      */
 
-    private void playBlackjack() {
-        setup();
-        for (Player player : table) {
-            player.startLatchCountDown();
+    public void start() {
+        if (started.compareAndSet(false, true)) {
+            if (shoe == null) {
+                newShoe();
+            }
+            setPhase(Phase.WAITING_TO_START);
+            signal();
         }
-        try {
-            placedBetsLatch.await();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    }
+
+    /**
+     * Asks the table to finish the round in progress and close instead
+     * of starting another. Players are not asked whether they want to
+     * keep playing, and players still waiting to be dealt in are sent
+     * away once the round is over. A table that has not started yet is
+     * started so that it can close.
+     */
+
+    public void drain() {
+        draining = true;
+        if (!started.get()) {
+            start();
+        } else {
+            signal();
+        }
+    }
+
+    /**
+     * Asks the table to move to another server once its round is over.
+     * Players are asked whether they want to keep playing as usual, and
+     * everyone staying is moved with the table before the next round.
+     * If the other server cannot take the table, it drains instead.
+     *
+     * @param target Admin address of the server to move to as host:adminPort
+     */
+
+    public void migrate(String target) {
+        migrationTarget = target;
+        if (!started.get()) {
+            start();
+        } else {
+            signal();
+        }
+    }
+
+    /**
+     * Carries on a table that moved here from another server, dealing
+     * from its shoe and numbering its rounds where it left off. Called
+     * before the table is started.
+     *
+     * @param shoe Shoe the table was dealing from
+     * @param roundNumber Number of the last round played at the table
+     */
+
+    public void restore(Shoe shoe, int roundNumber) {
+        this.shoe = shoe;
+        this.roundNumber = roundNumber;
+    }
+
+    /**
+     * Queues the table to be advanced on its scheduler shard. Signals
+     * that arrive while the table is already queued are merged.
+     */
+
+    private void signal() {
+        if (started.get() && signalled.compareAndSet(false, true)) {
+            shard.execute(this::advance);
         }
-        for (Player player : table) {
-            player.betLatchCountDown();
+    }
+
+    /**
+     * Advances the round as far as it can go without waiting on a player.
+     * Only called on the scheduler shard thread.
+     */
+
+    private void advance() {
+        signalled.set(false);
+        while (true) {
+            switch (phase) {
+                case WAITING_TO_START:
+                    if (migrationSend != null) {
+                        if (!migrationSend.isDone()) {
+                            return;     // the table is being sent, and is signalled once the new server answers
+                        }
+                        if (finishMigration()) {
+                            break;      // players who arrived while the table was being sent are sent after it
+                        }
+                        draining = true;
+                    } else if (migrationTarget != null && !draining) {
+                        if (startMigration()) {
+                            return;     // the table is being sent, and is signalled once the new server answers
+                        }
+                        if (!reservedSeats.compareAndSet(0, -1)) {
+                            return;     // a player with a reserved seat has not arrived yet, and is moved when they do
+                        }
+                        close();
+                        break;
+                    }
+                    if (draining) {
+                        releasePlayers();
+                        if (!reservedSeats.compareAndSet(0, -1)) {
+                            return;     // a player with a reserved seat has not arrived yet, and is sent away when they do
+                        }
+                        close();
+                        break;
+                    }
+                    if (numPlayers() == 0 && arrivingPlayers.isEmpty()) {
+                        return;     // a player with a reserved seat has not arrived yet, and signals the table when they do
+                    }
+                    roundStart = System.nanoTime();
+                    setup();
+                    for (Seat player : table) {
+                        player.roundStarted();
+                    }
+                    stageStart = System.nanoTime();
+                    setPhase(Phase.BETTING);
+                    break;
+                case BETTING:
+                    if (placedBetsLatch.getCount() > 0) {
+                        return;
+                    }
+                    long dealStart = System.nanoTime();     // time dealing started in nanoseconds
+                    recordTiming(RoundTimings.Stage.BETS, dealStart - stageStart);
+                    for (Seat player : table) {
+                        player.betsPlaced();
+                    }
+                    dealInitialCards();
+                    for (Seat player : table) {
+                        player.cardsDealt();
+                    }
+                    stageStart = System.nanoTime();
+                    recordTiming(RoundTimings.Stage.DEAL, stageStart - dealStart);
+                    setPhase(Phase.INSURANCE);
+                    break;
+                case INSURANCE:
+                    if (placedInsuranceBetsLatch.getCount() > 0) {
+                        return;
+                    }
+                    for (Seat player : table) {
+                        player.insuranceBetsPlaced();
+                    }
+                    setPhase(Phase.READY_FOR_TURNS);
+                    break;
+                case READY_FOR_TURNS:
+                    if (turnLatch.getCount() > 0) {
+                        return;
+                    }
+                    currentTurn = -1;
+                    playerTurnLatch = new CountDownLatch(0);
+                    long turnsStart = System.nanoTime();    // time the player turns started in nanoseconds
+                    recordTiming(RoundTimings.Stage.INSURANCE, turnsStart - stageStart);
+                    stageStart = turnsStart;
+                    setPhase(Phase.PLAYER_TURNS);
+                    break;
+                case PLAYER_TURNS:
+                    if (playerTurnLatch.getCount() > 0) {
+                        return;
+                    }
+                    long turnEnd = System.nanoTime();       // time the last turn ended in nanoseconds
+                    if (currentTurn >= 0) {
+                        recordTiming(RoundTimings.Stage.PLAYER_TURN, turnEnd - stageStart);
+                    }
+                    stageStart = turnEnd;
+                    currentTurn++;
+                    if (currentTurn < numPlayers()) {
+                        playerTurnLatch = new CountDownLatch(1);
+                        table.get(currentTurn).turnStarted();
+                    } else {
+                        dealerTurn();
+                        stageStart = System.nanoTime();
+                        recordTiming(RoundTimings.Stage.DEALER_TURN, stageStart - turnEnd);
+                        setPhase(Phase.CONTINUE_PLAYING);
+                        for (Seat player : new ArrayList<>(table)) {
+                            player.dealerTurnFinished();
+                        }
+                    }
+                    break;
+                case CONTINUE_PLAYING:
+                    if (continuePlayingLatch.getCount() > 0) {
+                        return;
+                    }
+                    long roundEnd = System.nanoTime();      // time the round ended in nanoseconds
+                    recordTiming(RoundTimings.Stage.CONTINUE_PLAYING, roundEnd - stageStart);
+                    recordTiming(RoundTimings.Stage.ROUND, roundEnd - roundStart);
+                    lobby.directory().roundFinished(this, roundEnd - roundStart);
+                    roundEvent.commit();
+                    lobby.metrics().roundFinished();
+                    if (handHistoryRecorder != null) {
+                        handHistoryRecorder.record(handHistory.finishRound());
+                    }
+                    if (wallet != null) {
+                        wallet.closeRound(roundId());
+                    }
+                    if (numPlayers() > 0 || !reservedSeats.compareAndSet(0, -1)) {
+                        setPhase(Phase.WAITING_TO_START);
+                        signal();   // a table of bots never waits, so the shard is handed to its other tables between rounds
+                        return;
+                    } else {
+                        close();
+                    }
+                    break;
+                case CLOSED:
+                    return;
+            }
         }
-        dealInitialCards();
-        for (Player player : table) {
-            player.dealLatchCountDown();
+    }
+
+    /**
+     * Closes the table once no seat is taken or reserved.
+     */
+
+    private void close() {
+        setPhase(Phase.CLOSED);
+        shard.removeTable(this);
+        if (checkpointStore != null) {
+            checkpointStore.releaseSlot(checkpointSlot);
         }
-        try {
-            placedInsuranceBetsLatch.await();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        lobby.tableClosed(this);
+        spectators.close();
+    }
+
+    /**
+     * Frees the seats of every player and bot at a draining table,
+     * including those waiting to be dealt in, and tells them they will
+     * not be dealt another round.
+     */
+
+    private void releasePlayers() {
+        ArrayList<Seat> leavingPlayers;     // players and bots leaving the table
+        synchronized (table) {
+            leavingPlayers = new ArrayList<>(table);
+            table.clear();
         }
-        for (Player player : table) {
-            player.insuranceBetLatchCountDown();
+        Seat arrivingPlayer;    // player or bot waiting to be dealt into the round
+        while ((arrivingPlayer = arrivingPlayers.poll()) != null) {
+            leavingPlayers.add(arrivingPlayer);
         }
-        try {
-            turnLatch.await();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        reservedSeats.addAndGet(-leavingPlayers.size());
+        lobby.directory().seatsChanged(this);
+        for (Seat player : leavingPlayers) {
+            player.tableDrained();
+        }
+    }
+
+    /**
+     * Starts sending the table and everyone in its seats, including those
+     * waiting to be dealt in, to the server it is moving to. The state is
+     * taken on the table's own thread between rounds, when every player
+     * is waiting for the next round to start, and is sent on another
+     * thread so the shard keeps running its other tables. The table stays
+     * parked until the new server answers and then is signalled.
+     *
+     * @return true if the table is being sent, false if it had no one to move
+     */
+
+    private boolean startMigration() {
+        synchronized (table) {
+            movingPlayers = new ArrayList<>(table);
+        }
+        movingArrivals = new ArrayList<>();
+        Seat arrivingPlayer;    // player or bot waiting to be dealt into the round
+        while ((arrivingPlayer = arrivingPlayers.poll()) != null) {
+            movingArrivals.add(arrivingPlayer);
         }
-        for (Player player : table) {
-            player.takeTurn(player.originalPlayerHand());
+        movingPlayers.addAll(movingArrivals);
+        if (movingPlayers.isEmpty()) {
+            return false;
         }
-        dealerTurn();
-        for (Player player : table) {
-            player.dealerTurnLatchCountDown();
+        migrationStart = System.nanoTime();
+        TableMigration migration = new TableMigration(seats, minimumBet, numberOfDecks, minimumCardsBeforeShuffle, roundNumber, shoe);   // state of the table
+        for (Seat player : movingPlayers) {
+            player.exportTo(migration);
         }
+        String target = migrationTarget;   // admin address of the server the table is sent to
+        migrationSend = CompletableFuture.supplyAsync(() -> {
+            try {
+                return migration.send(target);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, lobby.migrationSender());
+        migrationSend.whenComplete((address, e) -> signal());
+        return true;
+    }
+
+    /**
+     * Finishes sending the table once the new server has answered. If it
+     * took the table, the seats of everyone sent are freed here and they
+     * are told where the table went. Players are only released once the
+     * new server has confirmed it holds their seats.
+     *
+     * @return true if the table was moved, false if the other server could not take it
+     */
+
+    private boolean finishMigration() {
+        String address;     // address players connect to on the new server
         try {
-            continuePlayingLatch.await();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+            address = migrationSend.join();
+        } catch (CompletionException e) {
+            Log.error("Could not move table " + id + " to " + migrationTarget + ", draining it instead", e.getCause());
+            arrivingPlayers.addAll(movingArrivals);
+            return false;
+        } finally {
+            migrationSend = null;
+        }
+        synchronized (table) {
+            table.clear();
+        }
+        reservedSeats.addAndGet(-movingPlayers.size());
+        lobby.directory().seatsChanged(this);
+        for (Seat player : movingPlayers) {
+            player.tableMigrated(address);
+        }
+        lobby.tableMigrated(this, movingPlayers.size(), address, System.nanoTime() - migrationStart);
+        return true;
+    }
+
+    /**
+     * Moves the round to a new phase and publishes a snapshot of the
+     * table for other threads and spectators to read.
+     *
+     * @param newPhase Phase the round is moving to
+     */
+
+    private void setPhase(Phase newPhase) {
+        phase = newPhase;
+        if (checkpointStore != null && phase != Phase.WAITING_TO_START && phase != Phase.CLOSED) {
+            writeCheckpoint();
+        }
+        synchronized (table) {
+            snapshot = new TableSnapshot(id, roundNumber, phase, dealerHand, table, snapshot);
+        }
+        spectators.publishSnapshot(snapshot);
+    }
+
+    /**
+     * Writes a checkpoint of the round to the table's slot. Player hands are
+     * only included once the dealer's turn is over, since before then the
+     * players may be changing them on their own threads. The fixed fields
+     * are written at the offsets TableCheckpointStore reads them from.
+     */
+
+    private void writeCheckpoint() {
+        checkpoint.clear();
+        checkpoint.putInt(TableCheckpointStore.TABLE_ID_OFFSET, id);
+        checkpoint.putLong(TableCheckpointStore.ROUND_ID_OFFSET, roundId());
+        checkpoint.put(TableCheckpointStore.PHASE_OFFSET, (byte) phase.ordinal());
+        checkpoint.putInt(TableCheckpointStore.REMAINING_CARDS_OFFSET, shoe.remainingCards());
+        checkpoint.put(TableCheckpointStore.HANDS_PRESENT_OFFSET, (byte) (phase == Phase.CONTINUE_PLAYING ? 1 : 0));
+        checkpoint.position(TableCheckpointStore.DEALER_OFFSET);
+        checkpoint.put((byte) (dealerHasBlackjack ? 1 : 0));
+        TableCheckpointStore.writeHand(checkpoint, dealerHand);
+        if (phase == Phase.CONTINUE_PLAYING) {
+            int seatsStart = checkpoint.position();     // position of the player hands in the checkpoint
+            try {
+                checkpoint.put((byte) numPlayers());
+                for (Seat player : table) {
+                    checkpoint.putLong(player.account());
+                    checkpoint.put((byte) (player.hasBlackjack() ? 1 : 0));
+                    checkpoint.put((byte) player.playerHands().size());
+                    for (BlackjackHand hand : player.playerHands()) {
+                        TableCheckpointStore.writeHand(checkpoint, hand);
+                    }
+                }
+            } catch (BufferOverflowException e) {
+                checkpoint.put(TableCheckpointStore.HANDS_PRESENT_OFFSET, (byte) 0);
+                checkpoint.position(seatsStart);
+            }
         }
+        checkpointStore.write(checkpointSlot, checkpoint);
     }
 
     /**
@@ -100,10 +485,28 @@ public class Table implements Runnable {
      */
 
     private void setup() {
+        Seat arrivingPlayer;    // player or bot waiting to be dealt into the round
+        while ((arrivingPlayer = arrivingPlayers.poll()) != null) {
+            synchronized (table) {
+                table.add(arrivingPlayer);
+            }
+            lobby.playerSeated(arrivingPlayer);
+        }
+        for (int i = 0; i < numPlayers(); i++) {
+            table.get(i).setSeat(i);
+        }
+        roundNumber++;
+        roundEvent = new GameEvents.Round();
+        roundEvent.begin();
+        roundEvent.tableId = id;
+        roundEvent.roundNumber = roundNumber;
+        roundEvent.players = numPlayers();
+        publish("TABLEMESSAGE--NEWROUND--" + roundNumber + "--" + numPlayers());
         if (shoe.remainingCards() <= minimumCardsBeforeShuffle) {
-            shoe = new Shoe(numberOfDecks);
-            shoe.shuffle();
+            newShoe();
         }
+        handHistory.startRound(id, roundNumber, shoe.remainingCards(), reshuffled);
+        reshuffled = false;
         dealerHand.clear();
         dealerHasBlackjack = false;
         placedBetsLatch = new CountDownLatch(numPlayers());
@@ -119,13 +522,21 @@ public class Table implements Runnable {
     private void dealInitialCards() {
         for (int i = 0; i < 2; i++) {
             dealerHand.addCard(dealCard());
-            for (Player player : table) {
+            handHistory.dealerCard(dealerHand.getCard(i));
+            for (Seat player : table) {
                 player.originalPlayerHand().addCard(dealCard());
+                handHistory.playerCard(player.seat(), 0, player.originalPlayerHand().getCard(i));
             }
         }
         if (dealerHand.blackjackValue() == MAXIMUM_SCORE) {
             dealerHasBlackjack = true;
         }
+        publish("TABLEMESSAGE--DEALERCARD--" + dealerHand.getCard(0));
+        for (Seat player : table) {
+            for (int i = 0; i < player.originalPlayerHand().size(); i++) {
+                publish("TABLEMESSAGE--PLAYERCARD--" + player.seat() + "--0--" + player.originalPlayerHand().getCard(i));
+            }
+        }
     }
 
     /**
@@ -135,37 +546,237 @@ public class Table implements Runnable {
     private void dealerTurn() {
         while ((dealerHand.isSoft() && dealerHand.blackjackValue() == DEALER_HIT_THRESHOLD) || dealerHand.blackjackValue() < DEALER_HIT_THRESHOLD) {
             dealerHand.addCard(dealCard());
+            handHistory.dealerCard(dealerHand.getCard(dealerHand.size() - 1));
+        }
+        for (int i = 1; i < dealerHand.size(); i++) {
+            publish("TABLEMESSAGE--DEALERCARD--" + dealerHand.getCard(i));
+        }
+        publish("TABLEMESSAGE--DEALERHANDVALUE--" + dealerHand.blackjackValue());
+    }
+
+    /**
+     * Reserves a seat at the table for a new player.
+     *
+     * @return true if a seat was reserved, false if the table is full or closed
+     */
+
+    public boolean reserveSeat() {
+        int taken;  // number of seats taken or reserved
+        do {
+            taken = reservedSeats.get();
+            if (taken < 0 || taken >= seats) {
+                return false;
+            }
+        } while (!reservedSeats.compareAndSet(taken, taken + 1));
+        lobby.directory().seatsChanged(this);
+        return true;
+    }
+
+    /**
+     * Adds a player with a reserved seat to the table. The player
+     * is dealt in at the start of the next round, or sent away if the
+     * table is draining or moving. The table is signalled in case it is
+     * waiting with no one seated for the player to arrive.
+     *
+     * @param player Player or bot to add to table
+     */
+
+    public void addPlayer(Seat player) {
+        arrivingPlayers.add(player);
+        signal();
+    }
+
+    /**
+     * Removes a player from the table and frees their seat.
+     *
+     * @param player Player or bot to remove from table
+     */
+
+    public void removePlayer(Seat player) {
+        synchronized (table) {
+            table.remove(player);
         }
+        reservedSeats.decrementAndGet();
+        lobby.directory().seatsChanged(this);
+        lobby.seatFreed();
+    }
+
+    /**
+     * Returns whether or not the table has been asked to finish its round and close.
+     *
+     * @return true if the table is draining, false if not
+     */
+
+    public boolean draining() {
+        return draining;
+    }
+
+    /**
+     * Returns the number of open seats at the table.
+     *
+     * @return the number of open seats at the table, 0 if the table has closed
+     */
+
+    public int openSeats() {
+        int taken = reservedSeats.get();    // number of seats taken or reserved
+        return taken < 0 ? 0 : seats - taken;
+    }
+
+    /**
+     * Sends a table event to the spectators watching the table.
+     *
+     * @param event Event to send
+     */
+
+    public void publish(String event) {
+        spectators.publish(event);
+    }
+
+    /**
+     * Returns the record of the current round.
+     *
+     * @return the record of the current round
+     */
+
+    public HandHistory handHistory() {
+        return handHistory;
+    }
+
+    /**
+     * Records the time a stage of a round took in the table's histograms
+     * and in the lobby's histograms for every table.
+     *
+     * @param stage Stage that was timed
+     * @param nanos Time the stage took in nanoseconds
+     */
+
+    public void recordTiming(RoundTimings.Stage stage, long nanos) {
+        timings.record(stage, nanos);
+        lobby.timings().record(stage, nanos);
+    }
+
+    /**
+     * Returns the counters of server activity.
+     *
+     * @return the counters of server activity
+     */
+
+    public ServerMetrics metrics() {
+        return lobby.metrics();
+    }
+
+    /**
+     * Returns the latency histograms of the table's rounds.
+     *
+     * @return the latency histograms of the table's rounds
+     */
+
+    public RoundTimings timings() {
+        return timings;
+    }
+
+    /**
+     * Returns the feed of table events sent to spectators.
+     *
+     * @return the feed of table events sent to spectators
+     */
+
+    public SpectatorFeed spectators() {
+        return spectators;
     }
 
     /**
-     * Adds a player to the table.
+     * Returns the number of seats at the table.
      *
-     * @param player Player to add to table
+     * @return the number of seats at the table
      */
 
-    public void addPlayer(Player player) {
-        table.add(player);
+    public int seats() {
+        return seats;
     }
 
     /**
-     * Removes a player from the table.
+     * Returns the number of decks in the shoe.
      *
-     * @param player Player to remove from table
+     * @return the number of decks in the shoe
      */
 
-    public void removePlayer(Player player) {
-        table.remove(player);
+    public int numberOfDecks() {
+        return numberOfDecks;
     }
 
     /**
-     * Returns the number of players at the table.
+     * Returns the scheduler shard that runs the table.
+     *
+     * @return the scheduler shard that runs the table
+     */
+
+    public SchedulerShard shard() {
+        return shard;
+    }
+
+    /**
+     * Returns the id of the current round, unique across tables.
+     *
+     * @return the id of the current round
+     */
+
+    public long roundId() {
+        return ((long) id << 32) | roundNumber;
+    }
+
+    /**
+     * Returns the id of the table.
+     *
+     * @return the id of the table
+     */
+
+    public int id() {
+        return id;
+    }
+
+    /**
+     * Returns the number of players at the table. Read under the lock on
+     * the seats, since player and bot threads ask while the table's own
+     * thread is seating and removing players.
      *
      * @return the number of players at the table
      */
 
     public int numPlayers() {
-        return table.size();
+        synchronized (table) {
+            return table.size();
+        }
+    }
+
+    /**
+     * Returns the number of players at the table that are not house bots.
+     *
+     * @return the number of connected players at the table
+     */
+
+    public int numHumans() {
+        int humans = 0; // number of connected players
+        synchronized (table) {
+            for (Seat player : table) {
+                if (!player.isBot()) {
+                    humans++;
+                }
+            }
+        }
+        return humans;
+    }
+
+    /**
+     * Returns the state of the table as of the last phase change. Never
+     * blocks and never touches the objects the table is changing, so any
+     * thread can call it at any time.
+     *
+     * @return the latest snapshot of the table
+     */
+
+    public TableSnapshot snapshot() {
+        return snapshot;
     }
 
     /**
@@ -216,18 +827,35 @@ public class Table implements Runnable {
 
     public Card dealCard() {
         if (shoe.remainingCards() == 0) {
-            shoe = new Shoe(numberOfDecks);
-            shoe.shuffle();
+            newShoe();
         }
         return shoe.dealCard();
     }
 
+    /**
+     * Replaces the shoe with a newly shuffled one.
+     */
+
+    private void newShoe() {
+        GameEvents.Reshuffle reshuffleEvent = new GameEvents.Reshuffle();   // flight recorder event spanning the reshuffle
+        reshuffleEvent.begin();
+        reshuffleEvent.tableId = id;
+        reshuffleEvent.remainingCards = shoe == null ? 0 : shoe.remainingCards();
+        reshuffleEvent.decks = numberOfDecks;
+        shoe = new Shoe(numberOfDecks);
+        shoe.shuffle();
+        reshuffled = true;
+        reshuffleEvent.commit();
+        lobby.metrics().reshuffled();
+    }
+
     /**
      * Decrements the placed bets latch.
      */
 
     public void placedBetsLatchCountDown() {
         placedBetsLatch.countDown();
+        signal();
     }
 
     /**
@@ -236,6 +864,7 @@ public class Table implements Runnable {
 
     public void placedInsuranceBetsLatchCountDown() {
         placedInsuranceBetsLatch.countDown();
+        signal();
     }
 
     /**
@@ -244,6 +873,16 @@ public class Table implements Runnable {
 
     public void turnLatchCountDown() {
         turnLatch.countDown();
+        signal();
+    }
+
+    /**
+     * Decrements the player turn latch once the current player has finished their turn.
+     */
+
+    public void playerTurnLatchCountDown() {
+        playerTurnLatch.countDown();
+        signal();
     }
 
     /**
@@ -252,5 +891,6 @@ public class Table implements Runnable {
 
     public void continuePlayingLatchCountDown() {
         continuePlayingLatch.countDown();
+        signal();
     }
 }
\ No newline at end of file
@@ -0,0 +1,267 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * TableCheckpointStore objects keep the state of every table's current round
+ * in a memory-mapped file of fixed slots, one slot per table. Tables overwrite
+ * their slot at each phase boundary. Checkpoints are not forced to disk since
+ * the page cache survives the server process dying. On startup the checkpoints
+ * are matched against the rounds the wallet journal shows were interrupted, and
+ * each round is either finished or voided and refunded.
+ *
+ * @author Jordan Segalman
+ */
+
+public class TableCheckpointStore {
+    private static final int SLOT_SIZE = 4096;                              // bytes in a checkpoint slot
+    private static final int NUM_SLOTS = 8192;                              // number of checkpoint slots
+    private static final int HEADER_SIZE = 8;                               // bytes before the checkpoint in a slot
+    public static final int TABLE_ID_OFFSET = 0;                            // position of the table id in a checkpoint
+    public static final int ROUND_ID_OFFSET = 4;                            // position of the round id in a checkpoint
+    public static final int PHASE_OFFSET = 12;                              // position of the phase in a checkpoint
+    public static final int REMAINING_CARDS_OFFSET = 13;                    // position of the number of cards left in the shoe in a checkpoint
+    public static final int HANDS_PRESENT_OFFSET = 17;                      // position of the flag saying whether the player hands are included
+    public static final int DEALER_OFFSET = 18;                             // position of the dealer's Blackjack flag, followed by the dealer hand and the seats
+    private MappedByteBuffer checkpoints;                                   // memory-mapped checkpoint slots
+    private ConcurrentLinkedQueue<Integer> freeSlots = new ConcurrentLinkedQueue<>();  // holds the slots not used by a table
+    private HashMap<Long, ByteBuffer> recoveredCheckpoints = new HashMap<>();          // holds the checkpoints found on startup by round id
+    private AtomicInteger nextSlot = new AtomicInteger();                   // next slot never used by a table
+    private AtomicLong checkpointsWritten = new AtomicLong();                // number of checkpoints written
+    private AtomicLong checkpointTime = new AtomicLong();                   // nanoseconds spent writing checkpoints
+
+    /**
+     * Constructor for TableCheckpointStore object. Reads the checkpoints
+     * left behind by the previous server process.
+     *
+     * @param directory Directory holding the checkpoint file
+     * @throws IOException if the checkpoint file cannot be opened
+     */
+
+    public TableCheckpointStore(File directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(new File(directory, "tables.checkpoint").toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            checkpoints = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) SLOT_SIZE * NUM_SLOTS);
+        }
+        for (int slot = 0; slot < NUM_SLOTS; slot++) {
+            ByteBuffer checkpoint = readSlot(slot);     // checkpoint in the slot
+            if (checkpoint != null) {
+                recoveredCheckpoints.put(checkpoint.getLong(ROUND_ID_OFFSET), checkpoint);
+            }
+        }
+    }
+
+    /**
+     * Gives a table a slot to write its checkpoints to.
+     *
+     * @return the slot, -1 if every slot is in use
+     */
+
+    public int allocateSlot() {
+        Integer slot = freeSlots.poll();    // slot freed by a closed table
+        if (slot != null) {
+            return slot;
+        }
+        int newSlot = nextSlot.getAndIncrement();   // slot never used by a table
+        return newSlot < NUM_SLOTS ? newSlot : -1;
+    }
+
+    /**
+     * Clears the slot of a closed table and makes it available to new tables.
+     *
+     * @param slot Slot of the table
+     */
+
+    public void releaseSlot(int slot) {
+        if (slot >= 0) {
+            checkpoints.putInt(slot * SLOT_SIZE, 0);
+            freeSlots.add(slot);
+        }
+    }
+
+    /**
+     * Overwrites the checkpoint in a slot. Only called by the table owning the slot.
+     *
+     * @param slot Slot of the table
+     * @param checkpoint Buffer holding the encoded checkpoint from position 0 to its position
+     */
+
+    public void write(int slot, ByteBuffer checkpoint) {
+        if (slot < 0) {
+            return;
+        }
+        long writeStart = System.nanoTime();    // time the write started in nanoseconds
+        int length = checkpoint.position();     // bytes in the checkpoint
+        CRC32 checksum = new CRC32();           // checksum of the checkpoint
+        checksum.update(checkpoint.array(), 0, length);
+        ByteBuffer slotBuffer = checkpoints.duplicate();    // view of the slot
+        slotBuffer.position(slot * SLOT_SIZE + HEADER_SIZE);
+        slotBuffer.put(checkpoint.array(), 0, length);
+        slotBuffer.putInt(slot * SLOT_SIZE + 4, (int) checksum.getValue());
+        slotBuffer.putInt(slot * SLOT_SIZE, length);
+        checkpointsWritten.incrementAndGet();
+        checkpointTime.addAndGet(System.nanoTime() - writeStart);
+    }
+
+    /**
+     * Returns a buffer large enough to encode any checkpoint that fits in a slot.
+     *
+     * @return a new checkpoint buffer
+     */
+
+    public static ByteBuffer newBuffer() {
+        return ByteBuffer.allocate(SLOT_SIZE - HEADER_SIZE);
+    }
+
+    /**
+     * Finishes or voids every round the wallet journal shows was interrupted.
+     * A round is finished when its table checkpointed it after the dealer's
+     * turn, by settling the hands that were not yet settled. Any other round
+     * is voided by refunding what each player lost in it. Every slot is
+     * cleared afterwards. Must be called before any table is created.
+     *
+     * @param wallet Store that keeps player balances
+     */
+
+    public void recover(WalletStore wallet) {
+        long recoveryStart = System.nanoTime();     // time recovery started in nanoseconds
+        int finishedRounds = 0;                     // number of rounds finished
+        int voidedRounds = 0;                       // number of rounds voided
+        int settledHands = 0;                       // number of hands settled while finishing rounds
+        double refunded = 0;                        // total amount refunded while voiding rounds
+        long ticket = 0;                            // ticket of the latest balance change
+        for (Map.Entry<Long, HashMap<Long, WalletStore.RoundTotal>> round : wallet.interruptedRounds().entrySet()) {
+            long roundId = round.getKey();          // id of the interrupted round
+            ByteBuffer checkpoint = recoveredCheckpoints.get(roundId);  // checkpoint of the round, null if the table did not checkpoint it
+            if (checkpoint != null && checkpoint.get(PHASE_OFFSET) == Table.Phase.CONTINUE_PLAYING.ordinal() && checkpoint.get(HANDS_PRESENT_OFFSET) == 1) {
+                checkpoint.position(DEALER_OFFSET);
+                boolean dealerHasBlackjack = checkpoint.get() == 1;     // true if the dealer had Blackjack, false if did not
+                BlackjackHand dealerHand = readHand(checkpoint);        // final dealer hand
+                int numSeats = checkpoint.get();                        // number of players in the round
+                for (int i = 0; i < numSeats; i++) {
+                    long account = checkpoint.getLong();                // account of the player
+                    boolean hasBlackjack = checkpoint.get() == 1;       // true if the player had Blackjack, false if did not
+                    int numHands = checkpoint.get();                    // number of hands the player had
+                    WalletStore.RoundTotal total = round.getValue().get(account);   // changes the player made in the round
+                    int settlements = total == null ? 0 : total.settlements();     // number of hands already settled
+                    for (int j = 0; j < numHands; j++) {
+                        BlackjackHand hand = readHand(checkpoint);      // hand of the player
+                        Double balance = wallet.balance(account);       // balance of the player
+                        if (j >= settlements && balance != null) {
+                            double payout = hand.payout(dealerHand, hasBlackjack, dealerHasBlackjack);  // amount paid for the hand
+                            ticket = wallet.record(account, roundId, WalletStore.Type.SETTLEMENT, payout, balance + payout);
+                            settledHands++;
+                        }
+                    }
+                }
+                finishedRounds++;
+            } else {
+                for (Map.Entry<Long, WalletStore.RoundTotal> total : round.getValue().entrySet()) {
+                    Double balance = wallet.balance(total.getKey());    // balance of the player
+                    double refund = -total.getValue().net();            // amount the player lost in the round
+                    if (refund != 0 && balance != null) {
+                        ticket = wallet.record(total.getKey(), roundId, WalletStore.Type.REFUND, refund, balance + refund);
+                        refunded += refund;
+                    }
+                }
+                voidedRounds++;
+            }
+            ticket = wallet.closeRound(roundId);
+        }
+        wallet.awaitDurable(ticket);
+        for (int slot = 0; slot < NUM_SLOTS; slot++) {
+            if (checkpoints.getInt(slot * SLOT_SIZE) != 0) {
+                checkpoints.putInt(slot * SLOT_SIZE, 0);
+            }
+        }
+        recoveredCheckpoints.clear();
+        Log.info("Finished " + finishedRounds + " interrupted rounds settling " + settledHands + " hands and voided " + voidedRounds + " refunding " + String.format("%.2f", refunded) + " in " + String.format("%.1f", (System.nanoTime() - recoveryStart) / 1e6) + " ms");
+    }
+
+    /**
+     * Returns the number of checkpoints written.
+     *
+     * @return the number of checkpoints written
+     */
+
+    public long checkpointsWritten() {
+        return checkpointsWritten.get();
+    }
+
+    /**
+     * Returns the average time taken to write a checkpoint.
+     *
+     * @return the average time taken to write a checkpoint in microseconds
+     */
+
+    public double averageCheckpointTime() {
+        long written = checkpointsWritten.get();    // number of checkpoints written
+        return written == 0 ? 0 : checkpointTime.get() / 1000.0 / written;
+    }
+
+    /**
+     * Encodes a hand as its bet followed by its cards.
+     *
+     * @param checkpoint Buffer to encode the hand into
+     * @param hand Hand to encode
+     * @throws BufferOverflowException if the hand does not fit in the buffer
+     */
+
+    public static void writeHand(ByteBuffer checkpoint, BlackjackHand hand) {
+        checkpoint.putDouble(hand.bet());
+        checkpoint.put((byte) hand.size());
+        for (int i = 0; i < hand.size(); i++) {
+            checkpoint.put((byte) hand.getCard(i).code());
+        }
+    }
+
+    /**
+     * Decodes a hand written by writeHand.
+     *
+     * @param checkpoint Buffer to decode the hand from
+     * @return the decoded hand
+     */
+
+    private static BlackjackHand readHand(ByteBuffer checkpoint) {
+        BlackjackHand hand = new BlackjackHand();   // decoded hand
+        hand.placeBet(checkpoint.getDouble());
+        int numCards = checkpoint.get();            // number of cards in the hand
+        for (int i = 0; i < numCards; i++) {
+            hand.addCard(Card.fromCode(checkpoint.get()));
+        }
+        return hand;
+    }
+
+    /**
+     * Reads the checkpoint in a slot.
+     *
+     * @param slot Slot to read
+     * @return a copy of the checkpoint, null if the slot is empty or its checksum does not match
+     */
+
+    private ByteBuffer readSlot(int slot) {
+        int length = checkpoints.getInt(slot * SLOT_SIZE);  // bytes in the checkpoint
+        if (length <= 0 || length > SLOT_SIZE - HEADER_SIZE) {
+            return null;
+        }
+        byte[] checkpoint = new byte[length];               // copy of the checkpoint
+        ByteBuffer slotBuffer = checkpoints.duplicate();    // view of the slot
+        slotBuffer.position(slot * SLOT_SIZE + HEADER_SIZE);
+        slotBuffer.get(checkpoint);
+        CRC32 checksum = new CRC32();                       // checksum of the checkpoint
+        checksum.update(checkpoint, 0, length);
+        if ((int) checksum.getValue() != checkpoints.getInt(slot * SLOT_SIZE + 4)) {
+            return null;
+        }
+        return ByteBuffer.wrap(checkpoint);
+    }
+}
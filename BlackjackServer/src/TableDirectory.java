@@ -0,0 +1,213 @@
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TableDirectory objects keep the listing of live tables that clients
+ * browse before choosing where to sit. Each table has an entry that is
+ * marked changed by whichever thread opens or frees one of its seats or
+ * finishes one of its rounds. The listing sent to clients is encoded
+ * from the entries at most once every refresh interval, and only when
+ * something changed, re-encoding only the entries that changed. Clients
+ * polling the listing only read the cached encoding, so any number of
+ * them can poll without taking a lock or touching a table.
+ *
+ * @author Jordan Segalman
+ */
+
+public class TableDirectory {
+    private static final long REFRESH_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);   // shortest time between encodings of the listing in nanoseconds
+    private static final double ROUND_TIME_SMOOTHING = 0.1;                 // weight of the latest round in each table's average round time
+    private ConcurrentSkipListMap<Integer, Entry> entries = new ConcurrentSkipListMap<>();  // entries of the live tables keyed by table id
+    private AtomicLong changes = new AtomicLong();                          // number of changes made to the entries
+    private volatile Listing listing = new Listing(0, 0, 0, "");            // latest encoded listing
+    private AtomicLong requests = new AtomicLong();                         // number of listings asked for
+    private AtomicLong encodings = new AtomicLong();                        // number of times the listing was encoded
+
+    /**
+     * Listing objects hold an encoded listing and the number of changes it includes.
+     */
+
+    private static class Listing {
+        private long version;                                               // number of changes the listing includes
+        private long time;                                                  // time the listing was encoded in nanoseconds
+        private String message;                                             // listing as a server message
+
+        /**
+         * Constructor for Listing object.
+         *
+         * @param version Number of changes the listing includes
+         * @param time Time the listing was encoded in nanoseconds
+         * @param numTables Number of tables in the listing
+         * @param tables Encoded entries of the tables
+         */
+
+        private Listing(long version, long time, int numTables, String tables) {
+            this.version = version;
+            this.time = time;
+            message = "SERVERMESSAGE--TABLES--" + version + "--" + numTables + tables;
+        }
+    }
+
+    /**
+     * Entry objects hold a table's place in the directory.
+     */
+
+    private static class Entry {
+        private Table table;                                                // table the entry describes
+        private AtomicInteger stamp = new AtomicInteger();                  // number of changes made to the entry
+        private volatile long averageRoundTime;                             // smoothed time of the table's rounds in nanoseconds, 0 before the first round ends
+        private volatile int encodedStamp = -1;                             // stamp of the entry when it was last encoded
+        private volatile String encoded;                                    // entry as encoded in the listing, null before it is first encoded
+
+        /**
+         * Constructor for Entry object.
+         *
+         * @param table Table the entry describes
+         */
+
+        private Entry(Table table) {
+            this.table = table;
+        }
+
+        /**
+         * Returns the entry as encoded in the listing, encoding it again
+         * only if it changed since it was last encoded. The stamp is read
+         * before the table, so an encoding never claims to be newer than
+         * what it shows.
+         *
+         * @return the encoded entry
+         */
+
+        private String encode() {
+            int current = stamp.get();  // changes made to the entry so far
+            if (current != encodedStamp) {
+                encoded = "--" + table.id() + "," + (int) table.minimumBet() + "," + table.numberOfDecks() + "," + table.openSeats() + "," + table.seats() + "," + averageRoundTime / 1000000;
+                encodedStamp = current;
+            }
+            return encoded;
+        }
+    }
+
+    /**
+     * Adds a table that has just opened.
+     *
+     * @param table Table to add
+     */
+
+    public void tableOpened(Table table) {
+        entries.put(table.id(), new Entry(table));
+        changes.incrementAndGet();
+    }
+
+    /**
+     * Removes a table that has closed.
+     *
+     * @param table Table to remove
+     */
+
+    public void tableClosed(Table table) {
+        if (entries.remove(table.id()) != null) {
+            changes.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records that a seat at a table was taken or freed.
+     *
+     * @param table Table whose open seats changed
+     */
+
+    public void seatsChanged(Table table) {
+        Entry entry = entries.get(table.id());  // entry of the table, null if it is not listed
+        if (entry != null) {
+            entry.stamp.incrementAndGet();
+            changes.incrementAndGet();
+        }
+    }
+
+    /**
+     * Adds a finished round to a table's average round time. Only called
+     * on the table's own thread. The listing only changes if the average
+     * moves by at least a millisecond.
+     *
+     * @param table Table that finished the round
+     * @param nanos Time the round took in nanoseconds
+     */
+
+    public void roundFinished(Table table, long nanos) {
+        Entry entry = entries.get(table.id());  // entry of the table, null if it is not listed
+        if (entry == null) {
+            return;
+        }
+        long previous = entry.averageRoundTime;     // average before the round
+        entry.averageRoundTime = previous == 0 ? nanos : previous + (long) (ROUND_TIME_SMOOTHING * (nanos - previous));
+        if (previous / 1000000 != entry.averageRoundTime / 1000000) {
+            entry.stamp.incrementAndGet();
+            changes.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the listing of the live tables as a server message, with
+     * each table given as id,minimumBet,decks,openSeats,seats,averageRoundMillis.
+     * A client that already has the latest listing is told it is unchanged
+     * instead of being sent it again.
+     *
+     * @param knownVersion Version of the listing the client already has, -1 if none
+     * @return the listing, or a message saying it is unchanged
+     */
+
+    public String listing(long knownVersion) {
+        requests.incrementAndGet();
+        Listing current = listing;  // latest encoded listing
+        if (current.version != changes.get() && System.nanoTime() - current.time >= REFRESH_INTERVAL) {
+            current = encode();
+        }
+        return current.version == knownVersion ? "SERVERMESSAGE--TABLESUNCHANGED--" + knownVersion : current.message;
+    }
+
+    /**
+     * Encodes the listing again unless another thread just did.
+     *
+     * @return the latest encoded listing
+     */
+
+    private synchronized Listing encode() {
+        long now = System.nanoTime();   // time of the encoding in nanoseconds
+        long version = changes.get();   // changes the new listing includes
+        if (listing.version == version || now - listing.time < REFRESH_INTERVAL) {
+            return listing;
+        }
+        StringBuilder tables = new StringBuilder();     // encoded entries of the tables
+        int numTables = 0;  // number of tables in the listing
+        for (Entry entry : entries.values()) {
+            tables.append(entry.encode());
+            numTables++;
+        }
+        listing = new Listing(version, now, numTables, tables.toString());
+        encodings.incrementAndGet();
+        return listing;
+    }
+
+    /**
+     * Returns the number of listings asked for.
+     *
+     * @return the number of listings asked for
+     */
+
+    public long requests() {
+        return requests.get();
+    }
+
+    /**
+     * Returns the number of times the listing was encoded.
+     *
+     * @return the number of times the listing was encoded
+     */
+
+    public long encodings() {
+        return encodings.get();
+    }
+}
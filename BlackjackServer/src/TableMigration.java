@@ -0,0 +1,459 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * TableMigration objects hold the state a table needs to carry on in
+ * another server process between rounds: its rules, round number, the
+ * cards left in its shoe in dealing order and the money of everyone in
+ * its seats. Players are carried with their session tokens, so they can
+ * resume their sessions on the new server, and house bots with the
+ * settings they play by. The state is encoded in a compact binary form,
+ * one byte per card, and sent to the new server's admin endpoint. Each
+ * move has an id, so a table sent again after its answer was lost is
+ * only seated once.
+ *
+ * @author Jordan Segalman
+ */
+
+public class TableMigration {
+    private static final int MAGIC = 0x424A544D;                            // marker at the start of an encoded table
+    private static final int TOKEN_BYTES = 16;                              // bytes in a session token once decoded from hexadecimal
+    private static final int TIMEOUT = 2000;                                // milliseconds to wait for the new server to connect and answer
+    private static final int SEND_ATTEMPTS = 3;                             // times the table is sent before the new server is told to drop it
+    private static final long RETRY_DELAY = 500;                            // milliseconds to wait before asking the new server again
+    private static final int MAXIMUM_CARDS = 0xFFFF;                        // most cards the encoded shoe can hold, its count being an unsigned short
+    private static final int MAXIMUM_SEATS = 0xFF;                          // most occupied seats an encoded table can hold, their count being an unsigned byte
+    private static final int CARDS_PER_DECK = Card.Rank.values().length * Card.Suit.values().length;   // number of cards in each deck of the shoe
+    private long migrationId;                                               // id the new server recognizes repeated sends of the table by
+    private int seats;                                                      // number of seats at the table
+    private int minimumBet;                                                 // minimum player bet
+    private int numberOfDecks;                                              // number of decks in shoe
+    private int minimumCardsBeforeShuffle;                                  // minimum number of cards remaining before shuffling the shoe
+    private int roundNumber;                                                // number of the last round played at the table
+    private ArrayList<Card> shoe = new ArrayList<>();                       // cards left in the shoe, the next card dealt last
+    private ArrayList<MigratedSeat> migratedSeats = new ArrayList<>();      // occupants of the seats in seat order
+
+    /**
+     * MigratedSeat objects hold a player or house bot moving with the table.
+     */
+
+    public static class MigratedSeat {
+        private String sessionToken;                                        // token the player resumes their session with, null if the seat is a house bot
+        private double money;                                               // money available to bet
+        private int startingMoney;                                          // money the bot buys back in with, 0 for a player
+        private int betUnits;                                               // minimum bets the bot bets each round, 0 for a player
+        private boolean stayWithoutPlayers;                                 // true if the bot keeps playing at a table with no players, false if not
+
+        /**
+         * Constructor for MigratedSeat object.
+         *
+         * @param sessionToken Token the player resumes their session with, null if the seat is a house bot
+         * @param money Money available to bet
+         * @param startingMoney Money the bot buys back in with, 0 for a player
+         * @param betUnits Minimum bets the bot bets each round, 0 for a player
+         * @param stayWithoutPlayers True if the bot keeps playing at a table with no players, false if not
+         */
+
+        private MigratedSeat(String sessionToken, double money, int startingMoney, int betUnits, boolean stayWithoutPlayers) {
+            this.sessionToken = sessionToken;
+            this.money = money;
+            this.startingMoney = startingMoney;
+            this.betUnits = betUnits;
+            this.stayWithoutPlayers = stayWithoutPlayers;
+        }
+
+        /**
+         * Returns whether or not the seat is a house bot.
+         *
+         * @return true if the seat is a house bot, false if it is a player
+         */
+
+        public boolean isBot() {
+            return sessionToken == null;
+        }
+
+        /**
+         * Returns the token the player resumes their session with.
+         *
+         * @return the session token, null if the seat is a house bot
+         */
+
+        public String sessionToken() {
+            return sessionToken;
+        }
+
+        /**
+         * Returns the money available to bet.
+         *
+         * @return the money available to bet
+         */
+
+        public double money() {
+            return money;
+        }
+
+        /**
+         * Returns the money the bot buys back in with.
+         *
+         * @return the bot's starting money, 0 for a player
+         */
+
+        public int startingMoney() {
+            return startingMoney;
+        }
+
+        /**
+         * Returns the minimum bets the bot bets each round.
+         *
+         * @return the bot's bet units, 0 for a player
+         */
+
+        public int betUnits() {
+            return betUnits;
+        }
+
+        /**
+         * Returns whether or not the bot keeps playing at a table with no players.
+         *
+         * @return true if the bot stays without players, false if not
+         */
+
+        public boolean stayWithoutPlayers() {
+            return stayWithoutPlayers;
+        }
+    }
+
+    /**
+     * Constructor for TableMigration object.
+     *
+     * @param seats Number of seats at the table
+     * @param minimumBet Minimum player bet
+     * @param numberOfDecks Number of decks in shoe
+     * @param minimumCardsBeforeShuffle Minimum number of cards remaining before shuffling the shoe
+     * @param roundNumber Number of the last round played at the table
+     * @param shoe Shoe the table deals from
+     */
+
+    public TableMigration(int seats, int minimumBet, int numberOfDecks, int minimumCardsBeforeShuffle, int roundNumber, Shoe shoe) {
+        migrationId = ThreadLocalRandom.current().nextLong();
+        this.seats = seats;
+        this.minimumBet = minimumBet;
+        this.numberOfDecks = numberOfDecks;
+        this.minimumCardsBeforeShuffle = minimumCardsBeforeShuffle;
+        this.roundNumber = roundNumber;
+        for (int i = 0; i < shoe.remainingCards(); i++) {
+            this.shoe.add(shoe.getCard(i));
+        }
+    }
+
+    /**
+     * Adds a player to the next seat.
+     *
+     * @param sessionToken Token the player resumes their session with
+     * @param money Money available to bet
+     */
+
+    public void addPlayer(String sessionToken, double money) {
+        migratedSeats.add(new MigratedSeat(sessionToken, money, 0, 0, false));
+    }
+
+    /**
+     * Adds a house bot to the next seat.
+     *
+     * @param money Money available to bet
+     * @param startingMoney Money the bot buys back in with
+     * @param betUnits Minimum bets the bot bets each round
+     * @param stayWithoutPlayers True if the bot keeps playing at a table with no players, false if it leaves
+     */
+
+    public void addBot(double money, int startingMoney, int betUnits, boolean stayWithoutPlayers) {
+        migratedSeats.add(new MigratedSeat(null, money, startingMoney, betUnits, stayWithoutPlayers));
+    }
+
+    /**
+     * Encodes the table.
+     *
+     * @return the encoded table
+     * @throws IOException if the shoe or the seats hold more than their counts can encode
+     */
+
+    public byte[] encode() throws IOException {
+        if (shoe.size() > MAXIMUM_CARDS || migratedSeats.size() > MAXIMUM_SEATS) {
+            throw new IOException("Table with " + shoe.size() + " cards and " + migratedSeats.size() + " occupied seats is too large to encode");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(35 + shoe.size() + migratedSeats.size() * (1 + 8 + TOKEN_BYTES));  // buffer sized for the largest encoding
+        buffer.putInt(MAGIC);
+        buffer.putLong(migrationId);
+        buffer.putInt(seats);
+        buffer.putInt(minimumBet);
+        buffer.putInt(numberOfDecks);
+        buffer.putInt(minimumCardsBeforeShuffle);
+        buffer.putInt(roundNumber);
+        buffer.putShort((short) shoe.size());
+        for (Card card : shoe) {
+            buffer.put((byte) card.code());
+        }
+        buffer.put((byte) migratedSeats.size());
+        for (MigratedSeat seat : migratedSeats) {
+            buffer.put((byte) (seat.isBot() ? 1 : 0));
+            buffer.putDouble(seat.money);
+            if (seat.isBot()) {
+                buffer.putInt(seat.startingMoney);
+                buffer.putInt(seat.betUnits);
+                buffer.put((byte) (seat.stayWithoutPlayers ? 1 : 0));
+            } else {
+                for (int i = 0; i < TOKEN_BYTES; i++) {
+                    buffer.put((byte) Integer.parseInt(seat.sessionToken.substring(i * 2, i * 2 + 2), 16));
+                }
+            }
+        }
+        byte[] encoded = new byte[buffer.position()];   // bytes of the encoded table
+        buffer.flip();
+        buffer.get(encoded);
+        return encoded;
+    }
+
+    /**
+     * Decodes a table encoded by encode. Tables with more cards than
+     * their decks hold or more occupied seats than they have seats are
+     * rejected.
+     *
+     * @param encoded Bytes of the encoded table
+     * @return the decoded table
+     * @throws IOException if the bytes are not an encoded table
+     */
+
+    public static TableMigration decode(byte[] encoded) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);  // buffer holding the encoded table
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not an encoded table");
+            }
+            long migrationId = buffer.getLong();    // id of the move
+            TableMigration migration = new TableMigration(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(), new Shoe(0));   // table being decoded
+            migration.migrationId = migrationId;
+            if (migration.seats < 1 || migration.numberOfDecks < 1) {
+                throw new IOException("Encoded table has " + migration.seats + " seats and " + migration.numberOfDecks + " decks");
+            }
+            int numCards = Short.toUnsignedInt(buffer.getShort());  // number of cards left in the shoe
+            if (numCards > (long) migration.numberOfDecks * CARDS_PER_DECK) {
+                throw new IOException("Encoded table has " + numCards + " cards in a shoe of " + migration.numberOfDecks + " decks");
+            }
+            for (int i = 0; i < numCards; i++) {
+                migration.shoe.add(Card.fromCode(buffer.get()));
+            }
+            int numSeats = Byte.toUnsignedInt(buffer.get());    // number of occupied seats
+            if (numSeats > migration.seats) {
+                throw new IOException("Encoded table has " + numSeats + " occupied seats at a table of " + migration.seats);
+            }
+            for (int i = 0; i < numSeats; i++) {
+                boolean bot = buffer.get() == 1;    // true if the seat is a house bot, false if it is a player
+                double money = buffer.getDouble();  // money available to bet
+                if (bot) {
+                    migration.addBot(money, buffer.getInt(), buffer.getInt(), buffer.get() == 1);
+                } else {
+                    StringBuilder sessionToken = new StringBuilder(); // token written in hexadecimal
+                    for (int j = 0; j < TOKEN_BYTES; j++) {
+                        sessionToken.append(String.format("%02x", buffer.get()));
+                    }
+                    migration.addPlayer(sessionToken.toString(), money);
+                }
+            }
+            return migration;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Truncated or corrupt encoded table", e);
+        }
+    }
+
+    /**
+     * Sends the table to another server, which seats everyone at a new
+     * table and holds the players' seats until they resume their sessions.
+     * Blocks until the server answers, so it is never called on a table's
+     * own thread. If the answer is lost, the table is sent again under
+     * the same id, which the server only seats once. If every answer is
+     * lost, the server is told to drop the table, and the players are
+     * held here until it confirms, so they are never seated on both
+     * servers.
+     *
+     * @param target Admin address of the server to send the table to as host:adminPort
+     * @return the address players connect to on the new server as host:port
+     * @throws IOException if the server could not be reached, refused the table or dropped it
+     */
+
+    public String send(String target) throws IOException {
+        String host = target.substring(0, target.lastIndexOf(':'));    // host of the server
+        byte[] encoded = encode();  // bytes of the encoded table
+        IOException lastFailure = null;     // failure of the last send whose answer was lost
+        for (int attempt = 0; attempt < SEND_ATTEMPTS; attempt++) {
+            String port;    // port players connect to on the server, null if it refused the table
+            try {
+                port = post(target, "/import", encoded);
+            } catch (ConnectException e) {
+                throw e;    // the server was never reached, so it cannot have taken the table
+            } catch (IOException e) {
+                lastFailure = e;
+                if (attempt < SEND_ATTEMPTS - 1) {
+                    Log.warn("Lost the answer about a moving table from {}, sending it again", target);
+                    pause();
+                }
+                continue;
+            }
+            if (port == null) {
+                throw new IOException("Server at " + target + " refused the table");
+            }
+            return host + ":" + port;
+        }
+        Log.warn("Lost every answer about a moving table from {}, telling it to drop the table", target);
+        while (true) {
+            try {
+                if (post(target, "/import?abort=" + Long.toHexString(migrationId), new byte[0]) != null) {
+                    break;
+                }
+            } catch (ConnectException e) {
+                break;      // the server has gone away along with any table it took
+            } catch (IOException e) {
+                // the server may still hold the table, so it is asked again
+            }
+            pause();
+        }
+        throw new IOException("Server at " + target + " never answered and has dropped the table", lastFailure);
+    }
+
+    /**
+     * Posts a request to another server's admin endpoint.
+     *
+     * @param target Admin address of the server as host:adminPort
+     * @param path Path and query of the request
+     * @param body Body of the request
+     * @return the body of the response without surrounding whitespace, null if the server refused the request
+     * @throws IOException if the server could not be reached or its answer was lost
+     */
+
+    private static String post(String target, String path, byte[] body) throws IOException {
+        int colon = target.lastIndexOf(':');   // index of the colon before the admin port
+        HttpURLConnection request = (HttpURLConnection) new URL("http", target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)), path).openConnection();   // request to the admin endpoint
+        request.setConnectTimeout(TIMEOUT);
+        request.setReadTimeout(TIMEOUT);
+        request.setDoOutput(true);
+        request.setRequestMethod("POST");
+        request.setFixedLengthStreamingMode(body.length);
+        try {
+            try (OutputStream out = request.getOutputStream()) {
+                out.write(body);
+            }
+            if (request.getResponseCode() != 200) {
+                return null;
+            }
+            try (InputStream in = request.getInputStream()) {
+                return new String(in.readAllBytes(), StandardCharsets.UTF_8).strip();
+            }
+        } finally {
+            request.disconnect();
+        }
+    }
+
+    /**
+     * Waits before asking the new server again.
+     *
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+
+    private static void pause() throws InterruptedIOException {
+        try {
+            Thread.sleep(RETRY_DELAY);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while moving a table");
+        }
+    }
+
+    /**
+     * Returns the id of the move.
+     *
+     * @return the id the new server recognizes repeated sends of the table by
+     */
+
+    public long migrationId() {
+        return migrationId;
+    }
+
+    /**
+     * Returns the number of seats at the table.
+     *
+     * @return the number of seats at the table
+     */
+
+    public int seats() {
+        return seats;
+    }
+
+    /**
+     * Returns the minimum player bet.
+     *
+     * @return the minimum player bet
+     */
+
+    public int minimumBet() {
+        return minimumBet;
+    }
+
+    /**
+     * Returns the number of decks in the shoe.
+     *
+     * @return the number of decks in the shoe
+     */
+
+    public int numberOfDecks() {
+        return numberOfDecks;
+    }
+
+    /**
+     * Returns the minimum number of cards remaining before shuffling the shoe.
+     *
+     * @return the minimum number of cards remaining before shuffling the shoe
+     */
+
+    public int minimumCardsBeforeShuffle() {
+        return minimumCardsBeforeShuffle;
+    }
+
+    /**
+     * Returns the number of the last round played at the table.
+     *
+     * @return the number of the last round played
+     */
+
+    public int roundNumber() {
+        return roundNumber;
+    }
+
+    /**
+     * Returns a shoe holding the cards left in the table's shoe in dealing order.
+     *
+     * @return the table's shoe
+     */
+
+    public Shoe shoe() {
+        return new Shoe(shoe);
+    }
+
+    /**
+     * Returns the occupants of the seats in seat order.
+     *
+     * @return the occupants of the seats
+     */
+
+    public ArrayList<MigratedSeat> migratedSeats() {
+        return migratedSeats;
+    }
+}
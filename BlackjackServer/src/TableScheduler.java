@@ -0,0 +1,65 @@
+/**
+ * TableScheduler objects pin tables to a fixed number of scheduler shards.
+ *
+ * @author Jordan Segalman
+ */
+
+public class TableScheduler {
+    private SchedulerShard[] shards;    // shards that run the tables
+
+    /**
+     * Constructor for TableScheduler object.
+     *
+     * @param numShards Number of shards and event loop threads
+     */
+
+    public TableScheduler(int numShards) {
+        shards = new SchedulerShard[numShards];
+        for (int i = 0; i < numShards; i++) {
+            shards[i] = new SchedulerShard(i);
+            new Thread(shards[i], "scheduler-shard-" + i).start();
+        }
+    }
+
+    /**
+     * Pins a new table to the least loaded shard.
+     *
+     * @param table Table to pin
+     * @return the shard the table was pinned to
+     */
+
+    public SchedulerShard register(Table table) {
+        SchedulerShard leastLoadedShard = shards[0];    // shard with the fewest seats
+        for (SchedulerShard shard : shards) {
+            if (shard.load() < leastLoadedShard.load() || (shard.load() == leastLoadedShard.load() && shard.numTables() < leastLoadedShard.numTables())) {
+                leastLoadedShard = shard;
+            }
+        }
+        leastLoadedShard.addTable(table);
+        return leastLoadedShard;
+    }
+
+    /**
+     * Returns the shards of the scheduler.
+     *
+     * @return the shards of the scheduler
+     */
+
+    public SchedulerShard[] shards() {
+        return shards;
+    }
+
+    /**
+     * Returns a summary of the load of each shard.
+     *
+     * @return the summary of the load of each shard
+     */
+
+    public String report() {
+        StringBuilder report = new StringBuilder(); // summary of each shard
+        for (SchedulerShard shard : shards) {
+            report.append("\n").append(shard.report());
+        }
+        return report.toString();
+    }
+}
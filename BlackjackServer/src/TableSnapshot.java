@@ -0,0 +1,309 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * TableSnapshot objects hold the state of a table as it stood when its
+ * round last moved to a new phase: the phase and round number, the
+ * dealer cards the players could see and who sat in each seat with
+ * their money. Player cards are only included once the dealer's turn is
+ * over, since before then the players may be changing their hands on
+ * their own threads. A table takes a new snapshot on its own thread at
+ * every phase change and publishes it through a volatile reference, so
+ * the admin endpoint, the lobby and spectators read a consistent view
+ * of the table without a lock. Snapshots never change once taken, so
+ * seats that did not change since the last snapshot are shared with it
+ * rather than copied again.
+ *
+ * @author Jordan Segalman
+ */
+
+public class TableSnapshot {
+    private static final Card[] NO_CARDS = new Card[0];                     // shared empty card list
+    private static final Card[][] NO_HANDS = new Card[0][];                 // shared empty hand list
+    private final int tableId;                                              // id of the table
+    private final int roundNumber;                                          // number of the current round
+    private final Table.Phase phase;                                        // phase the round was in
+    private final long time;                                                // time the snapshot was taken in nanoseconds
+    private final Card[] dealerCards;                                       // dealer cards the players could see
+    private final SeatSnapshot[] seats;                                     // occupants of the seats in seat order
+    private final int numHumans;                                            // number of seats taken by players that are not house bots
+    private volatile byte[] frame;                                          // spectator frame holding the snapshot, null until first asked for
+
+    /**
+     * SeatSnapshot objects hold a seat's occupant as they stood when the
+     * snapshot was taken.
+     */
+
+    public static class SeatSnapshot {
+        private final int seat;                                             // seat the occupant sits in
+        private final double money;                                         // money available to bet
+        private final boolean bot;                                          // true if the occupant is a house bot, false if a player
+        private final Card[][] hands;                                       // cards of each hand, empty before the dealer's turn is over
+
+        /**
+         * Constructor for SeatSnapshot object.
+         *
+         * @param occupant Player or bot in the seat
+         * @param includeHands True if the occupant's cards should be copied, false if not
+         */
+
+        private SeatSnapshot(Seat occupant, boolean includeHands) {
+            seat = occupant.seat();
+            money = occupant.money();
+            bot = occupant.isBot();
+            if (includeHands) {
+                hands = new Card[occupant.playerHands().size()][];
+                for (int i = 0; i < hands.length; i++) {
+                    hands[i] = cards(occupant.playerHands().get(i), occupant.playerHands().get(i).size());
+                }
+            } else {
+                hands = NO_HANDS;
+            }
+        }
+
+        /**
+         * Returns the seat the occupant sits in.
+         *
+         * @return the seat
+         */
+
+        public int seat() {
+            return seat;
+        }
+
+        /**
+         * Returns the money available to bet.
+         *
+         * @return the money available to bet
+         */
+
+        public double money() {
+            return money;
+        }
+
+        /**
+         * Returns whether or not the occupant is a house bot.
+         *
+         * @return true if the occupant is a house bot, false if a player
+         */
+
+        public boolean isBot() {
+            return bot;
+        }
+
+        /**
+         * Returns the number of hands included in the snapshot.
+         *
+         * @return the number of hands, 0 before the dealer's turn is over
+         */
+
+        public int numHands() {
+            return hands.length;
+        }
+
+        /**
+         * Returns the cards of a hand.
+         *
+         * @param hand Index of the hand
+         * @return a copy of the cards of the hand
+         */
+
+        public Card[] hand(int hand) {
+            return hands[hand].clone();
+        }
+    }
+
+    /**
+     * Constructor for TableSnapshot object. Only called on the table's
+     * own thread while it holds the lock on its seats.
+     *
+     * @param tableId Id of the table
+     * @param roundNumber Number of the current round
+     * @param phase Phase the round is in
+     * @param dealerHand Hand of the dealer
+     * @param occupants Players and bots in the seats in seat order
+     * @param previous Snapshot taken at the last phase change, whose unchanged seats are shared, null if there is none
+     */
+
+    public TableSnapshot(int tableId, int roundNumber, Table.Phase phase, BlackjackHand dealerHand, ArrayList<Seat> occupants, TableSnapshot previous) {
+        this.tableId = tableId;
+        this.roundNumber = roundNumber;
+        this.phase = phase;
+        time = System.nanoTime();
+        int shownDealerCards = 0;   // number of dealer cards the players can see
+        if (phase == Table.Phase.CONTINUE_PLAYING) {
+            shownDealerCards = dealerHand.size();
+        } else if (phase != Table.Phase.WAITING_TO_START && phase != Table.Phase.CLOSED) {
+            shownDealerCards = Math.min(dealerHand.size(), 1);
+        }
+        dealerCards = cards(dealerHand, shownDealerCards);
+        seats = new SeatSnapshot[occupants.size()];
+        int humans = 0;     // number of seats taken by players
+        int i = 0;          // index of the next seat
+        for (Seat occupant : occupants) {
+            SeatSnapshot earlier = previous != null && i < previous.seats.length ? previous.seats[i] : null;    // same seat in the last snapshot
+            if (earlier != null && phase != Table.Phase.CONTINUE_PLAYING && earlier.hands.length == 0 && earlier.seat == occupant.seat() && earlier.money == occupant.money() && earlier.bot == occupant.isBot()) {
+                seats[i] = earlier;
+            } else {
+                seats[i] = new SeatSnapshot(occupant, phase == Table.Phase.CONTINUE_PLAYING);
+            }
+            if (!seats[i].bot) {
+                humans++;
+            }
+            i++;
+        }
+        numHumans = humans;
+    }
+
+    /**
+     * Copies the first cards of a hand.
+     *
+     * @param hand Hand to copy
+     * @param numCards Number of cards to copy
+     * @return the copied cards
+     */
+
+    private static Card[] cards(Hand hand, int numCards) {
+        if (numCards == 0) {
+            return NO_CARDS;
+        }
+        Card[] cards = new Card[numCards];  // copied cards
+        for (int i = 0; i < numCards; i++) {
+            cards[i] = hand.getCard(i);
+        }
+        return cards;
+    }
+
+    /**
+     * Returns the snapshot as a spectator frame. The frame is built the
+     * first time it is asked for and shared after that, so tables with no
+     * spectators never format one. Two threads asking at once may each
+     * build an identical frame, which is harmless.
+     *
+     * @return the frame holding the snapshot
+     */
+
+    public byte[] frame() {
+        byte[] built = frame;   // frame built earlier, null if none has been
+        if (built == null) {
+            StringBuilder message = new StringBuilder("TABLEMESSAGE--SNAPSHOT--").append(tableId).append("--").append(roundNumber).append("--").append(phase).append("--");   // snapshot as a spectator message
+            for (int i = 0; i < dealerCards.length; i++) {
+                message.append(i > 0 ? "," : "").append(dealerCards[i]);
+            }
+            for (SeatSnapshot seat : seats) {
+                message.append("--").append(seat.seat).append(",").append(String.format("%.2f", seat.money));
+            }
+            built = message.append("\n").toString().getBytes(StandardCharsets.UTF_8);
+            frame = built;
+        }
+        return built;
+    }
+
+    /**
+     * Returns a one-line description of the snapshot for the admin endpoint.
+     *
+     * @return the description of the snapshot
+     */
+
+    @Override
+    public String toString() {
+        StringBuilder description = new StringBuilder("Table ").append(tableId).append(" round ").append(roundNumber).append(" ").append(phase).append(" dealer ");  // description being written
+        if (dealerCards.length == 0) {
+            description.append("-");
+        }
+        for (int i = 0; i < dealerCards.length; i++) {
+            description.append(i > 0 ? "," : "").append(dealerCards[i]);
+        }
+        for (SeatSnapshot seat : seats) {
+            description.append(" | seat ").append(seat.seat).append(seat.bot ? " bot " : " player ").append(String.format("%.2f", seat.money));
+            for (Card[] hand : seat.hands) {
+                description.append(" ");
+                for (int i = 0; i < hand.length; i++) {
+                    description.append(i > 0 ? "," : "").append(hand[i]);
+                }
+            }
+        }
+        return description.toString();
+    }
+
+    /**
+     * Returns the id of the table.
+     *
+     * @return the id of the table
+     */
+
+    public int tableId() {
+        return tableId;
+    }
+
+    /**
+     * Returns the number of the current round.
+     *
+     * @return the number of the current round
+     */
+
+    public int roundNumber() {
+        return roundNumber;
+    }
+
+    /**
+     * Returns the phase the round was in.
+     *
+     * @return the phase of the round
+     */
+
+    public Table.Phase phase() {
+        return phase;
+    }
+
+    /**
+     * Returns the time the snapshot was taken.
+     *
+     * @return the time the snapshot was taken in nanoseconds
+     */
+
+    public long time() {
+        return time;
+    }
+
+    /**
+     * Returns the dealer cards the players could see.
+     *
+     * @return a copy of the dealer cards
+     */
+
+    public Card[] dealerCards() {
+        return dealerCards.clone();
+    }
+
+    /**
+     * Returns the occupant of a seat.
+     *
+     * @param seat Index of the seat in seat order
+     * @return the occupant of the seat
+     */
+
+    public SeatSnapshot seat(int seat) {
+        return seats[seat];
+    }
+
+    /**
+     * Returns the number of players and bots at the table.
+     *
+     * @return the number of players and bots at the table
+     */
+
+    public int numPlayers() {
+        return seats.length;
+    }
+
+    /**
+     * Returns the number of players at the table that are not house bots.
+     *
+     * @return the number of players at the table
+     */
+
+    public int numHumans() {
+        return numHumans;
+    }
+}
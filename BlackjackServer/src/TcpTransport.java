@@ -0,0 +1,81 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.Socket;
+
+/**
+ * TcpTransport objects carry protocol lines over a socket. Lines are read
+ * through a bounded LineDecoder and every sent line is flushed right away
+ * with Nagle's algorithm off, since the protocol is a conversation of
+ * short lines that would otherwise sit waiting for delayed acknowledgements.
+ *
+ * @author Jordan Segalman
+ */
+
+public class TcpTransport implements Transport {
+    private Socket socket;                                                  // socket connected to client
+    private LineDecoder in;                                                 // in from the socket
+    private PrintWriter out;                                                // out to the socket
+
+    /**
+     * Constructor for TcpTransport object.
+     *
+     * @param socket Socket connected to the client
+     * @param in In from the socket, which may already have read the client's first line
+     * @throws IOException if the socket's output cannot be opened
+     */
+
+    public TcpTransport(Socket socket, LineDecoder in) throws IOException {
+        this.socket = socket;
+        this.in = in;
+        socket.setTcpNoDelay(true);
+        out = new PrintWriter(socket.getOutputStream(), true);
+    }
+
+    /**
+     * Reads the next line from the socket.
+     *
+     * @return the line without its terminator, null if the client closed the connection
+     * @throws LineDecoder.FrameException if the line is too long or malformed
+     * @throws IOException if the socket cannot be read
+     */
+
+    @Override
+    public String readLine() throws IOException {
+        return in.readLine();
+    }
+
+    /**
+     * Writes a line to the socket and flushes it.
+     *
+     * @param message Line to send, without its terminator
+     */
+
+    @Override
+    public void send(String message) {
+        out.println(message);
+    }
+
+    /**
+     * Closes the socket.
+     *
+     * @throws IOException if the socket cannot be closed
+     */
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    /**
+     * Returns whether or not the socket has been closed or a line could
+     * not be written to it. The writer swallows write errors, so a client
+     * that has gone is only noticed here once a write to it has failed.
+     *
+     * @return true if the socket has been closed or is broken, false if not
+     */
+
+    @Override
+    public boolean isClosed() {
+        return socket.isClosed() || out.checkError();
+    }
+}
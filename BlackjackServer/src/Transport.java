@@ -0,0 +1,50 @@
+import java.io.IOException;
+
+/**
+ * Transport objects carry the lines of the text protocol between a player
+ * and their client. The game only ever reads and sends whole lines, so a
+ * transport can be a socket, an in-memory queue or anything else that
+ * delivers lines in order.
+ *
+ * @author Jordan Segalman
+ */
+
+public interface Transport {
+
+    /**
+     * Reads the next line sent by the client, blocking until one arrives.
+     *
+     * @return the line without its terminator, null if the client closed the connection
+     * @throws LineDecoder.FrameException if the line is too long or malformed
+     * @throws IOException if the connection cannot be read
+     */
+
+    String readLine() throws IOException;
+
+    /**
+     * Sends a line to the client. Lines sent after the connection has
+     * closed are dropped.
+     *
+     * @param message Line to send, without its terminator
+     */
+
+    void send(String message);
+
+    /**
+     * Closes the connection. A read blocked on the connection returns.
+     *
+     * @throws IOException if the connection cannot be closed
+     */
+
+    void close() throws IOException;
+
+    /**
+     * Returns whether or not the connection has been closed on this end
+     * or a line sent on it could not be written, which is how a client
+     * that is not being read from is found to have gone.
+     *
+     * @return true if the connection has been closed or is broken, false if not
+     */
+
+    boolean isClosed();
+}
@@ -0,0 +1,101 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * UnixDomainTransport objects carry protocol lines over a Unix domain
+ * socket, which skips the TCP stack for clients on the same host. Lines
+ * are read through a bounded LineDecoder like any other connection. The
+ * channel is read and written directly rather than through
+ * Channels.newInputStream and newOutputStream, whose streams share one
+ * lock and would block a send behind a read waiting on the client.
+ *
+ * @author Jordan Segalman
+ */
+
+public class UnixDomainTransport implements Transport {
+    private SocketChannel channel;                                          // channel connected to client
+    private LineDecoder in;                                                 // in from the channel
+    private volatile boolean broken;                                        // true once a line could not be written to the channel, false before
+
+    /**
+     * Constructor for UnixDomainTransport object.
+     *
+     * @param channel Channel connected to the client, in blocking mode
+     * @param maximumLineLength Most bytes allowed in a line from the client
+     */
+
+    public UnixDomainTransport(SocketChannel channel, int maximumLineLength) {
+        this.channel = channel;
+        in = new LineDecoder(new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1]; // byte being read
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return channel.read(ByteBuffer.wrap(b, off, len));
+            }
+        }, maximumLineLength);
+    }
+
+    /**
+     * Reads the next line from the channel.
+     *
+     * @return the line without its terminator, null if the client closed the connection
+     * @throws LineDecoder.FrameException if the line is too long or malformed
+     * @throws IOException if the channel cannot be read
+     */
+
+    @Override
+    public String readLine() throws IOException {
+        return in.readLine();
+    }
+
+    /**
+     * Writes a line to the channel. Lines that cannot be written are
+     * dropped, and the broken connection is noticed by the next read or
+     * by isClosed.
+     *
+     * @param message Line to send, without its terminator
+     */
+
+    @Override
+    public void send(String message) {
+        ByteBuffer buffer = ByteBuffer.wrap((message + "\n").getBytes(StandardCharsets.UTF_8));  // line being written
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            broken = true;
+        }
+    }
+
+    /**
+     * Closes the channel, which makes a read blocked on it throw.
+     *
+     * @throws IOException if the channel cannot be closed
+     */
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Returns whether or not the channel has been closed or a line could
+     * not be written to it.
+     *
+     * @return true if the channel has been closed or is broken, false if not
+     */
+
+    @Override
+    public boolean isClosed() {
+        return !channel.isOpen() || broken;
+    }
+}
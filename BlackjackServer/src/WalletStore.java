@@ -0,0 +1,542 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * WalletStore objects keep player balances in an append-only, memory-mapped
+ * journal with periodic snapshots. Balance changes from every table are
+ * written and forced to disk together in group commits by a single thread.
+ *
+ * @author Jordan Segalman
+ */
+
+public class WalletStore implements Runnable {
+    private static final int RECORD_SIZE = 48;                              // bytes in a journal record
+    private static final int JOURNAL_CAPACITY = 64 * 1024 * 1024;           // bytes in the journal file
+    private static final int SNAPSHOT_THRESHOLD = JOURNAL_CAPACITY / 4 * 3; // journal position that triggers a snapshot
+    private static final int SNAPSHOT_MAGIC = 0x424A5754;                   // marker at the start of a snapshot file
+    private static final int UNNUMBERED_SNAPSHOT_MAGIC = 0x424A5753;        // marker at the start of a snapshot file written without the next account id
+    private static final int INITIAL_RETRY_DELAY = 10;                      // milliseconds to wait before retrying a failed commit
+    private static final int MAXIMUM_RETRY_DELAY = 5000;                    // longest milliseconds to wait between retries of a failed commit
+    private File directory;                                                 // directory holding the journal and snapshot
+    private MappedByteBuffer journal;                                       // memory-mapped journal
+    private FileChannel journalChannel;                                     // channel of the journal file
+    private LinkedBlockingQueue<Entry> pendingEntries = new LinkedBlockingQueue<>();   // holds entries waiting to be committed
+    private ConcurrentHashMap<Long, Double> balances = new ConcurrentHashMap<>();       // holds the latest balance of each account
+    private HashMap<Long, Double> committedBalances = new HashMap<>();                  // holds the committed balance of each account, only used by the commit thread
+    private HashMap<Long, HashMap<Long, RoundTotal>> committedRounds = new HashMap<>(); // holds the committed changes of each round that has not ended, only used by the commit thread
+    private HashMap<Long, HashMap<Long, RoundTotal>> interruptedRounds = new HashMap<>();   // holds the rounds that had not ended when the store was opened
+    private AtomicLong nextAccount = new AtomicLong(1);                     // id of the next account opened
+    private long nextSequence = 1;                                          // sequence number of the next journal record
+    private long submittedEntries;                                          // number of entries submitted, guarded by this
+    private long durableEntries;                                            // number of entries forced to disk, guarded by this
+    private AtomicLong groupCommits = new AtomicLong();                     // number of group commits
+    private AtomicLong snapshots = new AtomicLong();                        // number of snapshots taken
+    private CRC32 checksum = new CRC32();                                   // checksum used by the commit thread
+    private ByteBuffer recordBuffer = ByteBuffer.allocate(RECORD_SIZE);     // buffer used to encode records on the commit thread
+    private double recoveryTime;                                            // milliseconds taken to recover the balances
+
+    /**
+     * Kinds of balance changes recorded in the journal.
+     */
+
+    public enum Type {
+        OPEN, BET, INSURANCE_BET, SPLIT_PAIRS, DOUBLE_DOWN, SETTLEMENT, INSURANCE_PAYOUT, REFUND, ROUND_END, MIGRATE, CLOSE
+    }
+
+    /**
+     * RoundTotal objects hold the committed changes an account made in a round that has not ended.
+     */
+
+    public static class RoundTotal {
+        private double net;         // total amount added to the balance in the round
+        private int settlements;    // number of hands settled in the round
+
+        /**
+         * Returns the total amount added to the balance in the round.
+         *
+         * @return the total amount added to the balance in the round
+         */
+
+        public double net() {
+            return net;
+        }
+
+        /**
+         * Returns the number of hands settled in the round.
+         *
+         * @return the number of hands settled in the round
+         */
+
+        public int settlements() {
+            return settlements;
+        }
+    }
+
+    /**
+     * Entry objects hold a balance change waiting to be committed.
+     */
+
+    private static class Entry {
+        private long account;   // account the change applies to
+        private long round;     // round the change belongs to
+        private Type type;      // kind of change
+        private double amount;  // amount added to the balance
+        private double balance; // balance after the change
+
+        /**
+         * Constructor for Entry object.
+         *
+         * @param account Account the change applies to
+         * @param round Round the change belongs to
+         * @param type Kind of change
+         * @param amount Amount added to the balance
+         * @param balance Balance after the change
+         */
+
+        Entry(long account, long round, Type type, double amount, double balance) {
+            this.account = account;
+            this.round = round;
+            this.type = type;
+            this.amount = amount;
+            this.balance = balance;
+        }
+    }
+
+    /**
+     * Constructor for WalletStore object. Recovers the balances from the
+     * latest snapshot and the journal records written after it.
+     *
+     * @param directory Directory holding the journal and snapshot
+     * @throws IOException if the journal cannot be opened
+     */
+
+    public WalletStore(File directory) throws IOException {
+        this.directory = directory;
+        long recoveryStart = System.nanoTime();     // time recovery started in nanoseconds
+        Files.createDirectories(directory.toPath());
+        long snapshotSequence = readSnapshot();     // sequence number of the last record in the snapshot
+        nextSequence = snapshotSequence + 1;
+        journalChannel = FileChannel.open(new File(directory, "wallet.journal").toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        journal = journalChannel.map(FileChannel.MapMode.READ_WRITE, 0, JOURNAL_CAPACITY);
+        int journalRecords = 0;                     // number of journal records replayed
+        int tail = 0;                               // position after the last replayed record
+        ByteBuffer record;                          // journal record being replayed
+        for (int position = 0; (record = readRecord(journal, position)) != null; position += RECORD_SIZE) {
+            long sequence = record.getLong(0);      // sequence number of the record
+            if (sequence < nextSequence) {
+                continue;
+            } else if (sequence != nextSequence) {
+                break;
+            }
+            long account = record.getLong(8);       // account of the record
+            applyRecord(account, record.getLong(16), Type.values()[record.getInt(40)], record.getDouble(24), record.getDouble(32));
+            nextAccount.accumulateAndGet(account + 1, Math::max);
+            nextSequence++;
+            journalRecords++;
+            tail = position + RECORD_SIZE;
+        }
+        journal.position(tail);
+        balances.putAll(committedBalances);
+        for (Map.Entry<Long, HashMap<Long, RoundTotal>> round : committedRounds.entrySet()) {
+            HashMap<Long, RoundTotal> totals = new HashMap<>();     // copy of the changes each account made in the round
+            for (Map.Entry<Long, RoundTotal> total : round.getValue().entrySet()) {
+                RoundTotal copy = new RoundTotal();                 // copy of the changes the account made in the round
+                copy.net = total.getValue().net;
+                copy.settlements = total.getValue().settlements;
+                totals.put(total.getKey(), copy);
+            }
+            interruptedRounds.put(round.getKey(), totals);
+        }
+        recoveryTime = (System.nanoTime() - recoveryStart) / 1e6;
+        Log.info("Recovered " + balances.size() + " wallets and " + interruptedRounds.size() + " interrupted rounds from snapshot and " + journalRecords + " journal records in " + String.format("%.1f", recoveryTime) + " ms");
+        Thread commitThread = new Thread(this, "wallet-commit");
+        commitThread.setDaemon(true);
+        commitThread.start();
+    }
+
+    /**
+     * Commit thread run method. Writes every pending entry to the journal
+     * and forces them to disk together. A commit that fails is retried
+     * with exponential backoff from where it stopped, and the entries are
+     * only reported durable once the journal has been forced, so no one
+     * waiting on them is told they are safe while they are not.
+     */
+
+    @Override
+    public void run() {
+        ArrayList<Entry> batch = new ArrayList<>(); // entries committed together
+        while (true) {
+            try {
+                batch.add(pendingEntries.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            pendingEntries.drainTo(batch);
+            int written = 0;    // number of entries of the batch written to the journal
+            int retryDelay = INITIAL_RETRY_DELAY;   // milliseconds to wait before the next retry
+            while (true) {
+                try {
+                    if (written == 0 && journal.position() + batch.size() * RECORD_SIZE > SNAPSHOT_THRESHOLD) {
+                        writeSnapshot();
+                    }
+                    while (written < batch.size()) {
+                        if (journal.remaining() < RECORD_SIZE) {
+                            journal.force();
+                            writeSnapshot();
+                        }
+                        writeRecord(batch.get(written));
+                        written++;
+                    }
+                    journal.force();
+                    break;
+                } catch (IOException | UncheckedIOException e) {
+                    Log.error("Could not commit wallet journal, retrying in " + retryDelay + " ms", e);
+                }
+                try {
+                    Thread.sleep(retryDelay);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                retryDelay = Math.min(retryDelay * 2, MAXIMUM_RETRY_DELAY);
+            }
+            groupCommits.incrementAndGet();
+            synchronized (this) {
+                durableEntries += batch.size();
+                notifyAll();
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Opens a new account holding the given amount of money.
+     *
+     * @param money Amount of money the account starts with
+     * @return the id of the new account
+     */
+
+    public long openAccount(double money) {
+        long account = nextAccount.getAndIncrement();   // id of the new account
+        record(account, 0, Type.OPEN, money, money);
+        return account;
+    }
+
+    /**
+     * Closes an account whose player has left. The account is dropped
+     * from the balances once the close is journaled and is left out of
+     * every later snapshot, so the store only holds the accounts of
+     * players still on the server.
+     *
+     * @param account Id of the account to close
+     * @param money Amount of money the player left with
+     * @return the ticket to pass to awaitDurable
+     */
+
+    public long closeAccount(long account, double money) {
+        return record(account, 0, Type.CLOSE, 0, money);
+    }
+
+    /**
+     * Queues a balance change to be committed to the journal. Never waits for the disk.
+     *
+     * @param account Account the change applies to
+     * @param round Round the change belongs to
+     * @param type Kind of change
+     * @param amount Amount added to the balance
+     * @param balance Balance after the change
+     * @return the ticket to pass to awaitDurable
+     */
+
+    public long record(long account, long round, Type type, double amount, double balance) {
+        if (type == Type.CLOSE) {
+            balances.remove(account);
+        } else if (type != Type.ROUND_END) {
+            balances.put(account, balance);
+        }
+        synchronized (this) {
+            pendingEntries.add(new Entry(account, round, type, amount, balance));
+            return ++submittedEntries;
+        }
+    }
+
+    /**
+     * Records that a round has ended so that it is not treated as interrupted on recovery.
+     *
+     * @param round Round that ended
+     * @return the ticket to pass to awaitDurable
+     */
+
+    public long closeRound(long round) {
+        return record(0, round, Type.ROUND_END, 0, 0);
+    }
+
+    /**
+     * Returns the rounds that had not ended when the store was opened,
+     * with the committed changes each account made in them.
+     *
+     * @return the interrupted rounds by round id and account
+     */
+
+    public Map<Long, HashMap<Long, RoundTotal>> interruptedRounds() {
+        return interruptedRounds;
+    }
+
+    /**
+     * Waits until the balance change with the given ticket has been forced to disk.
+     *
+     * @param ticket Ticket returned by record
+     */
+
+    public synchronized void awaitDurable(long ticket) {
+        while (durableEntries < ticket) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Waits until every queued balance change has been forced to disk.
+     */
+
+    public void flush() {
+        long ticket;    // ticket of the last submitted entry
+        synchronized (this) {
+            ticket = submittedEntries;
+        }
+        awaitDurable(ticket);
+    }
+
+    /**
+     * Returns the balance of an account.
+     *
+     * @param account Id of the account
+     * @return the balance of the account, null if there is no such account
+     */
+
+    public Double balance(long account) {
+        return balances.get(account);
+    }
+
+    /**
+     * Returns the balances of every account.
+     *
+     * @return the balances of every account
+     */
+
+    public Map<Long, Double> balances() {
+        return balances;
+    }
+
+    /**
+     * Returns the time taken to recover the balances on startup.
+     *
+     * @return the recovery time in milliseconds
+     */
+
+    public double recoveryTime() {
+        return recoveryTime;
+    }
+
+    /**
+     * Returns the number of group commits.
+     *
+     * @return the number of group commits
+     */
+
+    public long groupCommits() {
+        return groupCommits.get();
+    }
+
+    /**
+     * Returns the number of snapshots taken.
+     *
+     * @return the number of snapshots taken
+     */
+
+    public long snapshots() {
+        return snapshots.get();
+    }
+
+    /**
+     * Returns the number of balance changes forced to disk.
+     *
+     * @return the number of balance changes forced to disk
+     */
+
+    public synchronized long durableEntries() {
+        return durableEntries;
+    }
+
+    /**
+     * Encodes an entry into the next journal record. Only called on the commit thread.
+     *
+     * @param entry Entry to write
+     */
+
+    private void writeRecord(Entry entry) {
+        recordBuffer.clear();
+        recordBuffer.putLong(nextSequence++).putLong(entry.account).putLong(entry.round).putDouble(entry.amount).putDouble(entry.balance).putInt(entry.type.ordinal());
+        checksum.reset();
+        checksum.update(recordBuffer.array(), 0, RECORD_SIZE - 4);
+        recordBuffer.putInt((int) checksum.getValue());
+        journal.put(recordBuffer.array());
+        applyRecord(entry.account, entry.round, entry.type, entry.amount, entry.balance);
+    }
+
+    /**
+     * Applies a committed balance change to the committed balances and rounds.
+     *
+     * @param account Account the change applies to
+     * @param round Round the change belongs to
+     * @param type Kind of change
+     * @param amount Amount added to the balance
+     * @param balance Balance after the change
+     */
+
+    private void applyRecord(long account, long round, Type type, double amount, double balance) {
+        if (type == Type.ROUND_END) {
+            committedRounds.remove(round);
+            return;
+        } else if (type == Type.CLOSE) {
+            committedBalances.remove(account);
+            return;
+        }
+        committedBalances.put(account, balance);
+        if (round != 0) {
+            RoundTotal total = committedRounds.computeIfAbsent(round, key -> new HashMap<>()).computeIfAbsent(account, key -> new RoundTotal());   // changes the account made in the round
+            total.net += amount;
+            if (type == Type.SETTLEMENT) {
+                total.settlements++;
+            }
+        }
+    }
+
+    /**
+     * Reads the journal record at a position if it is complete and intact.
+     *
+     * @param buffer Buffer holding the journal
+     * @param position Position of the record
+     * @return the record, null if there is no valid record at the position
+     */
+
+    private static ByteBuffer readRecord(ByteBuffer buffer, int position) {
+        if (position + RECORD_SIZE > buffer.limit()) {
+            return null;
+        }
+        byte[] bytes = new byte[RECORD_SIZE];   // bytes of the record
+        ByteBuffer source = buffer.duplicate(); // view of the buffer at the position
+        source.position(position);
+        source.get(bytes);
+        ByteBuffer record = ByteBuffer.wrap(bytes);
+        CRC32 recordChecksum = new CRC32();     // checksum of the record
+        recordChecksum.update(bytes, 0, RECORD_SIZE - 4);
+        if (record.getLong(0) == 0 || record.getInt(RECORD_SIZE - 4) != (int) recordChecksum.getValue()) {
+            return null;
+        }
+        return record;
+    }
+
+    /**
+     * Writes every balance to a new snapshot and starts the journal over.
+     * Only called on the commit thread after the journal has been forced.
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+
+    private void writeSnapshot() throws IOException {
+        File snapshotFile = new File(directory, "wallet.snapshot");        // snapshot file
+        File temporaryFile = new File(directory, "wallet.snapshot.tmp");   // snapshot file being written
+        try (FileOutputStream fileOut = new FileOutputStream(temporaryFile); DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(nextSequence - 1);
+            out.writeLong(nextAccount.get());
+            out.writeInt(committedBalances.size());
+            for (Map.Entry<Long, Double> balance : committedBalances.entrySet()) {
+                out.writeLong(balance.getKey());
+                out.writeDouble(balance.getValue());
+            }
+            out.writeInt(committedRounds.size());
+            for (Map.Entry<Long, HashMap<Long, RoundTotal>> round : committedRounds.entrySet()) {
+                out.writeLong(round.getKey());
+                out.writeInt(round.getValue().size());
+                for (Map.Entry<Long, RoundTotal> total : round.getValue().entrySet()) {
+                    out.writeLong(total.getKey());
+                    out.writeDouble(total.getValue().net);
+                    out.writeInt(total.getValue().settlements);
+                }
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(temporaryFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal.position(0);
+        snapshots.incrementAndGet();
+    }
+
+    /**
+     * Reads the balances and the rounds that had not ended from the latest snapshot.
+     *
+     * @return the sequence number of the last record in the snapshot, 0 if there is no snapshot
+     * @throws IOException if the snapshot cannot be read
+     */
+
+    private long readSnapshot() throws IOException {
+        File snapshotFile = new File(directory, "wallet.snapshot");    // snapshot file
+        if (!snapshotFile.exists()) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+            int magic = in.readInt();       // marker at the start of the snapshot
+            if (magic != SNAPSHOT_MAGIC && magic != UNNUMBERED_SNAPSHOT_MAGIC) {
+                throw new IOException("Wallet snapshot is corrupt");
+            }
+            long sequence = in.readLong();  // sequence number of the last record in the snapshot
+            if (magic == SNAPSHOT_MAGIC) {
+                nextAccount.accumulateAndGet(in.readLong(), Math::max);
+            }
+            int numBalances = in.readInt(); // number of balances in the snapshot
+            for (int i = 0; i < numBalances; i++) {
+                long account = in.readLong();   // id of the account
+                committedBalances.put(account, in.readDouble());
+                nextAccount.accumulateAndGet(account + 1, Math::max);
+            }
+            int numRounds = in.readInt();   // number of rounds that had not ended
+            for (int i = 0; i < numRounds; i++) {
+                HashMap<Long, RoundTotal> totals = new HashMap<>(); // changes each account made in the round
+                committedRounds.put(in.readLong(), totals);
+                int numTotals = in.readInt();   // number of accounts in the round
+                for (int j = 0; j < numTotals; j++) {
+                    RoundTotal total = new RoundTotal();    // changes the account made in the round
+                    totals.put(in.readLong(), total);
+                    total.net = in.readDouble();
+                    total.settlements = in.readInt();
+                }
+            }
+            return sequence;
+        }
+    }
+}